@@ -15,10 +15,13 @@
 
 package no.rutebanken.anshar.config;
 
+import no.rutebanken.anshar.subscription.SiriDataType;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 @Configuration
 public class AnsharConfiguration {
@@ -104,6 +107,60 @@ public class AnsharConfiguration {
     @Value("${anshar.validation.data.persist.hours:6}")
     private int numberOfHoursToKeepValidation;
 
+    @Value("${anshar.validation.executor.threads:2}")
+    private int validationThreads;
+
+    @Value("${anshar.validation.executor.queue.size:20}")
+    private int validationQueueSize;
+
+    @Value("${anshar.validation.sample.rate:1}")
+    private int validationSampleRate;
+
+    @Value("${anshar.incoming.queue.consumers:20}")
+    private int incomingQueueConsumers;
+
+    @Value("${anshar.incoming.queue.subscription.capacity:20}")
+    private int incomingQueueSubscriptionCapacity;
+
+    @Value("${anshar.incoming.queue.total.capacity:500}")
+    private int incomingQueueTotalCapacity;
+
+    @Value("${anshar.incoming.queue.weight.vm:4}")
+    private int incomingQueueWeightVm;
+
+    @Value("${anshar.incoming.queue.weight.et:2}")
+    private int incomingQueueWeightEt;
+
+    @Value("${anshar.incoming.queue.weight.sx:1}")
+    private int incomingQueueWeightSx;
+
+    @Value("${anshar.http.compression.enabled:true}")
+    private boolean httpCompressionEnabled;
+
+    @Value("${anshar.polling.http.connection.request.timeout.ms:5000}")
+    private int pollingConnectionRequestTimeout;
+
+    @Value("${anshar.polling.skip.unchanged.enabled:true}")
+    private boolean skipUnchangedPollResponses;
+
+    @Value("${anshar.polling.skip.unchanged.max.age.seconds:600}")
+    private int unchangedPollResponseMaxAgeSeconds;
+
+    @Value("${anshar.polling.adaptive.enabled:false}")
+    private boolean adaptivePollingEnabled;
+
+    @Value("${anshar.polling.adaptive.min.factor:0.5}")
+    private double adaptivePollingMinFactor;
+
+    @Value("${anshar.polling.adaptive.max.factor:4}")
+    private double adaptivePollingMaxFactor;
+
+    @Value("${anshar.incoming.processor.threads:0}")
+    private int incomingProcessorThreads;
+
+    @Value("${anshar.incoming.processor.max.pending:1000}")
+    private int incomingProcessorMaxPending;
+
 
     @Value("${anshar.tracking.data.buffer.commit.frequency.seconds:2}")
     private int changeBufferCommitFrequency;
@@ -221,6 +278,80 @@ public class AnsharConfiguration {
         return numberOfHoursToKeepValidation;
     }
 
+    public int getValidationThreads() {
+        return validationThreads;
+    }
+
+    public int getValidationQueueSize() {
+        return validationQueueSize;
+    }
+
+    public int getValidationSampleRate() {
+        return validationSampleRate;
+    }
+
+    public int getIncomingQueueConsumers() {
+        return incomingQueueConsumers;
+    }
+
+    public int getIncomingQueueSubscriptionCapacity() {
+        return incomingQueueSubscriptionCapacity;
+    }
+
+    public int getIncomingQueueTotalCapacity() {
+        return incomingQueueTotalCapacity;
+    }
+
+    public int getPollingConnectionRequestTimeout() {
+        return pollingConnectionRequestTimeout;
+    }
+
+    public boolean isSkipUnchangedPollResponses() {
+        return skipUnchangedPollResponses;
+    }
+
+    public int getUnchangedPollResponseMaxAgeSeconds() {
+        return unchangedPollResponseMaxAgeSeconds;
+    }
+
+    public boolean isAdaptivePollingEnabled() {
+        return adaptivePollingEnabled;
+    }
+
+    public double getAdaptivePollingMinFactor() {
+        return adaptivePollingMinFactor;
+    }
+
+    public double getAdaptivePollingMaxFactor() {
+        return adaptivePollingMaxFactor;
+    }
+
+    public boolean isHttpCompressionEnabled() {
+        return httpCompressionEnabled;
+    }
+
+    /**
+     * @return configured number of threads, defaults to the number of available processors
+     */
+    public int getIncomingProcessorThreads() {
+        if (incomingProcessorThreads <= 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return incomingProcessorThreads;
+    }
+
+    public int getIncomingProcessorMaxPending() {
+        return incomingProcessorMaxPending;
+    }
+
+    public Map<SiriDataType, Integer> getIncomingQueueWeights() {
+        Map<SiriDataType, Integer> weights = new EnumMap<>(SiriDataType.class);
+        weights.put(SiriDataType.VEHICLE_MONITORING, incomingQueueWeightVm);
+        weights.put(SiriDataType.ESTIMATED_TIMETABLE, incomingQueueWeightEt);
+        weights.put(SiriDataType.SITUATION_EXCHANGE, incomingQueueWeightSx);
+        return weights;
+    }
+
     public int getChangeBufferCommitFrequency() {
         return changeBufferCommitFrequency;
     }
@@ -47,6 +47,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -323,6 +324,8 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
             //Update change-tracker
             updateChangeTrackers(lastUpdateRequested, changesMap, requestorId, idSet, trackingPeriodMinutes, TimeUnit.MINUTES);
 
+            markDataServed(sizeLimitedIds);
+
             logger.info("Returning {}, {} left for requestorRef {}", sizeLimitedIds.size(), idSet.size(), requestorId);
         }
 
@@ -514,6 +517,11 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
         return  getValuesByDatasetId(timetableDeliveries, datasetId);
     }
 
+    @Override
+    public Iterator<Collection<EstimatedVehicleJourney>> getPages(String datasetId, int pageSize) {
+        return readInPages(timetableDeliveries, datasetId, pageSize);
+    }
+
     private ZonedDateTime getFirstAimedTime(EstimatedVehicleJourney vehicleJourney) {
 
         if (vehicleJourney.getRecordedCalls() != null && !vehicleJourney.getRecordedCalls().getRecordedCalls().isEmpty()) {
@@ -547,6 +555,11 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
         return ZonedDateTime.now();
     }
 
+    @Override
+    ZonedDateTime getProducerTimestamp(EstimatedVehicleJourney vehicleJourney) {
+        return vehicleJourney.getRecordedAtTime();
+    }
+
     public long getExpiration(EstimatedVehicleJourney vehicleJourney) {
         ZonedDateTime expiryTimestamp = getLatestArrivalTime(vehicleJourney);
 
@@ -738,6 +751,9 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
         timetableDeliveries.setAll(changes);
         timingTracer.mark("timetableDeliveries.setAll");
 
+        markDataStored(datasetId, changes.values());
+        timingTracer.mark("markDataStored");
+
         markIdsAsUpdated(changes.keySet());
         timingTracer.mark("markIdsAsUpdated");
         if (timingTracer.getTotalTime() > 3000) {
@@ -755,7 +771,7 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
         return timetableDeliveries.get(createKey(datasetId, delivery));
     }
 
-    private static SiriObjectStorageKey createKey(String datasetId, EstimatedVehicleJourney element) {
+    public static SiriObjectStorageKey createKey(String datasetId, EstimatedVehicleJourney element) {
 
         StringBuilder key = new StringBuilder();
         if (element.getFramedVehicleJourneyRef() != null) {
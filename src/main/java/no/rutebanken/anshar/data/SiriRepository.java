@@ -15,6 +15,8 @@
 
 package no.rutebanken.anshar.data;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Maps;
 import com.hazelcast.core.EntryEvent;
 import com.hazelcast.map.IMap;
@@ -28,6 +30,7 @@ import no.rutebanken.anshar.data.collections.ExtendedHazelcastService;
 import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.siri.transformer.ApplicationContextHolder;
 import no.rutebanken.anshar.subscription.SiriDataType;
+import no.rutebanken.anshar.subscription.SubscriptionSetup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -41,12 +44,16 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -71,6 +78,11 @@ abstract class SiriRepository<T> {
 
     abstract Collection<T> getAll(String datasetId);
 
+    /**
+     * All values for dataset in pages - values are read when each page is requested
+     */
+    abstract Iterator<Collection<T>> getPages(String datasetId, int pageSize);
+
     abstract Collection<T> getAllUpdates(String requestorId, String datasetId);
 
     abstract Collection<T> addAll(String datasetId, List<T> ptList);
@@ -79,6 +91,11 @@ abstract class SiriRepository<T> {
 
     abstract long getExpiration(T s);
 
+    /**
+     * @return Timestamp set by the producer, used to calculate ingest-lag
+     */
+    abstract ZonedDateTime getProducerTimestamp(T s);
+
     private final Logger logger = LoggerFactory.getLogger(SiriRepository.class);
 
     protected PrometheusMetricsService metrics;
@@ -92,6 +109,14 @@ abstract class SiriRepository<T> {
 
     Map<SiriObjectStorageKey, T> cache = Maps.newConcurrentMap();
 
+    /**
+     * Time each object was stored - removed when the object is served the first time
+     */
+    private final Cache<SiriObjectStorageKey, Long> storedAt = CacheBuilder.newBuilder()
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .maximumSize(500_000)
+            .build();
+
     protected SiriRepository (SiriDataType siriDataType) {
         this.SIRI_DATA_TYPE = siriDataType;
     }
@@ -105,6 +130,7 @@ abstract class SiriRepository<T> {
         // Entry added - new data
         map.addEntryListener((EntryAddedListener<SiriObjectStorageKey, T>) entryEvent -> {
 
+            storedAt.put(entryEvent.getKey(), System.currentTimeMillis());
             if (includeInCachePredicate == null || includeInCachePredicate.test(entryEvent.getValue())) {
                 cache.put(entryEvent.getKey(), entryEvent.getValue());
             }
@@ -113,6 +139,7 @@ abstract class SiriRepository<T> {
         // Entry updated - new version
         map.addEntryListener((EntryUpdatedListener<SiriObjectStorageKey, T>) entryEvent -> {
 
+            storedAt.put(entryEvent.getKey(), System.currentTimeMillis());
             if (includeInCachePredicate == null || includeInCachePredicate.test(entryEvent.getValue())) {
                 cache.put(entryEvent.getKey(), entryEvent.getValue());
             }
@@ -235,6 +262,7 @@ abstract class SiriRepository<T> {
                             updates.add(element);
                         }
                     }
+                    markDataServed(changes);
                     return updates;
                 }
             } finally {
@@ -327,6 +355,48 @@ abstract class SiriRepository<T> {
         metrics.registerIncomingData(dataType, datasetId, totalSize, updatedSize, expiredSize, ignoredSize);
     }
 
+    /**
+     * Registers lag between producer-timestamp and storage for all stored objects
+     */
+    void markDataStored(String datasetId, Collection<T> stored) {
+        if (stored.isEmpty()) {
+            return;
+        }
+        prepareMetrics();
+        long now = System.currentTimeMillis();
+        List<Long> lagMillis = new ArrayList<>();
+        for (T element : stored) {
+            ZonedDateTime producerTimestamp = getProducerTimestamp(element);
+            if (producerTimestamp != null) {
+                lagMillis.add(now - producerTimestamp.toInstant().toEpochMilli());
+            }
+        }
+        metrics.registerIngestLag(SIRI_DATA_TYPE, datasetId, lagMillis);
+    }
+
+    /**
+     * Registers lag between storage and the first time each object is served to a client.
+     *
+     * Storage-time is tracked per node, so objects are counted once per node that serves them.
+     */
+    void markDataServed(Collection<SiriObjectStorageKey> served) {
+        if (served.isEmpty()) {
+            return;
+        }
+        prepareMetrics();
+        long now = System.currentTimeMillis();
+        Map<String, List<Long>> lagPerCodespace = new HashMap<>();
+        for (SiriObjectStorageKey key : served) {
+            Long stored = storedAt.asMap().remove(key);
+            if (stored != null) {
+                lagPerCodespace.computeIfAbsent(key.getCodespaceId(), c -> new ArrayList<>()).add(now - stored);
+            }
+        }
+        lagPerCodespace.forEach((codespace, lagMillis) ->
+            metrics.registerOutboundLag(SIRI_DATA_TYPE, codespace, SubscriptionSetup.SubscriptionMode.LITE, lagMillis)
+        );
+    }
+
     void prepareMetrics() {
         if (metrics == null) {
             metrics = ApplicationContextHolder.getContext().getBean(PrometheusMetricsService.class);
@@ -388,6 +458,60 @@ abstract class SiriRepository<T> {
         return collection.getAll(codespaceKeys).values();
     }
 
+    /**
+     * Only keys are read up front - values are read one page at a time, when the page is requested
+     */
+    Iterator<Collection<T>> readInPages(IMap<SiriObjectStorageKey, T> collection, String datasetId, int pageSize) {
+        final Set<SiriObjectStorageKey> keys;
+        if (datasetId == null || datasetId.isEmpty()) {
+            keys = collection.keySet();
+        } else {
+            keys = collection.keySet(createCodespacePredicate(datasetId));
+        }
+        return new PageIterator<>(collection, keys.iterator(), Math.max(1, pageSize));
+    }
+
+    /**
+     * Pages where all elements have expired since keys were read are skipped
+     */
+    private static class PageIterator<T> implements Iterator<Collection<T>> {
+        private final IMap<SiriObjectStorageKey, T> collection;
+        private final Iterator<SiriObjectStorageKey> keys;
+        private final int pageSize;
+        private Collection<T> nextPage;
+
+        private PageIterator(IMap<SiriObjectStorageKey, T> collection, Iterator<SiriObjectStorageKey> keys, int pageSize) {
+            this.collection = collection;
+            this.keys = keys;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (nextPage == null && keys.hasNext()) {
+                Set<SiriObjectStorageKey> page = new HashSet<>();
+                while (page.size() < pageSize && keys.hasNext()) {
+                    page.add(keys.next());
+                }
+                final Collection<T> values = collection.getAll(page).values();
+                if (!values.isEmpty()) {
+                    nextPage = values;
+                }
+            }
+            return nextPage != null;
+        }
+
+        @Override
+        public Collection<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Collection<T> page = nextPage;
+            nextPage = null;
+            return page;
+        }
+    }
+
     Set<SiriObjectStorageKey> filterIdsByDataset(final Set<SiriObjectStorageKey> idSet, List<String> excludedDatasetIds, String datasetId) {
 
         Set<SiriObjectStorageKey> requestedIds = new HashSet<>();
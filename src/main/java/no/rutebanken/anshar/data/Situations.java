@@ -42,6 +42,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -219,6 +220,8 @@ public class Situations extends SiriRepository<PtSituationElement> {
             //Update change-tracker
             updateChangeTrackers(lastUpdateRequested, changesMap, requestorId, idSet, trackingPeriodMinutes, TimeUnit.MINUTES);
 
+            markDataServed(sizeLimitedIds);
+
             logger.info("Returning {}, {} left for requestorRef {}", sizeLimitedIds.size(), idSet.size(), requestorId);
         }
 
@@ -235,6 +238,11 @@ public class Situations extends SiriRepository<PtSituationElement> {
         return getValuesByDatasetId(situationElements, datasetId);
     }
 
+    @Override
+    public Iterator<Collection<PtSituationElement>> getPages(String datasetId, int pageSize) {
+        return readInPages(situationElements, datasetId, pageSize);
+    }
+
 
     /**
      * @return All vehicle activities that have been updated since last request from requestor
@@ -277,6 +285,17 @@ public class Situations extends SiriRepository<PtSituationElement> {
         return getAll(datasetId);
     }
 
+    /**
+     * SX has no RecordedAtTime - VersionedAtTime is used when set, CreationTime otherwise
+     */
+    @Override
+    ZonedDateTime getProducerTimestamp(PtSituationElement situationElement) {
+        if (situationElement.getVersionedAtTime() != null) {
+            return situationElement.getVersionedAtTime();
+        }
+        return situationElement.getCreationTime();
+    }
+
     public long getExpiration(PtSituationElement situationElement) {
         List<HalfOpenTimestampOutputRangeStructure> validityPeriods = situationElement.getValidityPeriods();
 
@@ -388,6 +407,9 @@ public class Situations extends SiriRepository<PtSituationElement> {
         situationElements.setAll(changes);
         timingTracer.mark("monitoredVehicles.setAll");
 
+        markDataStored(datasetId, changes.values());
+        timingTracer.mark("markDataStored");
+
         markDataReceived(SiriDataType.SITUATION_EXCHANGE, datasetId, sxList.size(), changes.size(), alreadyExpiredCounter.getValue(), ignoredCounter.getValue());
         timingTracer.mark("markDataReceived");
 
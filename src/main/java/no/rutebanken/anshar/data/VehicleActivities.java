@@ -48,6 +48,7 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -175,6 +176,11 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
         return getValuesByDatasetId(monitoredVehicles, datasetId);
     }
 
+    @Override
+    public Iterator<Collection<VehicleActivityStructure>> getPages(String datasetId, int pageSize) {
+        return readInPages(monitoredVehicles, datasetId, pageSize);
+    }
+
     /**
      * @return All vehicle activities that have been updated since last request from requestor
      */
@@ -278,12 +284,19 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
             msgRef.setValue(requestorId);
             siri.getServiceDelivery().setRequestMessageRef(msgRef);
 
+            markDataServed(sizeLimitedIds);
+
             logger.info("Returning {}, {} left for requestorRef {}", sizeLimitedIds.size(), idSet.size(), requestorId);
         }
 
         return siri;
     }
 
+    @Override
+    ZonedDateTime getProducerTimestamp(VehicleActivityStructure activity) {
+        return activity.getRecordedAtTime();
+    }
+
     public long getExpiration(VehicleActivityStructure a) {
 
         ZonedDateTime validUntil = a.getValidUntilTime();
@@ -395,6 +408,9 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
         monitoredVehicles.setAll(changes);
         timingTracer.mark("monitoredVehicles.setAll");
 
+        markDataStored(datasetId, changes.values());
+        timingTracer.mark("markDataStored");
+
         logger.info("Updated {} (of {}) :: Ignored elements - Missing location:{}, Missing values: {}, Expired: {}, Not updated: {}", changes.size(), vmList.size(), invalidLocationCounter.getValue(), notMeaningfulCounter.getValue(), outdatedCounter.getValue(), notUpdatedCounter.getValue());
 
         markDataReceived(SiriDataType.VEHICLE_MONITORING, datasetId, vmList.size(), changes.size(), outdatedCounter.getValue(), (invalidLocationCounter.getValue() + notMeaningfulCounter.getValue() + notUpdatedCounter.getValue()));
@@ -500,7 +516,7 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
      * @param monitoredVehicleJourney
      * @return
      */
-    private SiriObjectStorageKey createKey(String datasetId, VehicleActivityStructure.MonitoredVehicleJourney monitoredVehicleJourney) {
+    public static SiriObjectStorageKey createKey(String datasetId, VehicleActivityStructure.MonitoredVehicleJourney monitoredVehicleJourney) {
         StringBuilder key = new StringBuilder();
 
 
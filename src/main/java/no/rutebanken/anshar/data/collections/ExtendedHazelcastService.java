@@ -31,6 +31,7 @@ import no.rutebanken.anshar.data.SiriObjectStorageKey;
 import no.rutebanken.anshar.routes.outbound.OutboundSubscriptionSetup;
 import no.rutebanken.anshar.subscription.SiriDataType;
 import no.rutebanken.anshar.subscription.SubscriptionSetup;
+import no.rutebanken.anshar.subscription.helpers.DeliveryChangeStats;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.rutebanken.hazelcasthelper.service.HazelCastService;
@@ -195,6 +196,11 @@ public class ExtendedHazelcastService extends HazelCastService {
     }
 
 
+    @Bean
+    public IMap<String, DeliveryChangeStats> getDeliveryChangeStatsMap() {
+        return hazelcast.getMap("anshar.subscriptions.data.received.changes");
+    }
+
     @Bean
     public IMap<String, Instant> getLastEtUpdateRequest() {
         return hazelcast.getMap("anshar.activity.last.et.update.request");
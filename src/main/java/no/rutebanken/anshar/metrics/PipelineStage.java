@@ -0,0 +1,8 @@
+package no.rutebanken.anshar.metrics;
+
+/**
+ * Stages of the ingest-pipeline that are timed individually
+ */
+public enum PipelineStage {
+    RECEIVE, XSLT, PARSE, PROFILE_VALIDATION, TRANSFORM, QUEUE, ADD_ALL, OUTBOUND_PUSH
+}
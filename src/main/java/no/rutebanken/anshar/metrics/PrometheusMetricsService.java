@@ -15,21 +15,31 @@
 
 package no.rutebanken.anshar.metrics;
 
+import com.google.common.cache.Cache;
 import com.hazelcast.replicatedmap.ReplicatedMap;
 import io.micrometer.core.instrument.ImmutableTag;
 import io.micrometer.core.instrument.Meter;
 import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import io.micrometer.prometheus.PrometheusConfig;
 import io.micrometer.prometheus.PrometheusMeterRegistry;
 import no.rutebanken.anshar.data.EstimatedTimetables;
 import no.rutebanken.anshar.data.Situations;
 import no.rutebanken.anshar.data.VehicleActivities;
+import no.rutebanken.anshar.routes.messaging.WeightedSubscriptionQueues;
+import no.rutebanken.anshar.routes.outbound.OutboundCircuitBreaker;
+import no.rutebanken.anshar.routes.outbound.OutboundDispatcher;
+import no.rutebanken.anshar.routes.outbound.OutboundHttpClient;
+import no.rutebanken.anshar.routes.siri.helpers.AdaptivePollingInterval;
 import no.rutebanken.anshar.routes.siri.transformer.ApplicationContextHolder;
 import no.rutebanken.anshar.routes.siri.transformer.MappingNames;
+import no.rutebanken.anshar.routes.validation.BoundedValidationExecutor;
 import no.rutebanken.anshar.routes.validation.ValidationType;
 import no.rutebanken.anshar.subscription.SiriDataType;
 import no.rutebanken.anshar.subscription.SubscriptionManager;
 import no.rutebanken.anshar.subscription.SubscriptionSetup;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import uk.org.siri.siri21.EstimatedTimetableDeliveryStructure;
@@ -39,10 +49,14 @@ import uk.org.siri.siri21.SituationExchangeDeliveryStructure;
 import uk.org.siri.siri21.VehicleMonitoringDeliveryStructure;
 
 import javax.annotation.PreDestroy;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class PrometheusMetricsService extends PrometheusMeterRegistry {
@@ -51,6 +65,7 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
     private static final String AGENCY_TAG_NAME = "agency";
     private static final String MAPPING_ID_TAG = "mappingId";
     private static final String MAPPING_NAME_TAG = "mappingName";
+    private static final String MAPPING_ADAPTER_TAG = "adapter";
     private static final String SIRI_CONTENT_NAME_TAG = "siriContent";
     private static final String SIRI_CONTENT_LABEL_TAG = "siriContentLabel";
     private static final String SIRI_CONTENT_GROUP_TAG = "group";
@@ -64,6 +79,11 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
     private static final String VALIDATION_RULE_TAG_NAME = "category";
     private static final String SCHEMA_VALID_TAG_NAME = "schema";
     private static final String PROFILE_VALID_TAG_NAME = "profile";
+    private static final String SUBSCRIPTION_ID_TAG_NAME = "subscriptionId";
+    private static final String REASON_TAG_NAME = "reason";
+    private static final String HOST_TAG_NAME = "host";
+    private static final String STATE_TAG_NAME = "state";
+    private static final String STAGE_TAG_NAME = "stage";
 
     @Autowired
     protected SubscriptionManager manager;
@@ -77,6 +97,7 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
     private static final String DATA_OUTBOUND_COUNTER_NAME = METRICS_PREFIX + "data.outbound";
 
     private static final String DATA_MAPPING_COUNTER_NAME = METRICS_PREFIX + "data.mapping";
+    private static final String DATA_MAPPING_CACHE_NAME = METRICS_PREFIX + "data.mapping.cache";
 
     private static final String SIRI_CONTENT_COUNTER_NAME = METRICS_PREFIX + "siri.content";
 
@@ -84,6 +105,43 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
 
     private static final String DATA_VALIDATION_COUNTER = METRICS_PREFIX + "data.validation";
     private static final String DATA_VALIDATION_RESULT_COUNTER = METRICS_PREFIX + "data.validation.result";
+    private static final String DATA_VALIDATION_DROPPED_COUNTER = METRICS_PREFIX + "data.validation.dropped";
+    private static final String DATA_VALIDATION_QUEUE_GAUGE = METRICS_PREFIX + "data.validation.queue";
+    private static final String DATA_VALIDATION_ACTIVE_GAUGE = METRICS_PREFIX + "data.validation.active";
+    private static final String DATA_VALIDATION_QUEUE_TIMER = METRICS_PREFIX + "data.validation.queue.time";
+    private static final String DATA_VALIDATION_TIMER = METRICS_PREFIX + "data.validation.time";
+
+    private static final String DATA_INGEST_QUEUE_GAUGE = METRICS_PREFIX + "data.ingest.queue";
+    private static final String DATA_INGEST_REJECTED_COUNTER = METRICS_PREFIX + "data.ingest.rejected";
+    private static final String DATA_INGEST_COALESCED_COUNTER = METRICS_PREFIX + "data.ingest.coalesced";
+
+    private static final String OUTBOUND_QUEUE_GAUGE = METRICS_PREFIX + "outbound.queue";
+    private static final String OUTBOUND_FANOUT_QUEUE_GAUGE = METRICS_PREFIX + "outbound.fanout.queue";
+    private static final String OUTBOUND_DROPPED_COUNTER = METRICS_PREFIX + "outbound.dropped";
+    private static final String OUTBOUND_RENDER_CACHE_NAME = METRICS_PREFIX + "outbound.render.cache";
+    private static final String OUTBOUND_HTTP_LATENCY_TIMER = METRICS_PREFIX + "outbound.http.latency";
+    private static final String OUTBOUND_HTTP_CONNECTIONS_GAUGE = METRICS_PREFIX + "outbound.http.connections";
+    private static final String OUTBOUND_CIRCUIT_OPEN_GAUGE = METRICS_PREFIX + "outbound.circuit.open";
+    private static final Duration OUTBOUND_HTTP_LATENCY_MIN_EXPECTED = Duration.ofMillis(1);
+    private static final Duration OUTBOUND_HTTP_LATENCY_MAX_EXPECTED = Duration.ofSeconds(30);
+
+    private static final String POLLING_CONNECTION_LEASED_TIMER = METRICS_PREFIX + "polling.connection.leased";
+    private static final String POLLING_CONNECTION_CREATED_COUNTER = METRICS_PREFIX + "polling.connection.created";
+    private static final String POLLING_CONNECTION_POOL_GAUGE = METRICS_PREFIX + "polling.connection.pool";
+    private static final String POLLING_LATENCY_TIMER = METRICS_PREFIX + "polling.latency";
+    private static final String POLLING_UNCHANGED_COUNTER = METRICS_PREFIX + "polling.unchanged";
+    private static final String POLLING_INTERVAL_GAUGE = METRICS_PREFIX + "polling.interval";
+
+    private static final String PIPELINE_STAGE_TIMER = METRICS_PREFIX + "pipeline.stage";
+    private static final Duration PIPELINE_STAGE_STATISTICS_EXPIRY = Duration.ofMinutes(5);
+
+    // Registered on the hottest paths - timers are built once per stage/subscription/type
+    private final Map<String, Timer> pipelineStageTimers = new ConcurrentHashMap<>();
+
+    private static final String DATA_FRESHNESS_INGEST_TIMER = METRICS_PREFIX + "data.freshness.ingest";
+    private static final String DATA_FRESHNESS_OUTBOUND_TIMER = METRICS_PREFIX + "data.freshness.outbound";
+    private static final Duration DATA_FRESHNESS_MIN_EXPECTED = Duration.ofMillis(10);
+    private static final Duration DATA_FRESHNESS_MAX_EXPECTED = Duration.ofHours(1);
 
     public PrometheusMetricsService() {
         super(PrometheusConfig.DEFAULT);
@@ -117,6 +175,10 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
         counter(DATA_MAPPING_COUNTER_NAME, counterTags).increment(mappedCount);
     }
 
+    public void registerAdapterCache(String adapterKey, Cache<?, ?> cache) {
+        GuavaCacheMetrics.monitor(this, cache, DATA_MAPPING_CACHE_NAME, MAPPING_ADAPTER_TAG, adapterKey);
+    }
+
     public void registerSiriContent(SiriDataType dataType, String agencyId, String serviceJourneyId, SiriContent content) {
         List<Tag> counterTags = new ArrayList<>();
         counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType.name()));
@@ -204,6 +266,261 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
         counter(DATA_VALIDATION_RESULT_COUNTER, counterTags).increment();
     }
 
+    public void registerValidationQueue(BoundedValidationExecutor validationExecutor) {
+        gauge(DATA_VALIDATION_QUEUE_GAUGE, new ArrayList<>(), validationExecutor, BoundedValidationExecutor::getQueueSize);
+        gauge(DATA_VALIDATION_ACTIVE_GAUGE, new ArrayList<>(), validationExecutor, BoundedValidationExecutor::getActiveCount);
+    }
+
+    public void registerDroppedValidation(SiriDataType dataType, String codespaceId) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType != null ? dataType.name():""));
+        counterTags.add(new ImmutableTag(CODESPACE_TAG_NAME, codespaceId != null ? codespaceId:""));
+
+        counter(DATA_VALIDATION_DROPPED_COUNTER, counterTags).increment();
+    }
+
+    public void registerValidationQueueTime(SiriDataType dataType, long millis) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType != null ? dataType.name():""));
+
+        timer(DATA_VALIDATION_QUEUE_TIMER, counterTags).record(millis, TimeUnit.MILLISECONDS);
+    }
+
+    public void registerValidationTime(SiriDataType dataType, long millis) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType != null ? dataType.name():""));
+
+        timer(DATA_VALIDATION_TIMER, counterTags).record(millis, TimeUnit.MILLISECONDS);
+    }
+
+    public void registerIngestQueue(String subscriptionId, SiriDataType dataType, WeightedSubscriptionQueues<?> queues) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(SUBSCRIPTION_ID_TAG_NAME, subscriptionId));
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType != null ? dataType.name():""));
+
+        gauge(DATA_INGEST_QUEUE_GAUGE, counterTags, queues, q -> q.size(subscriptionId));
+    }
+
+    public void removeIngestQueue(String subscriptionId) {
+        removeSubscriptionMeters(DATA_INGEST_QUEUE_GAUGE, subscriptionId);
+    }
+
+    private void removeSubscriptionMeters(String meterName, String subscriptionId) {
+        for (Meter meter : getMeters()) {
+            if (meterName.equals(meter.getId().getName()) &&
+                subscriptionId.equals(meter.getId().getTag(SUBSCRIPTION_ID_TAG_NAME))) {
+                this.remove(meter);
+            }
+        }
+    }
+
+    public void registerIngestRejected(String subscriptionId, SiriDataType dataType, WeightedSubscriptionQueues.Admission reason) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(SUBSCRIPTION_ID_TAG_NAME, subscriptionId));
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType != null ? dataType.name():""));
+        counterTags.add(new ImmutableTag(REASON_TAG_NAME, reason.name()));
+
+        counter(DATA_INGEST_REJECTED_COUNTER, counterTags).increment();
+    }
+
+    public void registerIngestCoalesced(String subscriptionId, SiriDataType dataType, int discardedCount) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(SUBSCRIPTION_ID_TAG_NAME, subscriptionId));
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType != null ? dataType.name():""));
+
+        counter(DATA_INGEST_COALESCED_COUNTER, counterTags).increment(discardedCount);
+    }
+
+    public void registerOutboundQueue(String subscriptionId, SiriDataType dataType, OutboundDispatcher dispatcher) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(SUBSCRIPTION_ID_TAG_NAME, subscriptionId));
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType != null ? dataType.name():""));
+
+        gauge(OUTBOUND_QUEUE_GAUGE, counterTags, dispatcher, d -> d.getQueueSize(subscriptionId));
+    }
+
+    public void removeOutboundQueue(String subscriptionId) {
+        removeSubscriptionMeters(OUTBOUND_QUEUE_GAUGE, subscriptionId);
+    }
+
+    public void registerOutboundFanOutQueue(OutboundDispatcher dispatcher) {
+        gauge(OUTBOUND_FANOUT_QUEUE_GAUGE, new ArrayList<>(), dispatcher, OutboundDispatcher::getFanOutQueueSize);
+    }
+
+    public void registerRenderedPayloadCache(Cache<?, ?> cache) {
+        GuavaCacheMetrics.monitor(this, cache, OUTBOUND_RENDER_CACHE_NAME);
+    }
+
+    public void registerOutboundDropped(String subscriptionId, SiriDataType dataType, String reason) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(SUBSCRIPTION_ID_TAG_NAME, subscriptionId));
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType != null ? dataType.name():""));
+        counterTags.add(new ImmutableTag(REASON_TAG_NAME, reason));
+
+        counter(OUTBOUND_DROPPED_COUNTER, counterTags).increment();
+    }
+
+    public void removeOutboundDropped(String subscriptionId) {
+        removeSubscriptionMeters(OUTBOUND_DROPPED_COUNTER, subscriptionId);
+    }
+
+    /**
+     * Response time for outbound push-deliveries - one attempt, including time waiting for a connection
+     */
+    public void registerOutboundHttpLatency(String subscriptionId, boolean success, long nanos) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(SUBSCRIPTION_ID_TAG_NAME, subscriptionId != null ? subscriptionId:""));
+        counterTags.add(new ImmutableTag(STATE_TAG_NAME, success ? "success":"failed"));
+
+        Timer.builder(OUTBOUND_HTTP_LATENCY_TIMER)
+            .tags(counterTags)
+            .publishPercentileHistogram()
+            .minimumExpectedValue(OUTBOUND_HTTP_LATENCY_MIN_EXPECTED)
+            .maximumExpectedValue(OUTBOUND_HTTP_LATENCY_MAX_EXPECTED)
+            .register(this)
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void removeOutboundHttpLatency(String subscriptionId) {
+        removeSubscriptionMeters(OUTBOUND_HTTP_LATENCY_TIMER, subscriptionId);
+    }
+
+    public void registerOutboundHttpConnections(String host, OutboundHttpClient httpClient) {
+        gauge(OUTBOUND_HTTP_CONNECTIONS_GAUGE, List.of(new ImmutableTag(HOST_TAG_NAME, host), new ImmutableTag(STATE_TAG_NAME, "active")), httpClient, c -> c.getActiveCount(host));
+        gauge(OUTBOUND_HTTP_CONNECTIONS_GAUGE, List.of(new ImmutableTag(HOST_TAG_NAME, host), new ImmutableTag(STATE_TAG_NAME, "waiting")), httpClient, c -> c.getWaitingCount(host));
+    }
+
+    public void registerOutboundCircuitBreaker(OutboundCircuitBreaker circuitBreaker) {
+        gauge(OUTBOUND_CIRCUIT_OPEN_GAUGE, new ArrayList<>(), circuitBreaker, OutboundCircuitBreaker::getOpenCount);
+    }
+
+    public void registerPollingConnectionPool(PoolingHttpClientConnectionManager connectionManager) {
+        gauge(POLLING_CONNECTION_POOL_GAUGE, List.of(new ImmutableTag(STATE_TAG_NAME, "leased")), connectionManager, m -> m.getTotalStats().getLeased());
+        gauge(POLLING_CONNECTION_POOL_GAUGE, List.of(new ImmutableTag(STATE_TAG_NAME, "available")), connectionManager, m -> m.getTotalStats().getAvailable());
+        gauge(POLLING_CONNECTION_POOL_GAUGE, List.of(new ImmutableTag(STATE_TAG_NAME, "pending")), connectionManager, m -> m.getTotalStats().getPending());
+    }
+
+    /**
+     * Time spent waiting for a connection from the pool - count is number of leased connections
+     */
+    public void registerPollingConnectionLeased(String host, long waitNanos) {
+        timer(POLLING_CONNECTION_LEASED_TIMER, List.of(new ImmutableTag(HOST_TAG_NAME, host))).record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * New connection opened - leased connections not created are reused from the pool
+     */
+    public void registerPollingConnectionCreated(String host) {
+        counter(POLLING_CONNECTION_CREATED_COUNTER, List.of(new ImmutableTag(HOST_TAG_NAME, host))).increment();
+    }
+
+    public void registerPollingLatency(SubscriptionSetup subscriptionSetup, long millis) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(SUBSCRIPTION_ID_TAG_NAME, subscriptionSetup.getSubscriptionId()));
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, subscriptionSetup.getSubscriptionType().name()));
+        counterTags.add(new ImmutableTag(AGENCY_TAG_NAME, subscriptionSetup.getDatasetId()));
+
+        timer(POLLING_LATENCY_TIMER, counterTags).record(millis, TimeUnit.MILLISECONDS);
+    }
+
+    public void registerUnchangedPollResponse(SubscriptionSetup subscriptionSetup) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(SUBSCRIPTION_ID_TAG_NAME, subscriptionSetup.getSubscriptionId()));
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, subscriptionSetup.getSubscriptionType().name()));
+        counterTags.add(new ImmutableTag(AGENCY_TAG_NAME, subscriptionSetup.getDatasetId()));
+
+        counter(POLLING_UNCHANGED_COUNTER, counterTags).increment();
+    }
+
+    public void registerPollingInterval(SubscriptionSetup subscriptionSetup, AdaptivePollingInterval pollingInterval) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(SUBSCRIPTION_ID_TAG_NAME, subscriptionSetup.getSubscriptionId()));
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, subscriptionSetup.getSubscriptionType().name()));
+        counterTags.add(new ImmutableTag(AGENCY_TAG_NAME, subscriptionSetup.getDatasetId()));
+
+        gauge(POLLING_INTERVAL_GAUGE, counterTags, pollingInterval, i -> i.getInterval().toMillis());
+    }
+
+    public void registerPipelineStage(PipelineStage stage, SubscriptionSetup subscriptionSetup, long nanos) {
+        if (subscriptionSetup != null) {
+            registerPipelineStage(stage, subscriptionSetup.getSubscriptionId(), subscriptionSetup.getSubscriptionType(), nanos);
+        }
+    }
+
+    /**
+     * Percentiles are calculated over the last few minutes, and are exposed both as metrics and in the admin-pages
+     */
+    public void registerPipelineStage(PipelineStage stage, String subscriptionId, SiriDataType dataType, long nanos) {
+        String subscriptionTag = subscriptionId != null ? subscriptionId:"";
+        String dataTypeTag = dataType != null ? dataType.name():"";
+
+        pipelineStageTimers.computeIfAbsent(stage.name() + "|" + subscriptionTag + "|" + dataTypeTag, key -> {
+            List<Tag> counterTags = new ArrayList<>();
+            counterTags.add(new ImmutableTag(STAGE_TAG_NAME, stage.name()));
+            counterTags.add(new ImmutableTag(SUBSCRIPTION_ID_TAG_NAME, subscriptionTag));
+            counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataTypeTag));
+
+            return Timer.builder(PIPELINE_STAGE_TIMER)
+                .tags(counterTags)
+                .publishPercentiles(0.5, 0.99)
+                .distributionStatisticExpiry(PIPELINE_STAGE_STATISTICS_EXPIRY)
+                .register(this);
+        }).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Removes cached pipeline-timers for a terminated subscription
+     */
+    public void removePipelineStages(String subscriptionId) {
+        pipelineStageTimers.values().removeIf(timer -> subscriptionId.equals(timer.getId().getTag(SUBSCRIPTION_ID_TAG_NAME)));
+        removeSubscriptionMeters(PIPELINE_STAGE_TIMER, subscriptionId);
+    }
+
+    public Collection<Timer> getPipelineStageTimers() {
+        return find(PIPELINE_STAGE_TIMER).timers();
+    }
+
+    /**
+     * Lag between the producer-timestamp (e.g. RecordedAtTime) and the time the objects were stored
+     */
+    public void registerIngestLag(SiriDataType dataType, String codespace, Collection<Long> lagMillis) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType.name()));
+        counterTags.add(new ImmutableTag(CODESPACE_TAG_NAME, codespace != null ? codespace:""));
+
+        recordFreshness(DATA_FRESHNESS_INGEST_TIMER, counterTags, lagMillis);
+    }
+
+    /**
+     * Lag between the time the objects were stored and the first time they were delivered to a client
+     * @param mode SUBSCRIBE for pushed data, LITE for data served on request
+     */
+    public void registerOutboundLag(SiriDataType dataType, String codespace, SubscriptionSetup.SubscriptionMode mode, Collection<Long> lagMillis) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType.name()));
+        counterTags.add(new ImmutableTag(CODESPACE_TAG_NAME, codespace != null ? codespace:""));
+        counterTags.add(new ImmutableTag("mode", mode.name()));
+
+        recordFreshness(DATA_FRESHNESS_OUTBOUND_TIMER, counterTags, lagMillis);
+    }
+
+    private void recordFreshness(String name, List<Tag> tags, Collection<Long> lagMillis) {
+        if (lagMillis.isEmpty()) {
+            return;
+        }
+        Timer timer = Timer.builder(name)
+            .tags(tags)
+            .publishPercentileHistogram()
+            .minimumExpectedValue(DATA_FRESHNESS_MIN_EXPECTED)
+            .maximumExpectedValue(DATA_FRESHNESS_MAX_EXPECTED)
+            .register(this);
+
+        for (Long lag : lagMillis) {
+            // Negative lag is caused by clock-skew between producer and Anshar
+            timer.record(Math.max(0, lag), TimeUnit.MILLISECONDS);
+        }
+    }
+
     private void countOutgoingData(SiriDataType dataType, SubscriptionSetup.SubscriptionMode mode, long objectCount) {
         if (dataType != null && objectCount > 0) {
             List<Tag> counterTags = new ArrayList<>();
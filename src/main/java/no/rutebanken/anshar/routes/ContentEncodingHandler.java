@@ -0,0 +1,62 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes;
+
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Jetty-handler for compressed HTTP-bodies on all REST-endpoints.
+ *
+ * Incoming requests with "Content-Encoding: gzip" are inflated before they reach the routes, and
+ * responses are gzipped when the client sends "Accept-Encoding: gzip" and the response is larger
+ * than the configured minimum size.
+ */
+@Component(value = "contentEncodingHandler")
+public class ContentEncodingHandler extends GzipHandler {
+
+    private static final int INFLATE_BUFFER_SIZE = 8192;
+
+    @Value("${anshar.http.compression.min.size:1024}")
+    private int minCompressionSize;
+
+    ContentEncodingHandler() {
+    }
+
+    ContentEncodingHandler(int minCompressionSize) {
+        this.minCompressionSize = minCompressionSize;
+        configure();
+    }
+
+    @PostConstruct
+    void configure() {
+        setMinGzipSize(minCompressionSize);
+        setInflateBufferSize(INFLATE_BUFFER_SIZE);
+
+        // SIRI-requests are POSTed, so POST-responses must be compressed as well
+        setIncludedMethods("GET", "POST");
+        setIncludedMimeTypes(
+            MediaType.APPLICATION_XML,
+            MediaType.TEXT_XML,
+            MediaType.APPLICATION_JSON,
+            "application/x-protobuf"
+        );
+    }
+}
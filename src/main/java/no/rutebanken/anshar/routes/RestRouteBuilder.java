@@ -20,6 +20,7 @@ import org.apache.camel.Exchange;
 import org.apache.camel.InvalidPayloadException;
 import org.apache.camel.LoggingLevel;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.model.rest.RestConfigurationDefinition;
 import org.apache.camel.support.builder.Namespaces;
 import org.apache.http.HttpHeaders;
 import org.entur.protobuf.mapper.SiriMapper;
@@ -75,15 +76,19 @@ public class RestRouteBuilder extends RouteBuilder {
     @Override
     public void configure() throws Exception {
 
-        restConfiguration()
+        RestConfigurationDefinition restConfiguration = restConfiguration()
                 .component("jetty")
                 .port(configuration.getInboundPort())
                 .apiContextPath("anshar/swagger.json")
-//                .endpointProperty("httpBindingRef", "#contentEncodingRequestFilter")
                 .apiProperty("api.title", "Realtime").apiProperty("api.version", "1.0")
                 .apiProperty("cors", "true")
         ;
 
+        if (configuration.isHttpCompressionEnabled()) {
+            // gzip-compressed requests/responses - see ContentEncodingHandler
+            restConfiguration.endpointProperty("handlers", "#contentEncodingHandler");
+        }
+
         onException(ConnectException.class)
                 .maximumRedeliveries(10)
                 .redeliveryDelay(10000)
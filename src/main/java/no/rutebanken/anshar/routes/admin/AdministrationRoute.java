@@ -16,8 +16,12 @@
 package no.rutebanken.anshar.routes.admin;
 
 import com.google.common.net.HttpHeaders;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
 import no.rutebanken.anshar.config.AnsharConfiguration;
 import no.rutebanken.anshar.data.collections.ExtendedHazelcastService;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.RestRouteBuilder;
 import no.rutebanken.anshar.routes.admin.auth.BasicAuthService;
 import no.rutebanken.anshar.routes.health.HealthManager;
@@ -28,6 +32,7 @@ import no.rutebanken.anshar.subscription.SubscriptionManager;
 import no.rutebanken.anshar.subscription.SubscriptionSetup;
 import org.apache.camel.Exchange;
 import org.apache.commons.lang3.StringUtils;
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -37,6 +42,7 @@ import org.springframework.stereotype.Service;
 import javax.ws.rs.core.MediaType;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -60,6 +66,7 @@ public class AdministrationRoute extends RestRouteBuilder {
     private static final String CLUSTERSTATS_ROUTE = "direct:clusterstats";
     private static final String UNMAPPED_ROUTE = "direct:unmapped";
     private static final String SITUATIONS_ROUTE = "direct:situations";
+    private static final String PIPELINE_STATS_ROUTE = "direct:pipeline.stats";
 
     @Autowired
     private ExtendedHazelcastService extendedHazelcastService;
@@ -82,6 +89,9 @@ public class AdministrationRoute extends RestRouteBuilder {
     @Autowired
     private SiriXmlValidator siriXmlValidator;
 
+    @Autowired
+    private PrometheusMetricsService metrics;
+
     @Value("${anshar.route.singleton.policy.automatic.verification:false}")
     private boolean autoLockVerificationEnabled;
 
@@ -112,6 +122,7 @@ public class AdministrationRoute extends RestRouteBuilder {
                 .get("/unmapped").produces(MediaType.TEXT_HTML).to(UNMAPPED_ROUTE)
                 .get("/unmapped/{datasetId}").produces(MediaType.TEXT_HTML).to(UNMAPPED_ROUTE)
                 .get("/situations/{datasetId}").produces(MediaType.TEXT_HTML).to(SITUATIONS_ROUTE)
+                .get("/pipeline").produces(MediaType.APPLICATION_JSON).to(PIPELINE_STATS_ROUTE)
         ;
 
         if (autoLockVerificationEnabled) {
@@ -216,6 +227,14 @@ public class AdministrationRoute extends RestRouteBuilder {
                     .routeId("admin.stats")
             ;
         }
+
+        from(PIPELINE_STATS_ROUTE)
+            .process(basicAuthProcessor)
+            .process(p -> p.getMessage().setBody(getPipelineStageStats().toJSONString()))
+            .setHeader(HttpHeaders.CONTENT_TYPE, simple(MediaType.APPLICATION_JSON))
+            .routeId("admin.pipeline.stats")
+        ;
+
         from("direct:removeHeaders")
                 .removeHeaders("*")
                 .routeId("admin.remove.headers");
@@ -449,4 +468,30 @@ public class AdministrationRoute extends RestRouteBuilder {
                 .routeId("admin.clusterstats")
         ;
     }
+
+    /**
+     * Recent p50/p99 for each stage in the ingest-pipeline - in milliseconds
+     */
+    private JSONArray getPipelineStageStats() {
+        JSONArray stats = new JSONArray();
+        metrics.getPipelineStageTimers()
+            .stream()
+            .sorted(Comparator.comparing((Timer t) -> String.valueOf(t.getId().getTag("subscriptionId")))
+                .thenComparing(t -> String.valueOf(t.getId().getTag("stage"))))
+            .forEach(timer -> {
+                HistogramSnapshot snapshot = timer.takeSnapshot();
+
+                JSONObject stage = new JSONObject();
+                stage.put("stage", timer.getId().getTag("stage"));
+                stage.put("subscriptionId", timer.getId().getTag("subscriptionId"));
+                stage.put("dataType", timer.getId().getTag("dataType"));
+                stage.put("count", snapshot.count());
+                for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+                    stage.put("p" + Math.round(percentile.percentile() * 100), percentile.value(TimeUnit.MILLISECONDS));
+                }
+                stage.put("max", snapshot.max(TimeUnit.MILLISECONDS));
+                stats.add(stage);
+            });
+        return stats;
+    }
 }
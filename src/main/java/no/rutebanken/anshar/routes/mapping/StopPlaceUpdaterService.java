@@ -15,6 +15,7 @@
 
 package no.rutebanken.anshar.routes.mapping;
 
+import no.rutebanken.anshar.routes.siri.transformer.ValueAdapterMemoizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -48,6 +49,9 @@ public class StopPlaceUpdaterService {
     @Autowired
     private StopPlaceRegisterMappingFetcher stopPlaceRegisterMappingFetcher;
 
+    @Autowired
+    private ValueAdapterMemoizer valueAdapterMemoizer;
+
     @Value("${anshar.mapping.quays.gcs.path:}")
     private String quayMappingPath;
 
@@ -99,6 +103,9 @@ public class StopPlaceUpdaterService {
             updateStopPlaceMapping(quayMappingPath);
             updateStopPlaceMapping(stopPlaceMappingPath);
             updateStopPlacesAndQuays(stopPlaceQuayJsonPath);
+
+            // Cached mapping-results may be outdated
+            invalidateCachedMappings();
         }
     }
 
@@ -137,10 +144,19 @@ public class StopPlaceUpdaterService {
     //Called from tests
     public void addStopPlaceMappings(Map<String, String> stopPlaceMap) {
         this.stopPlaceMappings.putAll(stopPlaceMap);
+        invalidateCachedMappings();
     }
 
     //Called from tests
     public void addStopQuays(Collection<String> stopQuays) {
         this.validNsrIds.addAll(stopQuays);
+        invalidateCachedMappings();
+    }
+
+    private void invalidateCachedMappings() {
+        // Not autowired when created manually
+        if (valueAdapterMemoizer != null) {
+            valueAdapterMemoizer.invalidateAll();
+        }
     }
 }
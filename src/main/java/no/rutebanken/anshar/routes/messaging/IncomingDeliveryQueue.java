@@ -0,0 +1,216 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.messaging;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hazelcast.core.EntryAdapter;
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.replicatedmap.ReplicatedMap;
+import no.rutebanken.anshar.config.AnsharConfiguration;
+import no.rutebanken.anshar.metrics.PipelineStage;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import no.rutebanken.anshar.subscription.SubscriptionSetup;
+import org.apache.camel.Produce;
+import org.apache.camel.ProducerTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queues incoming deliveries per subscription before they are processed asynchronously.
+ *
+ * Each subscription has a bounded queue, and the queues are served by weighted round-robin per
+ * SiriDataType (see {@link WeightedSubscriptionQueues}) so that a single producer of large ET-deliveries
+ * can not starve VM-subscriptions. Deliveries for the same subscription are processed serially, in the
+ * order they were received.
+ */
+@Service
+public class IncomingDeliveryQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(IncomingDeliveryQueue.class);
+
+    @Autowired
+    private AnsharConfiguration configuration;
+
+    @Autowired
+    private PrometheusMetricsService metricsService;
+
+    @Autowired
+    @Qualifier("getSubscriptionsMap")
+    private ReplicatedMap<String, SubscriptionSetup> subscriptions;
+
+    @Value("${anshar.incoming.queue.coalesce.vm.enabled:false}")
+    private boolean coalesceVehicleMonitoring;
+
+    @Produce(uri = "direct:async.process.request")
+    protected ProducerTemplate incomingDeliveryProcessor;
+
+    private WeightedSubscriptionQueues<QueuedDelivery> queues;
+
+    private ExecutorService consumers;
+
+    private volatile boolean running;
+
+    private final Set<String> registeredSubscriptions = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    void initializeConsumers() {
+        queues = new WeightedSubscriptionQueues<>(
+            configuration.getIncomingQueueSubscriptionCapacity(),
+            configuration.getIncomingQueueTotalCapacity(),
+            configuration.getIncomingQueueWeights()
+        );
+
+        ThreadFactory factory = new ThreadFactoryBuilder()
+            .setNameFormat("incoming-%d")
+            .setDaemon(true)
+            .build();
+
+        int consumerCount = Math.max(1, configuration.getIncomingQueueConsumers());
+        consumers = Executors.newFixedThreadPool(consumerCount, factory);
+
+        running = true;
+        for (int i = 0; i < consumerCount; i++) {
+            consumers.submit(this::consume);
+        }
+        logger.info("Started {} consumers for incoming deliveries", consumerCount);
+
+        // Queues are local to each member - listening on the replicated map cleans up on all members
+        subscriptions.addEntryListener(new EntryAdapter<>() {
+            @Override
+            public void entryRemoved(EntryEvent<String, SubscriptionSetup> event) {
+                removeSubscription(event.getKey());
+            }
+        });
+    }
+
+    /**
+     * Discards queued deliveries and metrics for a subscription that has been terminated
+     */
+    void removeSubscription(String subscriptionId) {
+        int discarded = queues.remove(subscriptionId);
+        if (discarded > 0) {
+            logger.info("Discarded {} queued deliveries for removed subscription {}", discarded, subscriptionId);
+        }
+        if (registeredSubscriptions.remove(subscriptionId)) {
+            metricsService.removeIngestQueue(subscriptionId);
+        }
+        metricsService.removePipelineStages(subscriptionId);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        running = false;
+        consumers.shutdownNow();
+    }
+
+    /**
+     * Queues delivery for async processing
+     *
+     * @param subscriptionId subscription the delivery belongs to
+     * @param dataType type of subscription
+     * @param body delivery - must be fully read as the request-stream is closed when the response is returned
+     * @param headers headers to process the delivery with
+     * @return result of the admission - anything but ACCEPTED means the delivery is rejected
+     */
+    public WeightedSubscriptionQueues.Admission offer(String subscriptionId, SiriDataType dataType, String body, Map<String, Object> headers) {
+        if (registeredSubscriptions.add(subscriptionId)) {
+            metricsService.registerIngestQueue(subscriptionId, dataType, queues);
+        }
+
+        Set<String> vehicleRefs = null;
+        if (coalesceVehicleMonitoring && dataType == SiriDataType.VEHICLE_MONITORING) {
+            vehicleRefs = SupersededDeliveryDetector.resolveVehicleRefs(body);
+        }
+
+        WeightedSubscriptionQueues.Admission admission;
+        if (vehicleRefs != null) {
+            // Queued deliveries that only contain vehicles that are also updated by the new delivery would be
+            // overwritten anyway, and are discarded without processing
+            final Set<String> updatedVehicleRefs = vehicleRefs;
+            admission = queues.offer(subscriptionId, dataType, new QueuedDelivery(body, headers, vehicleRefs),
+                queued -> SupersededDeliveryDetector.isSuperseded(queued.vehicleRefs, updatedVehicleRefs),
+                discarded -> {
+                    logger.info("Discarded {} queued deliveries superseded by new delivery for subscription {}", discarded, subscriptionId);
+                    metricsService.registerIngestCoalesced(subscriptionId, dataType, discarded);
+                });
+        } else {
+            admission = queues.offer(subscriptionId, dataType, new QueuedDelivery(body, headers, null));
+        }
+
+        if (admission != WeightedSubscriptionQueues.Admission.ACCEPTED) {
+            logger.warn("Rejecting incoming delivery for subscription {} - {}, total queued: {}", subscriptionId, admission, queues.size());
+            metricsService.registerIngestRejected(subscriptionId, dataType, admission);
+        }
+        return admission;
+    }
+
+    private void consume() {
+        while (running) {
+            try {
+                WeightedSubscriptionQueues.QueuedItem<QueuedDelivery> next = queues.poll(1, TimeUnit.SECONDS);
+                if (next == null) {
+                    continue;
+                }
+                QueuedDelivery delivery = next.getItem();
+                metricsService.registerPipelineStage(PipelineStage.QUEUE, next.getSubscriptionId(), next.getDataType(), System.nanoTime() - delivery.queuedAt);
+                try {
+                    incomingDeliveryProcessor.sendBodyAndHeaders(delivery.body, delivery.headers);
+                } catch (Exception e) {
+                    logger.warn("Processing incoming delivery for subscription {} failed.", next.getSubscriptionId(), e);
+                } finally {
+                    queues.complete(next.getSubscriptionId());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static class QueuedDelivery {
+        private final String body;
+        private final Map<String, Object> headers;
+
+        /**
+         * Vehicles updated by the delivery - only resolved when coalescing is enabled
+         */
+        private final Set<String> vehicleRefs;
+
+        private final long queuedAt = System.nanoTime();
+
+        private QueuedDelivery(String body, Map<String, Object> headers, Set<String> vehicleRefs) {
+            this.body = body;
+            this.headers = new HashMap<>(headers);
+            this.vehicleRefs = vehicleRefs;
+        }
+    }
+}
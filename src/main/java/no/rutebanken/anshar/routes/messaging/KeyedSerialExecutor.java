@@ -0,0 +1,118 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.messaging;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executes tasks in parallel across keys, but serially - in submitted order - for each key.
+ *
+ * Only one task per key is handed to the thread pool at any time, remaining tasks for the key wait
+ * until the running task has completed. The number of pending tasks is bounded; submit blocks when
+ * the limit is reached.
+ */
+public class KeyedSerialExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyedSerialExecutor.class);
+
+    private final ExecutorService executor;
+
+    private final Semaphore pendingPermits;
+
+    private final Map<String, Deque<Runnable>> pendingTasks = new HashMap<>();
+
+    public KeyedSerialExecutor(String name, int threads, int maxPending) {
+        ThreadFactory factory = new ThreadFactoryBuilder()
+            .setNameFormat(name + "-%d")
+            .setDaemon(true)
+            .build();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), factory);
+        this.pendingPermits = new Semaphore(Math.max(1, maxPending));
+    }
+
+    /**
+     * Submits task for execution after all previously submitted tasks with the same key.
+     * Tasks without key are executed without ordering.
+     */
+    public void submit(String key, Runnable task) throws InterruptedException {
+        pendingPermits.acquire();
+
+        if (key == null) {
+            executor.execute(() -> runAndRelease(task));
+            return;
+        }
+
+        synchronized (pendingTasks) {
+            Deque<Runnable> tasks = pendingTasks.get(key);
+            if (tasks != null) {
+                // A task for this key is already running - run when that has completed
+                tasks.add(task);
+                return;
+            }
+            pendingTasks.put(key, new ArrayDeque<>());
+        }
+        executor.execute(() -> runSerially(key, task));
+    }
+
+    private void runSerially(String key, Runnable task) {
+        runAndRelease(task);
+
+        Runnable next;
+        synchronized (pendingTasks) {
+            next = pendingTasks.get(key).poll();
+            if (next == null) {
+                pendingTasks.remove(key);
+                return;
+            }
+        }
+        // Resubmitted to let other keys waiting for the pool run in between
+        executor.execute(() -> runSerially(key, next));
+    }
+
+    private void runAndRelease(Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            logger.warn("Task failed", e);
+        } finally {
+            pendingPermits.release();
+        }
+    }
+
+    /**
+     * @return number of keys with running or pending tasks
+     */
+    public int getActiveKeyCount() {
+        synchronized (pendingTasks) {
+            return pendingTasks.size();
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,6 +1,7 @@
 package no.rutebanken.anshar.routes.messaging;
 
 import no.rutebanken.anshar.config.AnsharConfiguration;
+import no.rutebanken.anshar.metrics.PipelineStage;
 import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.CamelRouteNames;
 import no.rutebanken.anshar.routes.RestRouteBuilder;
@@ -13,12 +14,15 @@ import no.rutebanken.anshar.subscription.SubscriptionManager;
 import no.rutebanken.anshar.subscription.SubscriptionSetup;
 import org.apache.camel.Exchange;
 import org.apache.camel.Predicate;
+import org.apache.camel.Produce;
+import org.apache.camel.ProducerTemplate;
 import org.apache.camel.component.google.pubsub.GooglePubsubConstants;
 import org.entur.siri21.util.SiriXml;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import uk.org.siri.siri21.Siri;
 
+import javax.annotation.PreDestroy;
 import java.io.InputStream;
 
 import static no.rutebanken.anshar.routes.HttpParameter.INTERNAL_PUBLISH_TO_KAFKA_FOR_APC_ENRICHMENT;
@@ -49,9 +53,31 @@ public class MessagingRoute extends RestRouteBuilder {
     @Autowired
     private AdminRouteHelper adminRouteHelper;
 
+    private static final String XSLT_STARTED_PROPERTY = "anshar.xslt.started";
+
+    @Produce(uri = "direct:" + CamelRouteNames.PROCESSOR_QUEUE_DEFAULT)
+    protected ProducerTemplate incomingProcessor;
+
+    /**
+     * Processes data serially per subscription to avoid older deliveries overwriting newer ones
+     */
+    private KeyedSerialExecutor incomingProcessorExecutor;
+
+    @PreDestroy
+    void shutdown() {
+        if (incomingProcessorExecutor != null) {
+            incomingProcessorExecutor.shutdown();
+        }
+    }
+
     @Override
     public void configure() throws Exception {
 
+        incomingProcessorExecutor = new KeyedSerialExecutor("incoming-processor",
+            configuration.getIncomingProcessorThreads(),
+            configuration.getIncomingProcessorMaxPending()
+        );
+
         String messageQueueCamelRoutePrefix = configuration.getMessageQueueCamelRoutePrefix();
 
         String queueConsumerParameters = "?concurrentConsumers="+configuration.getConcurrentConsumers();
@@ -123,6 +149,7 @@ public class MessagingRoute extends RestRouteBuilder {
 
         from("direct:transform.siri")
                 .to("direct:set.mdc.subscriptionId")
+                .setProperty(XSLT_STARTED_PROPERTY, () -> System.nanoTime())
                 .choice()
                     .when(header(TRANSFORM_SOAP).isEqualTo(simple(TRANSFORM_SOAP)))
                     .log("Transforming SOAP")
@@ -135,6 +162,12 @@ public class MessagingRoute extends RestRouteBuilder {
                     .to("xslt-saxon:xsl/siri_14_20.xsl?allowStAX=false&resultHandlerFactory=#streamResultHandlerFactory") // Convert from v1.4 to 2.0
                 .endChoice()
                 .end()
+                .process(p -> {
+                    if (p.getIn().getHeader(TRANSFORM_SOAP) != null || p.getIn().getHeader(TRANSFORM_VERSION) != null) {
+                        registerPipelineStage(PipelineStage.XSLT, p.getIn().getHeader("subscriptionId", String.class),
+                            System.nanoTime() - p.getProperty(XSLT_STARTED_PROPERTY, Long.class));
+                    }
+                })
                 .to("direct:process.mapping")
                 .to("direct:format.xml")
                 .to("direct:clear.mdc.subscriptionId")
@@ -147,7 +180,9 @@ public class MessagingRoute extends RestRouteBuilder {
                     SubscriptionSetup subscriptionSetup = subscriptionManager.get(p.getIn().getHeader("subscriptionId", String.class));
                     Siri originalInput = siriXmlValidator.parseXml(subscriptionSetup, p.getIn().getBody(String.class));
 
+                    long transformStart = System.nanoTime();
                     Siri incoming = SiriValueTransformer.transform(originalInput, subscriptionSetup.getMappingAdapters(), false, true);
+                    metrics.registerPipelineStage(PipelineStage.TRANSFORM, subscriptionSetup, System.nanoTime() - transformStart);
 
                     p.getMessage().setHeaders(p.getIn().getHeaders());
                     p.getMessage().setBody(SiriXml.toXml(incoming));
@@ -222,7 +257,18 @@ public class MessagingRoute extends RestRouteBuilder {
         }
 
         from("direct:process.queue.default.async")
-            .wireTap("direct:" + CamelRouteNames.PROCESSOR_QUEUE_DEFAULT)
+            .process(p -> {
+                final Exchange copy = p.copy();
+                final String subscriptionId = p.getIn().getHeader("subscriptionId", String.class);
+                final long queuedAt = System.nanoTime();
+                incomingProcessorExecutor.submit(
+                    subscriptionId,
+                    () -> {
+                        registerPipelineStage(PipelineStage.QUEUE, subscriptionId, System.nanoTime() - queuedAt);
+                        incomingProcessor.send(copy);
+                    }
+                );
+            })
             .routeId("process.queue.default.async")
         ;
 
@@ -272,6 +318,12 @@ public class MessagingRoute extends RestRouteBuilder {
     }
 
 
+    private void registerPipelineStage(PipelineStage stage, String subscriptionId, long nanos) {
+        if (subscriptionId != null) {
+            metrics.registerPipelineStage(stage, subscriptionManager.get(subscriptionId), nanos);
+        }
+    }
+
     private Boolean enrichSiriData(Exchange e) {
         String subscriptionId = e.getIn().getHeader(PARAM_SUBSCRIPTION_ID, String.class);
         if (subscriptionId == null || subscriptionId.isEmpty()) {
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.messaging;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Detects VM-deliveries that are fully superseded by a newer delivery.
+ *
+ * VehicleActivities are stored with VehicleRef as key, so a delivery is superseded when a newer delivery
+ * from the same subscription contains VehicleActivities for all vehicles in the older one.
+ */
+public class SupersededDeliveryDetector {
+
+    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+    static {
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private static final String VEHICLE_ACTIVITY = "VehicleActivity";
+    private static final String VEHICLE_ACTIVITY_CANCELLATION = "VehicleActivityCancellation";
+    private static final String MONITORED_VEHICLE_JOURNEY = "MonitoredVehicleJourney";
+    private static final String VEHICLE_REF = "VehicleRef";
+
+    private SupersededDeliveryDetector() {
+    }
+
+    /**
+     * Resolves the vehicles updated by a VM-delivery.
+     *
+     * @return VehicleRefs in the delivery, or null if the delivery can not safely be discarded - i.e. when it
+     * contains cancellations, or VehicleActivities without VehicleRef
+     */
+    public static Set<String> resolveVehicleRefs(String xml) {
+        if (xml == null) {
+            return null;
+        }
+        XMLStreamReader reader = null;
+        try {
+            reader = xmlInputFactory.createXMLStreamReader(new StringReader(xml));
+
+            Set<String> vehicleRefs = new HashSet<>();
+            int activityCount = 0;
+            int depth = 0;
+            int journeyDepth = -1;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String name = reader.getLocalName();
+                    if (VEHICLE_ACTIVITY.equals(name)) {
+                        activityCount++;
+                    } else if (VEHICLE_ACTIVITY_CANCELLATION.equals(name)) {
+                        return null;
+                    } else if (MONITORED_VEHICLE_JOURNEY.equals(name)) {
+                        journeyDepth = depth;
+                    } else if (VEHICLE_REF.equals(name) && journeyDepth > 0 && depth == journeyDepth + 1) {
+                        String vehicleRef = reader.getElementText();
+                        depth--; // getElementText consumes END_ELEMENT
+                        if (vehicleRef == null || vehicleRef.isBlank()) {
+                            return null;
+                        }
+                        vehicleRefs.add(vehicleRef.trim());
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == journeyDepth) {
+                        journeyDepth = -1;
+                    }
+                    depth--;
+                }
+            }
+
+            if (activityCount == 0 || activityCount != vehicleRefs.size()) {
+                // Empty, or missing/duplicated VehicleRefs
+                return null;
+            }
+            return vehicleRefs;
+        } catch (XMLStreamException e) {
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    //Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if all vehicles in the older delivery are updated by the newer delivery
+     */
+    public static boolean isSuperseded(Set<String> older, Set<String> newer) {
+        return older != null && newer != null && newer.containsAll(older);
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.messaging;
+
+import no.rutebanken.anshar.subscription.SiriDataType;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Bounded queues, one per subscription.
+ *
+ * Subscriptions with pending items are served round-robin within each SiriDataType, while the
+ * SiriDataTypes are served by (smooth) weighted round-robin - i.e. with weights VM=4, ET=2, SX=1
+ * VM-deliveries are taken four times as often as SX-deliveries when all types have pending items.
+ *
+ * Items for the same subscription are processed serially - after an item has been taken, no more items
+ * are returned for that subscription until {@link #complete(String)} has been called.
+ *
+ * @param <T> Queued item
+ */
+public class WeightedSubscriptionQueues<T> {
+
+    public enum Admission {
+        /** Item has been queued */
+        ACCEPTED,
+        /** Queue for this subscription is full */
+        SUBSCRIPTION_QUEUE_FULL,
+        /** Total capacity is reached */
+        OVERLOADED
+    }
+
+    private final int subscriptionCapacity;
+    private final int totalCapacity;
+
+    private final Map<SiriDataType, Integer> weights;
+    private final Map<SiriDataType, Integer> currentWeights = new EnumMap<>(SiriDataType.class);
+
+    private final Map<String, SubscriptionQueue<T>> queues = new HashMap<>();
+    private final Map<SiriDataType, Deque<SubscriptionQueue<T>>> readyQueues = new EnumMap<>(SiriDataType.class);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private int totalSize;
+
+    private int readySize;
+
+    public WeightedSubscriptionQueues(int subscriptionCapacity, int totalCapacity, Map<SiriDataType, Integer> weights) {
+        this.subscriptionCapacity = Math.max(1, subscriptionCapacity);
+        this.totalCapacity = Math.max(1, totalCapacity);
+        this.weights = new EnumMap<>(SiriDataType.class);
+        for (SiriDataType type : SiriDataType.values()) {
+            this.weights.put(type, Math.max(1, weights.getOrDefault(type, 1)));
+            currentWeights.put(type, 0);
+            readyQueues.put(type, new ArrayDeque<>());
+        }
+    }
+
+    public Admission offer(String subscriptionId, SiriDataType dataType, T item) {
+        return offer(subscriptionId, dataType, item, null, null);
+    }
+
+    /**
+     * Queues item, and discards queued items for the subscription that are superseded by it. Superseded items
+     * are only discarded if the new item is accepted, and they do not count against the capacity - items already
+     * taken are not affected.
+     *
+     * @param superseded matches queued items that are superseded by the new item
+     * @param onDiscarded called with the number of discarded items, if any
+     */
+    public Admission offer(String subscriptionId, SiriDataType dataType, T item, Predicate<T> superseded, IntConsumer onDiscarded) {
+        int discarded = 0;
+        lock.lock();
+        try {
+            SubscriptionQueue<T> queue = queues.get(subscriptionId);
+
+            int supersededCount = 0;
+            if (queue != null && superseded != null) {
+                for (T queued : queue.items) {
+                    if (superseded.test(queued)) {
+                        supersededCount++;
+                    }
+                }
+            }
+
+            if (totalSize - supersededCount >= totalCapacity) {
+                return Admission.OVERLOADED;
+            }
+            if (queue != null && queue.items.size() - supersededCount >= subscriptionCapacity) {
+                return Admission.SUBSCRIPTION_QUEUE_FULL;
+            }
+
+            if (supersededCount > 0) {
+                queue.items.removeIf(superseded);
+                totalSize -= supersededCount;
+                discarded = supersededCount;
+            }
+
+            if (queue == null) {
+                queue = new SubscriptionQueue<>(subscriptionId, dataType);
+                queues.put(subscriptionId, queue);
+            }
+            queue.items.add(item);
+            totalSize++;
+            if (queue.items.size() == 1 && !queue.inProgress && !readyQueues.get(queue.dataType).contains(queue)) {
+                markReady(queue);
+            }
+            return Admission.ACCEPTED;
+        } finally {
+            lock.unlock();
+            if (discarded > 0 && onDiscarded != null) {
+                onDiscarded.accept(discarded);
+            }
+        }
+    }
+
+    /**
+     * Waits for, and returns the next item to process - {@link #complete(String)} must be called when
+     * the item has been processed
+     *
+     * @return next item, or null if no item was available within the timeout
+     */
+    public QueuedItem<T> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (readySize == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+
+            SiriDataType dataType = selectDataType();
+            SubscriptionQueue<T> queue = readyQueues.get(dataType).poll();
+            readySize--;
+
+            T item = queue.items.poll();
+            totalSize--;
+            queue.inProgress = true;
+
+            return new QueuedItem<>(queue.subscriptionId, dataType, item);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the last item returned for the subscription as processed, allowing the next item to be taken
+     */
+    public void complete(String subscriptionId) {
+        lock.lock();
+        try {
+            SubscriptionQueue<T> queue = queues.get(subscriptionId);
+            if (queue == null || !queue.inProgress) {
+                return;
+            }
+            queue.inProgress = false;
+            if (!queue.items.isEmpty()) {
+                // Back of the line to serve other subscriptions of the same type
+                markReady(queue);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the queue for a subscription that has been terminated, discarding queued items
+     *
+     * @return number of discarded items
+     */
+    public int remove(String subscriptionId) {
+        lock.lock();
+        try {
+            SubscriptionQueue<T> queue = queues.remove(subscriptionId);
+            if (queue == null) {
+                return 0;
+            }
+            int discarded = queue.items.size();
+            totalSize -= discarded;
+            if (readyQueues.get(queue.dataType).remove(queue)) {
+                readySize--;
+            }
+            return discarded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void markReady(SubscriptionQueue<T> queue) {
+        readyQueues.get(queue.dataType).add(queue);
+        readySize++;
+        notEmpty.signal();
+    }
+
+    /**
+     * Smooth weighted round-robin between the SiriDataTypes that have pending items
+     */
+    private SiriDataType selectDataType() {
+        SiriDataType selected = null;
+        int totalWeight = 0;
+        for (Map.Entry<SiriDataType, Deque<SubscriptionQueue<T>>> entry : readyQueues.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            SiriDataType type = entry.getKey();
+            int weight = weights.get(type);
+            totalWeight += weight;
+
+            int current = currentWeights.get(type) + weight;
+            currentWeights.put(type, current);
+
+            if (selected == null || current > currentWeights.get(selected)) {
+                selected = type;
+            }
+        }
+        currentWeights.put(selected, currentWeights.get(selected) - totalWeight);
+        return selected;
+    }
+
+    public int size(String subscriptionId) {
+        lock.lock();
+        try {
+            SubscriptionQueue<T> queue = queues.get(subscriptionId);
+            return queue != null ? queue.items.size() : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return totalSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class SubscriptionQueue<T> {
+        private final String subscriptionId;
+        private final SiriDataType dataType;
+        private final Deque<T> items = new ArrayDeque<>();
+        private boolean inProgress;
+
+        private SubscriptionQueue(String subscriptionId, SiriDataType dataType) {
+            this.subscriptionId = subscriptionId;
+            this.dataType = dataType;
+        }
+    }
+
+    public static class QueuedItem<T> {
+        private final String subscriptionId;
+        private final SiriDataType dataType;
+        private final T item;
+
+        private QueuedItem(String subscriptionId, SiriDataType dataType, T item) {
+            this.subscriptionId = subscriptionId;
+            this.dataType = dataType;
+            this.item = item;
+        }
+
+        public String getSubscriptionId() {
+            return subscriptionId;
+        }
+
+        public SiriDataType getDataType() {
+            return dataType;
+        }
+
+        public T getItem() {
+            return item;
+        }
+    }
+}
@@ -15,7 +15,9 @@
 
 package no.rutebanken.anshar.routes.outbound;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import org.apache.camel.CamelExecutionException;
+import org.apache.camel.Exchange;
 import org.apache.camel.Produce;
 import org.apache.camel.ProducerTemplate;
 import org.slf4j.Logger;
@@ -31,15 +33,18 @@ import uk.org.siri.siri21.SituationExchangeDeliveryStructure;
 import uk.org.siri.siri21.VehicleMonitoringDeliveryStructure;
 
 import java.net.SocketException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 
 import static no.rutebanken.anshar.routes.HttpParameter.SIRI_VERSION_HEADER_NAME;
+import static no.rutebanken.anshar.routes.siri.transformer.SiriOutputTransformerRoute.COPY_BEFORE_TRANSFORM_HEADER_NAME;
 import static no.rutebanken.anshar.routes.siri.transformer.SiriOutputTransformerRoute.OUTPUT_ADAPTERS_HEADER_NAME;
 
 @Service
@@ -55,8 +60,14 @@ public class CamelRouteManager {
     @Value("${anshar.default.max.elements.per.delivery:1000}")
     private int maximumSizePerDelivery;
 
-    @Value("${anshar.default.max.threads.per.outbound.subscription:20}")
-    private int maximumThreadsPerOutboundSubscription;
+    @Autowired
+    private OutboundDispatcher outboundDispatcher;
+
+    @Autowired
+    private OutboundCircuitBreaker circuitBreaker;
+
+    @Autowired
+    private PrometheusMetricsService metrics;
 
     @Produce(uri = "direct:send.to.external.subscription")
     protected ProducerTemplate siriSubscriptionProcessor;
@@ -67,95 +78,195 @@ public class CamelRouteManager {
      * @param subscriptionRequest
      */
     void pushSiriData(Siri payload, OutboundSubscriptionSetup subscriptionRequest, boolean logBody) {
-        String consumerAddress = subscriptionRequest.getAddress();
-        if (consumerAddress == null) {
-            logger.info("ConsumerAddress is null - ignoring data.");
-            return;
-        }
-        final String breadcrumbId = MDC.get("camel.breadcrumbId");
-        ExecutorService executorService = getOrCreateExecutorService(subscriptionRequest);
-        executorService.submit(() -> {
-            try {
-                MDC.put("camel.breadcrumbId", breadcrumbId);
-                if (!subscriptionManager.subscriptions.containsKey(subscriptionRequest.getSubscriptionId())) {
-                    // Short circuit if subscription has been terminated while waiting
-                    return;
-                }
+        pushSiriData(payload, subscriptionRequest, logBody, null);
+    }
 
-                Siri filteredPayload = SiriHelper.filterSiriPayload(payload, subscriptionRequest.getFilterMap());
+    /**
+     * @param lag recorded when the payload has been delivered
+     */
+    void pushSiriData(Siri payload, OutboundSubscriptionSetup subscriptionRequest, boolean logBody, OutboundLag lag) {
+        pushSiriData(new FilteredDeliveries(payload, siriHelper), subscriptionRequest, logBody, false, lag);
+    }
 
-                int deliverySize = this.maximumSizePerDelivery;
-                if (subscriptionRequest.getDatasetId() != null) {
-                    deliverySize = Integer.MAX_VALUE;
-                }
+    /**
+     * Pushes a payload that is shared between multiple subscribers - filtered deliveries and rendered payloads
+     * are shared between subscribers with identical filters and rendering parameters
+     *
+     * @param lag recorded when the first subscriber has received the payload
+     */
+    void pushSiriData(FilteredDeliveries deliveries, OutboundSubscriptionSetup subscriptionRequest, boolean logBody, OutboundLag lag) {
+        pushSiriData(deliveries, subscriptionRequest, logBody, true, lag);
+    }
 
-                List<Siri> splitSiri = siriHelper.splitDeliveries(filteredPayload, deliverySize);
+    private void pushSiriData(FilteredDeliveries deliveries, OutboundSubscriptionSetup subscriptionRequest, boolean logBody, boolean sharedPayload, OutboundLag lag) {
+        if (!isActive(subscriptionRequest)) {
+            return;
+        }
+        if (!circuitBreaker.allowDelivery(subscriptionRequest.getSubscriptionId())) {
+            // Recipient is failing - only data is kept for replay, not heartbeats
+            if (deliveries.getPayload().getServiceDelivery() != null) {
+                // Only the parts for this subscriber are kept - not the shared payload
+                FilteredDeliveries.Deliveries filtered = deliveries.get(SiriHelper.canonicalFilter(subscriptionRequest.getFilterMap()), getDeliverySize(subscriptionRequest));
+                circuitBreaker.deadLetter(subscriptionRequest, filtered.getParts().size(),
+                    () -> dispatchDelivery(subscriptionRequest, () -> deliver(filtered, subscriptionRequest, logBody, part -> null), lag));
+            }
+            return;
+        }
+        dispatchDelivery(subscriptionRequest, () -> deliver(deliveries, subscriptionRequest, logBody, sharedPayload), lag);
+    }
 
-                if (splitSiri.size() > 1) {
-                    logger.info("Object split into {} deliveries for subscription {}.", splitSiri.size(), subscriptionRequest);
-                }
+    /**
+     * Queues delivery without checking the circuit breaker - used directly when replaying dead letters
+     */
+    private void dispatchDelivery(OutboundSubscriptionSetup subscriptionRequest, Supplier<CompletableFuture<Boolean>> delivery, OutboundLag lag) {
+        dispatch(subscriptionRequest, () -> {
+            if (!subscriptionManager.subscriptions.containsKey(subscriptionRequest.getSubscriptionId())) {
+                // Short circuit if subscription has been terminated while waiting
+                return;
+            }
+            CompletableFuture<Boolean> result = delivery.get();
+            if (lag != null) {
+                result.thenAccept(delivered -> {
+                    if (delivered) {
+                        lag.delivered(metrics);
+                    }
+                });
+            }
+        });
+    }
 
-                for (Siri siri : splitSiri) {
-                    postDataToSubscription(siri, subscriptionRequest, logBody);
-                }
-            } catch (Exception e) {
-                logger.info("Failed to push data for subscription {}: {}", subscriptionRequest, e);
+    /**
+     * Streams initial delivery to a new subscription. Data is read from the repository one page at a time, and each
+     * page is filtered, rendered and sent before the next is read. Pages are read on a separate executor, and the
+     * next page is read when the previous has been delivered, so that no thread waits for the response.
+     *
+     * Pages are not queued with live updates to the subscriber, and may be delivered before or after these.
+     */
+    void pushInitialDelivery(OutboundSubscriptionSetup subscriptionRequest) {
+        if (!isActive(subscriptionRequest)) {
+            return;
+        }
+        logger.info("Find initial delivery for {}", subscriptionRequest);
+        final String breadcrumbId = MDC.get("camel.breadcrumbId");
 
-                if (e.getCause() instanceof SocketException) {
-                    logger.info("Recipient is unreachable - ignoring");
+        siriHelper.forEachInitialDelivery(subscriptionRequest, maximumSizePerDelivery, outboundDispatcher.getInitialDeliveryExecutor(), page -> {
+            if (!subscriptionManager.subscriptions.containsKey(subscriptionRequest.getSubscriptionId())) {
+                // Terminated while sending - no more pages are read
+                return CompletableFuture.completedFuture(false);
+            }
+            try {
+                MDC.put("camel.breadcrumbId", breadcrumbId);
+                return deliver(new FilteredDeliveries(page, siriHelper), subscriptionRequest, false, false);
+            } finally {
+                MDC.remove("camel.breadcrumbId");
+            }
+        }).whenComplete((count, throwable) -> {
+            if (throwable != null) {
+                Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                if (cause instanceof RejectedExecutionException) {
+                    logger.warn("Initial delivery queue is full - ignoring initial delivery for {}", subscriptionRequest);
                 } else {
-                    String msg = e.getMessage();
-                    if (e.getCause() != null) {
-                        msg = e.getCause().getMessage();
-                    }
-                    logger.info("Exception caught when pushing SIRI-data: {}", msg);
+                    pushFailed(subscriptionRequest, cause);
                 }
-                subscriptionManager.pushFailedForSubscription(subscriptionRequest.getSubscriptionId());
+            } else if (count == 0) {
+                logger.info("No initial delivery found for {}", subscriptionRequest);
+            }
+        });
+    }
+
+    private boolean isActive(OutboundSubscriptionSetup subscriptionRequest) {
+        if (subscriptionRequest.getAddress() == null) {
+            logger.info("ConsumerAddress is null - ignoring data.");
+            return false;
+        }
+        // Subscription may have been terminated
+        return subscriptionManager.subscriptions.containsKey(subscriptionRequest.getSubscriptionId());
+    }
 
-                removeDeadSubscriptionExecutors(subscriptionManager);
+    /**
+     * Queues delivery for subscriber - failures are reported to the fail-tracker
+     */
+    private void dispatch(OutboundSubscriptionSetup subscriptionRequest, Runnable delivery) {
+        final String breadcrumbId = MDC.get("camel.breadcrumbId");
+        boolean created = outboundDispatcher.dispatch(subscriptionRequest, () -> {
+            try {
+                MDC.put("camel.breadcrumbId", breadcrumbId);
+                delivery.run();
+            } catch (Exception e) {
+                pushFailed(subscriptionRequest, e);
             } finally {
                 MDC.remove("camel.breadcrumbId");
             }
         });
+        if (created && !subscriptionManager.subscriptions.containsKey(subscriptionRequest.getSubscriptionId())) {
+            // Subscription was removed while dispatching - queue would otherwise outlive the cleanup
+            outboundDispatcher.removeSubscriber(subscriptionRequest.getSubscriptionId());
+        }
     }
 
-    Map<String, ExecutorService> threadFactoryMap = new HashMap<>();
-    private ExecutorService getOrCreateExecutorService(OutboundSubscriptionSetup subscriptionRequest) {
-
-        final String subscriptionId = subscriptionRequest.getSubscriptionId();
-        if (!threadFactoryMap.containsKey(subscriptionId)) {
-            ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("outbound"+subscriptionId).build();
+    private void pushFailed(OutboundSubscriptionSetup subscriptionRequest, Throwable e) {
+        logger.info("Failed to push data for subscription {}: {}", subscriptionRequest, e);
 
-            threadFactoryMap.put(subscriptionId, Executors.newSingleThreadExecutor(factory));
+        if (e.getCause() instanceof SocketException) {
+            logger.info("Recipient is unreachable - ignoring");
+        } else {
+            String msg = e.getMessage();
+            if (e.getCause() != null) {
+                msg = e.getCause().getMessage();
+            }
+            logger.info("Exception caught when pushing SIRI-data: {}", msg);
         }
+        subscriptionManager.pushFailedForSubscription(subscriptionRequest.getSubscriptionId());
+    }
 
-        return threadFactoryMap.get(subscriptionId);
+    /**
+     * Filters, splits and posts deliveries to subscriber
+     * @return completed with true when all parts have been delivered
+     */
+    private CompletableFuture<Boolean> deliver(FilteredDeliveries deliveries, OutboundSubscriptionSetup subscriptionRequest, boolean logBody, boolean sharedPayload) {
+        Map<Class, Set<String>> filter = SiriHelper.canonicalFilter(subscriptionRequest.getFilterMap());
+        int deliverySize = getDeliverySize(subscriptionRequest);
+
+        return deliver(deliveries.get(filter, deliverySize), subscriptionRequest, logBody,
+            part -> sharedPayload ? new RenderedPayloadCache.Source(deliveries.getRenderToken(), filter, deliverySize, part) : null);
     }
 
+    private int getDeliverySize(OutboundSubscriptionSetup subscriptionRequest) {
+        if (subscriptionRequest.getDatasetId() != null) {
+            return Integer.MAX_VALUE;
+        }
+        return maximumSizePerDelivery;
+    }
 
     /**
-     * Clean up dead ExecutorServices
-     * @param subscriptionManager
+     * Posts filtered and split deliveries to subscriber
+     * @param renderSource identifies each part when the rendered payload may be shared with other subscribers
      */
-    private void removeDeadSubscriptionExecutors(ServerSubscriptionManager subscriptionManager) {
-        List<String> idsToRemove = new ArrayList<>();
-        for (String id : threadFactoryMap.keySet()) {
-            if (!subscriptionManager.subscriptions.containsKey(id)) {
-                final ExecutorService service = threadFactoryMap.get(id);
-                idsToRemove.add(id);
-                // Force shutdown since outbound subscription has been stopped
-                service.shutdownNow();
-            }
+    private CompletableFuture<Boolean> deliver(FilteredDeliveries.Deliveries filtered, OutboundSubscriptionSetup subscriptionRequest, boolean logBody, IntFunction<RenderedPayloadCache.Source> renderSource) {
+        List<Siri> splitSiri = filtered.getParts();
+
+        // Filtered deliveries share elements with the original, and must be copied before transformation
+        boolean copyBeforeTransform = filtered.isFiltered();
+
+        if (splitSiri.size() > 1) {
+            logger.info("Object split into {} deliveries for subscription {}.", splitSiri.size(), subscriptionRequest);
         }
-        if (!idsToRemove.isEmpty()) {
-            for (String id : idsToRemove) {
-                logger.info("Remove executor for subscription {}", id);
-                threadFactoryMap.remove(id);
-            }
+
+        CompletableFuture<Boolean> result = CompletableFuture.completedFuture(true);
+        for (int i = 0; i < splitSiri.size(); i++) {
+            result = result.thenCombine(postDataToSubscription(splitSiri.get(i), subscriptionRequest, logBody, renderSource.apply(i), copyBeforeTransform),
+                (previous, delivered) -> previous && delivered);
         }
+        return result;
     }
 
-    private void postDataToSubscription(Siri payload, OutboundSubscriptionSetup subscription, boolean showBody) {
+    /**
+     * @param renderSource identifies the delivery, allowing the rendered payload to be shared with other subscribers
+     * @param copyBeforeTransform payload references elements that are shared with other deliveries
+     * @return completed when the response is received - already completed when sent synchronously
+     */
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Boolean> postDataToSubscription(Siri payload, OutboundSubscriptionSetup subscription, boolean showBody, RenderedPayloadCache.Source renderSource, boolean copyBeforeTransform) {
 
         if (serviceDeliveryContainsData(payload)) {
             String remoteEndPoint = subscription.getAddress();
@@ -167,9 +278,22 @@ public class CamelRouteManager {
             headers.put("showBody", showBody);
             headers.put(SIRI_VERSION_HEADER_NAME, subscription.getSiriVersion());
             headers.put(OUTPUT_ADAPTERS_HEADER_NAME, subscription.getValueAdapters());
-
-            siriSubscriptionProcessor.sendBodyAndHeaders(payload, headers);
+            headers.put(RenderedPayloadCache.RENDER_SOURCE_HEADER, renderSource);
+            headers.put(COPY_BEFORE_TRANSFORM_HEADER_NAME, copyBeforeTransform);
+
+            Exchange exchange = siriSubscriptionProcessor.send(e -> {
+                e.getIn().setBody(payload);
+                e.getIn().setHeaders(headers);
+            });
+            if (exchange.getException() != null) {
+                throw CamelExecutionException.wrapCamelExecutionException(exchange, exchange.getException());
+            }
+            CompletableFuture<Boolean> result = exchange.getProperty(OutboundHttpClient.DELIVERY_RESULT_PROPERTY, CompletableFuture.class);
+            if (result != null) {
+                return result;
+            }
         }
+        return CompletableFuture.completedFuture(true);
     }
 
     /**
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import uk.org.siri.siri21.Siri;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Filtered and split deliveries created from one pushed payload.
+ *
+ * Subscribers with the same filter and delivery size receive the same deliveries - these are created once per
+ * push, and shared between all of them.
+ */
+class FilteredDeliveries {
+
+    private final Siri payload;
+
+    private final long renderToken = RenderedPayloadCache.nextRenderToken();
+
+    private final SiriHelper siriHelper;
+
+    private final Map<FilterKey, Deliveries> deliveries = new ConcurrentHashMap<>();
+
+    FilteredDeliveries(Siri payload, SiriHelper siriHelper) {
+        this.payload = payload;
+        this.siriHelper = siriHelper;
+    }
+
+    Siri getPayload() {
+        return payload;
+    }
+
+    /**
+     * Identifies this push when sharing rendered payloads between subscribers
+     */
+    long getRenderToken() {
+        return renderToken;
+    }
+
+    /**
+     * @param filter filter in canonical form - see {@link SiriHelper#canonicalFilter(Map)}
+     */
+    Deliveries get(Map<Class, Set<String>> filter, int deliverySize) {
+        return deliveries.computeIfAbsent(new FilterKey(filter, deliverySize), this::create);
+    }
+
+    int size() {
+        return deliveries.size();
+    }
+
+    private Deliveries create(FilterKey key) {
+        Siri filtered = SiriHelper.filterSiriPayload(payload, key.filter);
+        return new Deliveries(siriHelper.splitDeliveries(filtered, key.deliverySize), filtered != payload);
+    }
+
+    static final class Deliveries {
+        private final List<Siri> parts;
+        private final boolean filtered;
+
+        private Deliveries(List<Siri> parts, boolean filtered) {
+            this.parts = parts;
+            this.filtered = filtered;
+        }
+
+        List<Siri> getParts() {
+            return parts;
+        }
+
+        /**
+         * @return true if deliveries reference elements shared with the pushed payload
+         */
+        boolean isFiltered() {
+            return filtered;
+        }
+    }
+
+    private static final class FilterKey {
+        private final Map<Class, Set<String>> filter;
+        private final int deliverySize;
+
+        private FilterKey(Map<Class, Set<String>> filter, int deliverySize) {
+            this.filter = filter;
+            this.deliverySize = deliverySize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FilterKey)) return false;
+            FilterKey that = (FilterKey) o;
+            return deliverySize == that.deliverySize &&
+                filter.equals(that.filter);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(filter, deliverySize);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * One deadline per subscription - the scheduler only wakes up when a deadline is due.
+ */
+class HeartbeatDeadlines {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeartbeatDeadlines.class);
+
+    private final Consumer<String> onDue;
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private final Map<String, Deadline> deadlines = new ConcurrentHashMap<>();
+
+    /**
+     * @param onDue called with subscriptionId when deadline is due - the next deadline must be scheduled by onDue
+     */
+    HeartbeatDeadlines(Consumer<String> onDue) {
+        this.onDue = onDue;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+            .setNameFormat("outbound-heartbeat-%d")
+            .setDaemon(true)
+            .build());
+        // Rescheduled deadlines should not stay in the queue
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Sets deadline for subscription, replacing any existing deadline
+     */
+    void schedule(String subscriptionId, long delayMillis) {
+        deadlines.compute(subscriptionId, (id, existing) -> {
+            if (existing != null) {
+                existing.future.cancel(false);
+            }
+            Deadline deadline = new Deadline();
+            try {
+                deadline.future = scheduler.schedule(() -> fire(id, deadline), Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+                return deadline;
+            } catch (RejectedExecutionException e) {
+                logger.info("Heartbeat scheduler is shut down - ignoring deadline for {}", id);
+                return null;
+            }
+        });
+    }
+
+    void cancel(String subscriptionId) {
+        Deadline existing = deadlines.remove(subscriptionId);
+        if (existing != null) {
+            existing.future.cancel(false);
+        }
+    }
+
+    /**
+     * Cancels deadlines for all subscriptions not in the given collection
+     */
+    void retainAll(Collection<String> subscriptionIds) {
+        for (String subscriptionId : deadlines.keySet()) {
+            if (!subscriptionIds.contains(subscriptionId)) {
+                cancel(subscriptionId);
+            }
+        }
+    }
+
+    boolean isScheduled(String subscriptionId) {
+        return deadlines.containsKey(subscriptionId);
+    }
+
+    int size() {
+        return deadlines.size();
+    }
+
+    /**
+     * Runs task on the scheduler-thread after the given delay
+     */
+    void execute(Runnable task, long delayMillis) {
+        try {
+            scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.info("Heartbeat scheduler is shut down - ignoring task");
+        }
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void fire(String subscriptionId, Deadline deadline) {
+        if (!deadlines.remove(subscriptionId, deadline)) {
+            // Cancelled or replaced
+            return;
+        }
+        try {
+            onDue.accept(subscriptionId);
+        } catch (Exception e) {
+            logger.warn("Heartbeat failed for subscription {}", subscriptionId, e);
+        }
+    }
+
+    private static class Deadline {
+        private ScheduledFuture<?> future;
+    }
+}
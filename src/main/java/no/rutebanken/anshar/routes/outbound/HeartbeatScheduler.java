@@ -0,0 +1,259 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import com.hazelcast.cluster.Member;
+import com.hazelcast.cluster.MembershipEvent;
+import com.hazelcast.cluster.MembershipListener;
+import com.hazelcast.map.IMap;
+import com.hazelcast.map.listener.EntryAddedListener;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.EntryExpiredListener;
+import com.hazelcast.map.listener.EntryRemovedListener;
+import com.hazelcast.map.listener.EntryUpdatedListener;
+import com.hazelcast.partition.MigrationListener;
+import com.hazelcast.partition.MigrationState;
+import com.hazelcast.partition.Partition;
+import com.hazelcast.partition.PartitionService;
+import com.hazelcast.partition.ReplicaMigrationEvent;
+import no.rutebanken.anshar.data.collections.ExtendedHazelcastService;
+import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import uk.org.siri.siri21.Siri;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends heartbeats to outbound subscriptions, and terminates subscriptions when InitialTerminationTime has passed.
+ *
+ * Each member handles the subscriptions stored in its own Hazelcast-partitions, with one deadline per subscription,
+ * so the cost scales with the number of heartbeats sent. Deadlines are set when subscriptions are added or updated,
+ * and reconciled with the local partitions when partitions migrate or members join or leave. All work, including
+ * the handling of Hazelcast-events, runs on the scheduler-thread so listener-threads are never blocked.
+ */
+@Service
+public class HeartbeatScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeartbeatScheduler.class);
+
+    // Lower limit for heartbeats, and the delay before deadlines are reconciled after partitions have changed
+    private static final long MINIMUM_INTERVAL_MILLIS = 2000;
+
+    @Autowired
+    private IMap<String, OutboundSubscriptionSetup> subscriptions;
+
+    @Autowired
+    @Qualifier("getHeartbeatTimestampMap")
+    private IMap<String, Instant> heartbeatTimestampMap;
+
+    @Autowired
+    private ServerSubscriptionManager serverSubscriptionManager;
+
+    @Autowired
+    private CamelRouteManager camelRouteManager;
+
+    @Autowired
+    private SiriObjectFactory siriObjectFactory;
+
+    @Autowired
+    private ExtendedHazelcastService hazelcastService;
+
+    private PartitionService partitionService;
+
+    private final HeartbeatDeadlines deadlines = new HeartbeatDeadlines(this::onDeadline);
+
+    HeartbeatScheduler() {
+    }
+
+    HeartbeatScheduler(IMap<String, OutboundSubscriptionSetup> subscriptions, IMap<String, Instant> heartbeatTimestampMap,
+                       ServerSubscriptionManager serverSubscriptionManager, CamelRouteManager camelRouteManager,
+                       SiriObjectFactory siriObjectFactory, ExtendedHazelcastService hazelcastService) {
+        this.subscriptions = subscriptions;
+        this.heartbeatTimestampMap = heartbeatTimestampMap;
+        this.serverSubscriptionManager = serverSubscriptionManager;
+        this.camelRouteManager = camelRouteManager;
+        this.siriObjectFactory = siriObjectFactory;
+        this.hazelcastService = hazelcastService;
+        init();
+    }
+
+    @PostConstruct
+    void init() {
+        partitionService = hazelcastService.getHazelcastInstance().getPartitionService();
+
+        // Local listeners are only notified for entries owned by this member
+        subscriptions.addLocalEntryListener((EntryAddedListener<String, OutboundSubscriptionSetup>) event -> scheduleLater(event.getValue()));
+        subscriptions.addLocalEntryListener((EntryUpdatedListener<String, OutboundSubscriptionSetup>) event -> scheduleLater(event.getValue()));
+        subscriptions.addLocalEntryListener((EntryRemovedListener<String, OutboundSubscriptionSetup>) event -> cancelLater(event.getKey()));
+        subscriptions.addLocalEntryListener((EntryExpiredListener<String, OutboundSubscriptionSetup>) event -> cancelLater(event.getKey()));
+        subscriptions.addLocalEntryListener((EntryEvictedListener<String, OutboundSubscriptionSetup>) event -> cancelLater(event.getKey()));
+
+        partitionService.addMigrationListener(new MigrationListener() {
+            @Override
+            public void migrationStarted(MigrationState state) {
+            }
+
+            @Override
+            public void migrationFinished(MigrationState state) {
+                reconcileLater();
+            }
+
+            @Override
+            public void replicaMigrationCompleted(ReplicaMigrationEvent event) {
+            }
+
+            @Override
+            public void replicaMigrationFailed(ReplicaMigrationEvent event) {
+            }
+        });
+
+        hazelcastService.getHazelcastInstance().getCluster().addMembershipListener(new MembershipListener() {
+            @Override
+            public void memberAdded(MembershipEvent event) {
+                reconcileLater();
+            }
+
+            @Override
+            public void memberRemoved(MembershipEvent event) {
+                reconcileLater();
+            }
+        });
+
+        deadlines.execute(this::reconcile, 0);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        deadlines.shutdown();
+    }
+
+    int getScheduledCount() {
+        return deadlines.size();
+    }
+
+    boolean isScheduled(String subscriptionId) {
+        return deadlines.isScheduled(subscriptionId);
+    }
+
+    private void reconcileLater() {
+        deadlines.execute(this::reconcile, MINIMUM_INTERVAL_MILLIS);
+    }
+
+    private void scheduleLater(OutboundSubscriptionSetup subscription) {
+        deadlines.execute(() -> schedule(subscription), 0);
+    }
+
+    /**
+     * Cancelled on the scheduler-thread as well, so it is not overtaken by a previously added subscription
+     */
+    private void cancelLater(String subscriptionId) {
+        deadlines.execute(() -> deadlines.cancel(subscriptionId), 0);
+    }
+
+    /**
+     * Schedules subscriptions that have moved to this member, and cancels those that have moved away
+     */
+    private void reconcile() {
+        try {
+            final Set<String> localSubscriptionIds = subscriptions.localKeySet();
+            deadlines.retainAll(localSubscriptionIds);
+            int added = 0;
+            for (String subscriptionId : localSubscriptionIds) {
+                if (!deadlines.isScheduled(subscriptionId)) {
+                    schedule(subscriptions.get(subscriptionId));
+                    added++;
+                }
+            }
+            logger.info("Heartbeats scheduled for {} local subscriptions, {} added", deadlines.size(), added);
+        } catch (Exception e) {
+            logger.warn("Reconciling heartbeat deadlines failed", e);
+        }
+    }
+
+    /**
+     * Schedules next heartbeat based on when the previous was sent - possibly by another member
+     */
+    private void schedule(OutboundSubscriptionSetup subscription) {
+        if (subscription == null) {
+            return;
+        }
+        final String subscriptionId = subscription.getSubscriptionId();
+        long delay = 0;
+        Instant lastHeartbeat = heartbeatTimestampMap.get(subscriptionId);
+        if (lastHeartbeat != null) {
+            delay = getHeartbeatInterval(subscription) - (System.currentTimeMillis() - lastHeartbeat.toEpochMilli());
+        }
+        deadlines.schedule(subscriptionId, Math.min(delay, getMillisUntilTermination(subscription)));
+    }
+
+    private void onDeadline(String subscriptionId) {
+        final Member owner = getOwner(subscriptionId);
+        if (!isLocal(owner)) {
+            if (owner == null) {
+                // Owner is unknown while partitions are migrating - check again when migration should be done
+                deadlines.schedule(subscriptionId, MINIMUM_INTERVAL_MILLIS);
+            }
+            // Otherwise partition has moved - the new owner will pick it up
+            return;
+        }
+        final OutboundSubscriptionSetup subscription = subscriptions.get(subscriptionId);
+        if (subscription == null) {
+            logger.info("Outbound subscription {} not found.", subscriptionId);
+            return;
+        }
+
+        if (getMillisUntilTermination(subscription) <= 0) {
+            serverSubscriptionManager.terminateSubscription(subscriptionId, true);
+            return;
+        }
+
+        final long heartbeatInterval = getHeartbeatInterval(subscription);
+        deadlines.schedule(subscriptionId, Math.min(heartbeatInterval, getMillisUntilTermination(subscription)));
+
+        Siri heartbeatNotification = siriObjectFactory.createHeartbeatNotification(subscriptionId);
+        camelRouteManager.pushSiriData(heartbeatNotification, subscription, true);
+
+        heartbeatTimestampMap.set(subscriptionId, Instant.now(), heartbeatInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private Member getOwner(String subscriptionId) {
+        Partition partition = partitionService.getPartition(subscriptionId);
+        return partition != null ? partition.getOwner() : null;
+    }
+
+    private static boolean isLocal(Member owner) {
+        return owner != null && owner.localMember();
+    }
+
+    private static long getHeartbeatInterval(OutboundSubscriptionSetup subscription) {
+        return Math.max(subscription.getHeartbeatInterval(), MINIMUM_INTERVAL_MILLIS);
+    }
+
+    private static long getMillisUntilTermination(OutboundSubscriptionSetup subscription) {
+        if (subscription.getInitialTerminationTime() == null) {
+            return Long.MAX_VALUE;
+        }
+        return subscription.getInitialTerminationTime().toInstant().toEpochMilli() - System.currentTimeMillis();
+    }
+}
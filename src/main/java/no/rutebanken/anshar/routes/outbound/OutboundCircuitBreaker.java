@@ -0,0 +1,348 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker for outbound subscribers.
+ *
+ * The circuit opens after a number of consecutive failed deliveries, and pushes to the subscriber are skipped
+ * before any transformation or marshalling is done - dead letters are only filtered, so that the payload shared
+ * with other subscribers is not kept. When the backoff has passed, one delivery is let
+ * through as a probe - if that fails the backoff is doubled, if it succeeds the circuit is closed and
+ * dead-lettered deliveries are replayed in order. When there are dead letters, the oldest is sent as the probe and
+ * new deliveries are dead-lettered behind it, so that replayed data never overwrites newer data at the subscriber.
+ * Dead letters expire after a max age, and VM-deliveries are not kept since they are superseded by the next
+ * position update.
+ *
+ * Outcomes are reported through the fail-tracker in ServerSubscriptionManager, so termination of subscriptions
+ * that keep failing is unchanged.
+ */
+@Service
+public class OutboundCircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundCircuitBreaker.class);
+
+    enum State {CLOSED, OPEN, HALF_OPEN}
+
+    @Value("${anshar.outbound.circuitbreaker.enabled:true}")
+    private boolean enabled;
+
+    @Value("${anshar.outbound.circuitbreaker.failure.threshold:3}")
+    private int failureThreshold;
+
+    @Value("${anshar.outbound.circuitbreaker.initial.backoff.millis:10000}")
+    private long initialBackoffMillis;
+
+    @Value("${anshar.outbound.circuitbreaker.max.backoff.millis:300000}")
+    private long maxBackoffMillis;
+
+    @Value("${anshar.outbound.circuitbreaker.probe.timeout.millis:60000}")
+    private long probeTimeoutMillis;
+
+    @Value("${anshar.outbound.circuitbreaker.dead.letter.size:100}")
+    private int deadLetterSize;
+
+    @Value("${anshar.outbound.circuitbreaker.dead.letter.max.age.millis:300000}")
+    private long deadLetterMaxAgeMillis;
+
+    @Autowired
+    private PrometheusMetricsService metrics;
+
+    private LongSupplier clock = System::currentTimeMillis;
+
+    // Only subscribers with failed deliveries have a circuit
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    OutboundCircuitBreaker() {
+    }
+
+    OutboundCircuitBreaker(int failureThreshold, long initialBackoffMillis, long maxBackoffMillis, long probeTimeoutMillis,
+                           int deadLetterSize, long deadLetterMaxAgeMillis, PrometheusMetricsService metrics, LongSupplier clock) {
+        this.enabled = true;
+        this.failureThreshold = failureThreshold;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.probeTimeoutMillis = probeTimeoutMillis;
+        this.deadLetterSize = deadLetterSize;
+        this.deadLetterMaxAgeMillis = deadLetterMaxAgeMillis;
+        this.metrics = metrics;
+        this.clock = clock;
+        start();
+    }
+
+    @PostConstruct
+    void start() {
+        metrics.registerOutboundCircuitBreaker(this);
+        logger.info("Outbound circuit breaker enabled: {}, opens after {} failures, backoff {}-{} ms",
+            enabled, failureThreshold, initialBackoffMillis, maxBackoffMillis);
+    }
+
+    /**
+     * When a probe is due and there are dead letters, the oldest is replayed as the probe, and false is returned so
+     * that the current delivery is dead-lettered behind it.
+     *
+     * @return false if the circuit is open and the delivery should be skipped
+     */
+    public boolean allowDelivery(String subscriptionId) {
+        if (!enabled) {
+            return true;
+        }
+        Circuit circuit = circuits.get(subscriptionId);
+        if (circuit == null) {
+            return true;
+        }
+        final long now = clock.getAsLong();
+        DeadLetter probe;
+        synchronized (circuit) {
+            switch (circuit.state) {
+                case OPEN:
+                    if (now < circuit.openUntil) {
+                        return false;
+                    }
+                    logger.info("Circuit for subscription {} is half-open - sending probe", subscriptionId);
+                    circuit.state = State.HALF_OPEN;
+                    circuit.probeStarted = now;
+                    break;
+                case HALF_OPEN:
+                    // Probe may not have produced a request, e.g. when everything was filtered out
+                    if (now - circuit.probeStarted < probeTimeoutMillis) {
+                        return false;
+                    }
+                    circuit.probeStarted = now;
+                    break;
+                default:
+                    return true;
+            }
+            expireDeadLetters(subscriptionId, circuit, now);
+            probe = circuit.deadLetters.peek();
+            circuit.probe = probe;
+        }
+        if (probe == null) {
+            return true;
+        }
+        // Kept until the circuit closes, and retried as the next probe if it fails
+        replay(subscriptionId, probe);
+        return false;
+    }
+
+    /**
+     * Keeps skipped delivery for replay when the circuit closes - the oldest are dropped when the buffer is full,
+     * or when they have expired
+     *
+     * @param size number of deliveries (split parts) to the subscriber, counted towards the dead letter size
+     */
+    public void deadLetter(OutboundSubscriptionSetup subscription, int size, Runnable replay) {
+        final String subscriptionId = subscription.getSubscriptionId();
+        final SiriDataType dataType = subscription.getSubscriptionType();
+        Circuit circuit = circuits.get(subscriptionId);
+        boolean closed = circuit == null;
+        boolean overflow = false;
+        if (circuit != null) {
+            final long now = clock.getAsLong();
+            synchronized (circuit) {
+                // Circuit is only closed here if onSuccess has removed it in the meantime
+                closed = circuit.state == State.CLOSED;
+                if (!closed && isKeptForReplay(dataType)) {
+                    expireDeadLetters(subscriptionId, circuit, now);
+                    if (size > deadLetterSize) {
+                        overflow = true;
+                    } else {
+                        while (circuit.deadLetterParts + size > deadLetterSize) {
+                            overflow = true;
+                            circuit.deadLetterParts -= circuit.deadLetters.poll().size;
+                        }
+                        circuit.deadLetters.add(new DeadLetter(replay, dataType, size, now));
+                        circuit.deadLetterParts += size;
+                    }
+                }
+            }
+        }
+        if (closed) {
+            replay.run();
+            return;
+        }
+        if (!isKeptForReplay(dataType)) {
+            metrics.registerOutboundDropped(subscriptionId, dataType, "CIRCUIT_OPEN");
+            return;
+        }
+        if (overflow) {
+            metrics.registerOutboundDropped(subscriptionId, dataType, "DEAD_LETTER_FULL");
+        }
+    }
+
+    private boolean isKeptForReplay(SiriDataType dataType) {
+        // Replaying old vehicle positions would only move vehicles backwards
+        return deadLetterSize > 0 && dataType != SiriDataType.VEHICLE_MONITORING;
+    }
+
+    /**
+     * Removes dead letters older than max age - these are ordered, so only the head is checked
+     */
+    private int expireDeadLetters(String subscriptionId, Circuit circuit, long now) {
+        int expired = 0;
+        while (!circuit.deadLetters.isEmpty() && now - circuit.deadLetters.peek().created > deadLetterMaxAgeMillis) {
+            DeadLetter deadLetter = circuit.deadLetters.poll();
+            circuit.deadLetterParts -= deadLetter.size;
+            metrics.registerOutboundDropped(subscriptionId, deadLetter.dataType, "DEAD_LETTER_EXPIRED");
+            expired++;
+        }
+        return expired;
+    }
+
+    /**
+     * Closes circuit, and replays dead-lettered deliveries
+     */
+    public void onSuccess(String subscriptionId) {
+        Circuit circuit = circuits.get(subscriptionId);
+        if (circuit == null) {
+            return;
+        }
+        synchronized (circuit) {
+            int expired = expireDeadLetters(subscriptionId, circuit, clock.getAsLong());
+            if (circuit.probe != null) {
+                // Delivered as probe
+                circuit.deadLetters.remove(circuit.probe);
+            }
+            if (circuit.state != State.CLOSED) {
+                logger.info("Circuit for subscription {} is closed - replaying {} deliveries, {} expired", subscriptionId, circuit.deadLetters.size(), expired);
+            }
+            circuit.state = State.CLOSED;
+            // Replays only queue the deliveries - done while locked, so that deliveries dead-lettered meanwhile are
+            // queued after these
+            for (DeadLetter deadLetter : circuit.deadLetters) {
+                replay(subscriptionId, deadLetter);
+            }
+            circuit.deadLetters.clear();
+            circuits.remove(subscriptionId, circuit);
+        }
+    }
+
+    private void replay(String subscriptionId, DeadLetter deadLetter) {
+        try {
+            deadLetter.delivery.run();
+        } catch (Exception e) {
+            logger.warn("Replay of delivery failed for subscription {}", subscriptionId, e);
+        }
+    }
+
+    public void onFailure(String subscriptionId) {
+        if (!enabled) {
+            return;
+        }
+        Circuit circuit = circuits.computeIfAbsent(subscriptionId, id -> new Circuit());
+        final long now = clock.getAsLong();
+        synchronized (circuit) {
+            switch (circuit.state) {
+                case CLOSED:
+                    circuit.failures++;
+                    if (circuit.failures >= failureThreshold) {
+                        open(subscriptionId, circuit, initialBackoffMillis, now);
+                    }
+                    break;
+                case HALF_OPEN:
+                    circuit.probe = null;
+                    open(subscriptionId, circuit, Math.min(maxBackoffMillis, circuit.backoffMillis * 2), now);
+                    break;
+                default:
+                    // Deliveries already in flight when the circuit opened
+                    break;
+            }
+        }
+    }
+
+    public void remove(String subscriptionId) {
+        circuits.remove(subscriptionId);
+    }
+
+    State getState(String subscriptionId) {
+        Circuit circuit = circuits.get(subscriptionId);
+        if (circuit == null) {
+            return State.CLOSED;
+        }
+        synchronized (circuit) {
+            return circuit.state;
+        }
+    }
+
+    int getDeadLetterCount(String subscriptionId) {
+        Circuit circuit = circuits.get(subscriptionId);
+        if (circuit == null) {
+            return 0;
+        }
+        synchronized (circuit) {
+            return circuit.deadLetters.size();
+        }
+    }
+
+    public int getOpenCount() {
+        int count = 0;
+        for (Circuit circuit : circuits.values()) {
+            synchronized (circuit) {
+                if (circuit.state != State.CLOSED) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void open(String subscriptionId, Circuit circuit, long backoffMillis, long now) {
+        circuit.state = State.OPEN;
+        circuit.backoffMillis = Math.max(1, backoffMillis);
+        circuit.openUntil = now + circuit.backoffMillis;
+        logger.info("Circuit for subscription {} is open - skipping deliveries for {}s", subscriptionId, circuit.backoffMillis / 1000);
+    }
+
+    private static class Circuit {
+        private State state = State.CLOSED;
+        private int failures;
+        private long backoffMillis;
+        private long openUntil;
+        private long probeStarted;
+        private DeadLetter probe;
+        private final Deque<DeadLetter> deadLetters = new ArrayDeque<>();
+        private int deadLetterParts;
+    }
+
+    private static class DeadLetter {
+        private final Runnable delivery;
+        private final SiriDataType dataType;
+        private final int size;
+        private final long created;
+
+        private DeadLetter(Runnable delivery, SiriDataType dataType, int size, long created) {
+            this.delivery = delivery;
+            this.dataType = dataType;
+            this.size = size;
+            this.created = created;
+        }
+    }
+}
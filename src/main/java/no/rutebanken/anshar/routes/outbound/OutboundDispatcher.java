@@ -0,0 +1,268 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared dispatcher for all outbound push-deliveries.
+ *
+ * Fan-out (resolving recipients and building deliveries) runs on a small bounded pool - when that is
+ * saturated the task is run by the caller, slowing down ingest instead of piling up work.
+ *
+ * Deliveries are queued per subscriber and executed serially, in order, on a shared worker pool. Each
+ * subscriber-queue is bounded; VM-deliveries are superseded by newer positions so the oldest queued
+ * delivery is dropped on overflow, for ET and SX the new delivery is dropped.
+ *
+ * Initial deliveries run on a separate bounded pool, so that large datasets do not hold up live updates.
+ */
+@Service
+public class OutboundDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundDispatcher.class);
+
+    enum OverflowPolicy {DROP_OLDEST, DROP_NEWEST}
+
+    @Value("${anshar.outbound.dispatcher.threads:20}")
+    private int deliveryThreads;
+
+    @Value("${anshar.outbound.dispatcher.fanout.threads:4}")
+    private int fanOutThreads;
+
+    @Value("${anshar.outbound.dispatcher.fanout.queue.size:1000}")
+    private int fanOutQueueSize;
+
+    @Value("${anshar.outbound.dispatcher.max.queued.per.subscriber:100}")
+    private int maxQueuedPerSubscriber;
+
+    @Value("${anshar.outbound.dispatcher.initial.delivery.threads:2}")
+    private int initialDeliveryThreads;
+
+    @Value("${anshar.outbound.dispatcher.initial.delivery.queue.size:1000}")
+    private int initialDeliveryQueueSize;
+
+    @Autowired
+    private PrometheusMetricsService metrics;
+
+    private ExecutorService deliveryExecutor;
+
+    private ThreadPoolExecutor fanOutExecutor;
+
+    private ThreadPoolExecutor initialDeliveryExecutor;
+
+    private final Map<String, SubscriberQueue> subscriberQueues = new ConcurrentHashMap<>();
+
+    OutboundDispatcher() {
+    }
+
+    OutboundDispatcher(int deliveryThreads, int fanOutThreads, int fanOutQueueSize, int maxQueuedPerSubscriber, PrometheusMetricsService metrics) {
+        this.deliveryThreads = deliveryThreads;
+        this.fanOutThreads = fanOutThreads;
+        this.fanOutQueueSize = fanOutQueueSize;
+        this.maxQueuedPerSubscriber = maxQueuedPerSubscriber;
+        this.metrics = metrics;
+        start();
+    }
+
+    @PostConstruct
+    void start() {
+        deliveryExecutor = Executors.newFixedThreadPool(Math.max(1, deliveryThreads), new ThreadFactoryBuilder()
+            .setNameFormat("outbound-delivery-%d")
+            .setDaemon(true)
+            .build());
+
+        fanOutExecutor = new ThreadPoolExecutor(Math.max(1, fanOutThreads), Math.max(1, fanOutThreads),
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, fanOutQueueSize)),
+            new ThreadFactoryBuilder()
+                .setNameFormat("outbound-fanout-%d")
+                .setDaemon(true)
+                .build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+        initialDeliveryExecutor = new ThreadPoolExecutor(Math.max(1, initialDeliveryThreads), Math.max(1, initialDeliveryThreads),
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, initialDeliveryQueueSize)),
+            new ThreadFactoryBuilder()
+                .setNameFormat("outbound-initial-delivery-%d")
+                .setDaemon(true)
+                .build(),
+            new ThreadPoolExecutor.AbortPolicy());
+
+        metrics.registerOutboundFanOutQueue(this);
+
+        logger.info("Outbound dispatcher started with {} delivery-threads, {} fan-out-threads, max {} queued deliveries per subscriber",
+            deliveryThreads, fanOutThreads, maxQueuedPerSubscriber);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        fanOutExecutor.shutdownNow();
+        initialDeliveryExecutor.shutdownNow();
+        deliveryExecutor.shutdownNow();
+    }
+
+    /**
+     * Executes task that resolves recipients and dispatches deliveries
+     */
+    public void fanOut(Runnable task) {
+        fanOutExecutor.execute(task);
+    }
+
+    /**
+     * Executor for reading and sending initial deliveries - rejects tasks when the queue is full
+     */
+    public Executor getInitialDeliveryExecutor() {
+        return initialDeliveryExecutor;
+    }
+
+    /**
+     * Queues delivery for subscriber - deliveries for the same subscriber are executed in submitted order
+     *
+     * @return true if a new queue was created for the subscriber
+     */
+    public boolean dispatch(OutboundSubscriptionSetup subscriber, Runnable delivery) {
+        final String subscriptionId = subscriber.getSubscriptionId();
+        boolean[] created = new boolean[1];
+        SubscriberQueue queue = subscriberQueues.computeIfAbsent(subscriptionId, id -> {
+            created[0] = true;
+            return createQueue(subscriber);
+        });
+
+        boolean dropped = false;
+        boolean start = false;
+        synchronized (queue) {
+            if (queue.pending.size() >= maxQueuedPerSubscriber) {
+                dropped = true;
+                if (queue.overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                    queue.pending.poll();
+                    queue.pending.add(delivery);
+                }
+            } else {
+                queue.pending.add(delivery);
+            }
+            if (!queue.running) {
+                queue.running = true;
+                start = true;
+            }
+        }
+
+        if (dropped) {
+            logger.warn("Outbound queue for subscription {} is full - dropping {} delivery", subscriptionId,
+                queue.overflowPolicy == OverflowPolicy.DROP_OLDEST ? "oldest":"newest");
+            metrics.registerOutboundDropped(subscriptionId, queue.dataType, queue.overflowPolicy.name());
+        }
+        if (start) {
+            executeNext(queue);
+        }
+        return created[0];
+    }
+
+    /**
+     * Discards all pending deliveries for subscriber, and the queue-metrics
+     */
+    public void removeSubscriber(String subscriptionId) {
+        SubscriberQueue queue = subscriberQueues.remove(subscriptionId);
+        if (queue != null) {
+            synchronized (queue) {
+                queue.pending.clear();
+            }
+            metrics.removeOutboundQueue(subscriptionId);
+            logger.info("Removed outbound queue for subscription {}", subscriptionId);
+        }
+    }
+
+    public int getQueueSize(String subscriptionId) {
+        SubscriberQueue queue = subscriberQueues.get(subscriptionId);
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return queue.pending.size();
+        }
+    }
+
+    public int getFanOutQueueSize() {
+        return fanOutExecutor.getQueue().size();
+    }
+
+    private SubscriberQueue createQueue(OutboundSubscriptionSetup subscriber) {
+        SiriDataType dataType = subscriber.getSubscriptionType();
+        SubscriberQueue queue = new SubscriberQueue(dataType,
+            dataType == SiriDataType.VEHICLE_MONITORING ? OverflowPolicy.DROP_OLDEST : OverflowPolicy.DROP_NEWEST);
+        metrics.registerOutboundQueue(subscriber.getSubscriptionId(), dataType, this);
+        return queue;
+    }
+
+    private void executeNext(SubscriberQueue queue) {
+        try {
+            deliveryExecutor.execute(() -> runNext(queue));
+        } catch (RejectedExecutionException e) {
+            logger.info("Outbound dispatcher is shut down - ignoring delivery");
+        }
+    }
+
+    private void runNext(SubscriberQueue queue) {
+        Runnable delivery;
+        synchronized (queue) {
+            delivery = queue.pending.poll();
+            if (delivery == null) {
+                queue.running = false;
+                return;
+            }
+        }
+        try {
+            delivery.run();
+        } catch (Exception e) {
+            logger.warn("Outbound delivery failed", e);
+        }
+        // Resubmitted to let other subscribers waiting for the pool run in between
+        executeNext(queue);
+    }
+
+    private static class SubscriberQueue {
+        private final Deque<Runnable> pending = new ArrayDeque<>();
+        private final SiriDataType dataType;
+        private final OverflowPolicy overflowPolicy;
+        private boolean running;
+
+        private SubscriberQueue(SiriDataType dataType, OverflowPolicy overflowPolicy) {
+            this.dataType = dataType;
+            this.overflowPolicy = overflowPolicy;
+        }
+    }
+}
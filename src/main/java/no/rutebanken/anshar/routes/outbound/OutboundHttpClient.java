@@ -0,0 +1,387 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import org.apache.camel.Exchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking HTTP-client for outbound push-deliveries.
+ *
+ * Deliveries are sent asynchronously, so that slow subscribers do not occupy a delivery-thread while waiting
+ * for a response. Concurrent requests are limited per host, and deliveries to the same subscriber are sent
+ * one at a time, in order. Failed deliveries are retried with a delay, and the final outcome is reported to the
+ * fail-tracker in ServerSubscriptionManager.
+ */
+@Service
+public class OutboundHttpClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundHttpClient.class);
+
+    /**
+     * Exchange-property with the CompletableFuture for the delivery, e.g. to send the next page of an initial
+     * delivery when the previous has been delivered
+     */
+    public static final String DELIVERY_RESULT_PROPERTY = "deliveryResult";
+
+    @Value("${anshar.outbound.http.async.enabled:true}")
+    private boolean enabled;
+
+    @Value("${anshar.outbound.http.threads:4}")
+    private int threads;
+
+    @Value("${anshar.outbound.http.max.connections.per.host:10}")
+    private int maxConnectionsPerHost;
+
+    @Value("${anshar.outbound.http.max.pending.per.subscriber:100}")
+    private int maxPendingPerSubscriber;
+
+    @Value("${anshar.outbound.http.timeout.millis:15000}")
+    private int timeoutMillis;
+
+    @Value("${anshar.outbound.http.max.redeliveries:2}")
+    private int maxRedeliveries;
+
+    @Value("${anshar.outbound.http.redelivery.delay.millis:3000}")
+    private long redeliveryDelayMillis;
+
+    @Autowired
+    private ServerSubscriptionManager subscriptionManager;
+
+    @Autowired
+    private PrometheusMetricsService metrics;
+
+    private Consumer<String> onDelivered;
+
+    private Consumer<String> onFailed;
+
+    private ExecutorService executor;
+
+    private HttpClient httpClient;
+
+    private final Map<String, HostLimiter> hosts = new ConcurrentHashMap<>();
+
+    private final Map<String, SubscriberChain> subscribers = new ConcurrentHashMap<>();
+
+    OutboundHttpClient() {
+    }
+
+    OutboundHttpClient(int maxConnectionsPerHost, int maxPendingPerSubscriber, int timeoutMillis, int maxRedeliveries,
+                       long redeliveryDelayMillis, PrometheusMetricsService metrics,
+                       Consumer<String> onDelivered, Consumer<String> onFailed) {
+        this.enabled = true;
+        this.threads = 2;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.maxPendingPerSubscriber = maxPendingPerSubscriber;
+        this.timeoutMillis = timeoutMillis;
+        this.maxRedeliveries = maxRedeliveries;
+        this.redeliveryDelayMillis = redeliveryDelayMillis;
+        this.metrics = metrics;
+        this.onDelivered = onDelivered;
+        this.onFailed = onFailed;
+        start();
+    }
+
+    @PostConstruct
+    void start() {
+        if (onDelivered == null) {
+            onDelivered = subscriptionManager::clearFailTracker;
+        }
+        if (onFailed == null) {
+            onFailed = subscriptionManager::pushFailedForSubscription;
+        }
+        executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactoryBuilder()
+            .setNameFormat("outbound-http-%d")
+            .setDaemon(true)
+            .build());
+
+        httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(timeoutMillis))
+            .executor(executor)
+            .build();
+
+        logger.info("Outbound HTTP-client started - async: {}, max {} connections per host", enabled, maxConnectionsPerHost);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Posts body of exchange to the endpoint-header - returns without waiting for the response
+     */
+    void post(Exchange exchange) {
+        CompletableFuture<Boolean> result = post(exchange.getIn().getHeader("SubscriptionId", String.class),
+            exchange.getIn().getHeader("endpoint", String.class),
+            exchange.getIn().getBody(byte[].class),
+            exchange.getIn().getHeader(Exchange.CONTENT_TYPE, String.class));
+
+        exchange.setProperty(DELIVERY_RESULT_PROPERTY, result);
+    }
+
+    /**
+     * @return completed with true when delivered, false when failed after all redeliveries or dropped
+     */
+    CompletableFuture<Boolean> post(String subscriptionId, String endpoint, byte[] body, String contentType) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        final URI uri;
+        try {
+            uri = URI.create(endpoint);
+        } catch (RuntimeException e) {
+            logger.info("Invalid endpoint {} for subscription {}", endpoint, subscriptionId);
+            onFailed.accept(subscriptionId);
+            result.complete(false);
+            return result;
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(uri)
+            .timeout(Duration.ofMillis(timeoutMillis))
+            .header("Content-Type", contentType != null ? contentType : "application/xml")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+            .build();
+
+        SubscriberChain chain = subscribers.computeIfAbsent(subscriptionId, id -> new SubscriberChain());
+        if (!chain.enqueue(() -> send(subscriptionId, request, 0, chain, result), result, maxPendingPerSubscriber)) {
+            logger.warn("Too many pending HTTP-deliveries for subscription {} - dropping delivery", subscriptionId);
+            metrics.registerOutboundDropped(subscriptionId, null, "HTTP_PENDING");
+            result.complete(false);
+        }
+        return result;
+    }
+
+    int getPendingCount(String subscriptionId) {
+        SubscriberChain chain = subscribers.get(subscriptionId);
+        return chain != null ? chain.size() : 0;
+    }
+
+    /**
+     * Discards pending deliveries for subscriber - these are completed as not delivered - and the latency-metrics
+     */
+    public void removeSubscriber(String subscriptionId) {
+        SubscriberChain chain = subscribers.remove(subscriptionId);
+        if (chain != null) {
+            chain.clear();
+        }
+        metrics.removeOutboundHttpLatency(subscriptionId);
+    }
+
+    public int getActiveCount(String host) {
+        HostLimiter limiter = hosts.get(host);
+        return limiter != null ? limiter.active.get() : 0;
+    }
+
+    public int getWaitingCount(String host) {
+        HostLimiter limiter = hosts.get(host);
+        return limiter != null ? limiter.waiting() : 0;
+    }
+
+    private void send(String subscriptionId, HttpRequest request, int attempt, SubscriberChain chain, CompletableFuture<Boolean> result) {
+        final String host = request.uri().getHost() != null ? request.uri().getHost() : "";
+        HostLimiter limiter = hosts.computeIfAbsent(host, this::createLimiter);
+
+        limiter.execute(() -> {
+            final long start = System.nanoTime();
+            CompletableFuture<HttpResponse<Void>> response;
+            try {
+                response = httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding());
+            } catch (RuntimeException e) {
+                response = CompletableFuture.failedFuture(e);
+            }
+            response.whenComplete((r, error) -> {
+                limiter.release();
+                boolean success = error == null && r.statusCode() >= 200 && r.statusCode() < 300;
+                if (subscribers.get(subscriptionId) == chain) {
+                    // Not recorded for removed subscribers - timer would be registered again
+                    metrics.registerOutboundHttpLatency(subscriptionId, success, System.nanoTime() - start);
+                }
+
+                if (success) {
+                    logger.info("POST complete {} - Response: [{}]", subscriptionId, r.statusCode());
+                    complete(subscriptionId, chain, result, true);
+                } else if (attempt < maxRedeliveries) {
+                    logger.info("POST to {} failed - retrying: {}", subscriptionId, describe(r, error));
+                    CompletableFuture.delayedExecutor(redeliveryDelayMillis, TimeUnit.MILLISECONDS, executor)
+                        .execute(() -> send(subscriptionId, request, attempt + 1, chain, result));
+                } else {
+                    logger.info("POST to {} failed after {} attempts: {}", subscriptionId, attempt + 1, describe(r, error));
+                    complete(subscriptionId, chain, result, false);
+                }
+            });
+        });
+    }
+
+    private void complete(String subscriptionId, SubscriberChain chain, CompletableFuture<Boolean> result, boolean delivered) {
+        try {
+            if (delivered) {
+                onDelivered.accept(subscriptionId);
+            } else {
+                onFailed.accept(subscriptionId);
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to update fail-tracker for subscription {}", subscriptionId, e);
+        }
+        chain.next();
+        result.complete(delivered);
+    }
+
+    private HostLimiter createLimiter(String host) {
+        HostLimiter limiter = new HostLimiter(maxConnectionsPerHost);
+        metrics.registerOutboundHttpConnections(host, this);
+        return limiter;
+    }
+
+    private static String describe(HttpResponse<Void> response, Throwable error) {
+        if (error != null) {
+            Throwable cause = error.getCause() != null ? error.getCause() : error;
+            return cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        }
+        return "HTTP " + response.statusCode();
+    }
+
+    /**
+     * Limits number of concurrent requests to a host - requests above the limit wait for a running request to complete
+     */
+    private static class HostLimiter {
+        private final int maxConnections;
+        private final AtomicInteger active = new AtomicInteger();
+        private final Deque<Runnable> waiting = new ArrayDeque<>();
+
+        private HostLimiter(int maxConnections) {
+            this.maxConnections = Math.max(1, maxConnections);
+        }
+
+        void execute(Runnable request) {
+            synchronized (this) {
+                if (active.get() >= maxConnections) {
+                    waiting.add(request);
+                    return;
+                }
+                active.incrementAndGet();
+            }
+            request.run();
+        }
+
+        void release() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    active.decrementAndGet();
+                    return;
+                }
+            }
+            next.run();
+        }
+
+        synchronized int waiting() {
+            return waiting.size();
+        }
+    }
+
+    /**
+     * Pending deliveries for one subscriber - the next is sent when the previous has completed
+     */
+    private static class SubscriberChain {
+        private final Deque<PendingDelivery> pending = new ArrayDeque<>();
+        private boolean running;
+
+        boolean enqueue(Runnable delivery, CompletableFuture<Boolean> result, int maxPending) {
+            synchronized (this) {
+                if (running) {
+                    if (pending.size() >= maxPending) {
+                        return false;
+                    }
+                    pending.add(new PendingDelivery(delivery, result));
+                    return true;
+                }
+                running = true;
+            }
+            delivery.run();
+            return true;
+        }
+
+        /**
+         * Starts next pending delivery
+         */
+        void next() {
+            PendingDelivery next;
+            synchronized (this) {
+                next = pending.poll();
+                if (next == null) {
+                    running = false;
+                    return;
+                }
+            }
+            next.delivery.run();
+        }
+
+        void clear() {
+            List<PendingDelivery> discarded;
+            synchronized (this) {
+                discarded = new ArrayList<>(pending);
+                pending.clear();
+            }
+            discarded.forEach(p -> p.result.complete(false));
+        }
+
+        synchronized int size() {
+            return pending.size() + (running ? 1 : 0);
+        }
+    }
+
+    private static class PendingDelivery {
+        private final Runnable delivery;
+        private final CompletableFuture<Boolean> result;
+
+        private PendingDelivery(Runnable delivery, CompletableFuture<Boolean> result) {
+            this.delivery = delivery;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import no.rutebanken.anshar.subscription.SubscriptionSetup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lag between the time pushed updates were stored and the time they were delivered.
+ *
+ * Created once per push, or per coalesced window, and recorded when the first subscriber has received it.
+ */
+class OutboundLag {
+
+    private final SiriDataType dataType;
+
+    private final Map<String, List<Long>> storedAtByDataset = new HashMap<>();
+
+    private final AtomicBoolean recorded = new AtomicBoolean();
+
+    OutboundLag(SiriDataType dataType) {
+        this.dataType = dataType;
+    }
+
+    OutboundLag(SiriDataType dataType, String datasetId, long storedAt, int updateCount) {
+        this(dataType);
+        add(datasetId, storedAt, updateCount);
+    }
+
+    /**
+     * Not thread-safe - all updates are added before the lag is shared between deliveries
+     */
+    void add(String datasetId, long storedAt, int updateCount) {
+        storedAtByDataset.computeIfAbsent(datasetId, d -> new ArrayList<>())
+            .addAll(Collections.nCopies(updateCount, storedAt));
+    }
+
+    /**
+     * Records lag for all updates - only the first call is recorded
+     */
+    void delivered(PrometheusMetricsService metrics) {
+        if (!recorded.compareAndSet(false, true)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, List<Long>> dataset : storedAtByDataset.entrySet()) {
+            List<Long> lagMillis = new ArrayList<>(dataset.getValue().size());
+            for (Long storedAt : dataset.getValue()) {
+                lagMillis.add(now - storedAt);
+            }
+            metrics.registerOutboundLag(dataType, dataset.getKey(), SubscriptionSetup.SubscriptionMode.SUBSCRIBE, lagMillis);
+        }
+    }
+}
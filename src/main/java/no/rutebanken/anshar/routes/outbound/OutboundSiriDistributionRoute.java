@@ -5,6 +5,7 @@ import no.rutebanken.anshar.routes.dataformat.SiriDataFormatHelper;
 import org.apache.camel.Exchange;
 import org.apache.camel.LoggingLevel;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.model.ProcessorDefinition;
 import org.entur.siri.validator.SiriValidator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -24,6 +25,12 @@ public class OutboundSiriDistributionRoute extends RouteBuilder {
     @Autowired
     private PrometheusMetricsService metrics;
 
+    @Autowired
+    private RenderedPayloadCache renderedPayloadCache;
+
+    @Autowired
+    private OutboundHttpClient outboundHttpClient;
+
     @Override
     public void configure() {
 
@@ -36,22 +43,27 @@ public class OutboundSiriDistributionRoute extends RouteBuilder {
             .log("Retry triggered")
         ;
 
-        from("direct:send.to.external.subscription")
+        ProcessorDefinition<?> route = from("direct:send.to.external.subscription")
                 .routeId("send.to.external.subscription")
                 .log(LoggingLevel.INFO, "POST data to ${header.SubscriptionId}")
                 .setHeader("CamelHttpMethod", constant("POST"))
                 .setHeader(Exchange.CONTENT_TYPE, constant(MediaType.APPLICATION_XML))
                 .bean(metrics, "countOutgoingData(${body}, SUBSCRIBE)")
-                .to("direct:siri.transform.data")
-                .choice()
-                    .when(header(SIRI_VERSION_HEADER_NAME).isEqualTo(SiriValidator.Version.VERSION_2_1))
-                        .marshal(SiriDataFormatHelper.getSiriJaxbDataformat(SiriValidator.Version.VERSION_2_1))
-                    .endChoice()
-                    .otherwise()
-                        .process(p -> {
-                            p.getMessage().setBody(downgradeSiriVersion(p.getIn().getBody(Siri.class)));
-                        })
-                        .marshal(SiriDataFormatHelper.getSiriJaxbDataformat(SiriValidator.Version.VERSION_2_0))
+                .process(renderedPayloadCache::lookup)
+                .filter(exchangeProperty(RenderedPayloadCache.RENDERED_PROPERTY).isNotEqualTo(true))
+                    .to("direct:siri.transform.data")
+                    .choice()
+                        .when(header(SIRI_VERSION_HEADER_NAME).isEqualTo(SiriValidator.Version.VERSION_2_1))
+                            .marshal(SiriDataFormatHelper.getSiriJaxbDataformat(SiriValidator.Version.VERSION_2_1))
+                        .endChoice()
+                        .otherwise()
+                            .process(p -> {
+                                p.getMessage().setBody(downgradeSiriVersion(p.getIn().getBody(Siri.class)));
+                            })
+                            .marshal(SiriDataFormatHelper.getSiriJaxbDataformat(SiriValidator.Version.VERSION_2_0))
+                    .end()
+                    .convertBodyTo(byte[].class)
+                    .process(renderedPayloadCache::store)
                 .end()
                 .setHeader("httpClient.socketTimeout", constant(timeout))
                 .setHeader("httpClient.connectTimeout", constant(timeout))
@@ -62,10 +74,16 @@ public class OutboundSiriDistributionRoute extends RouteBuilder {
                     .otherwise()
                         .to("log:push:" + getClass().getSimpleName() + "?showAll=false&showExchangeId=true&showHeaders=true&showException=true&multiline=true&showBody=false")
                 .end()
-                .removeHeader("showBody")
-                .toD("${header.endpoint}")
+                .removeHeader("showBody");
+
+        if (outboundHttpClient.isEnabled()) {
+            // Response, redelivery and fail-tracking are handled asynchronously by the client
+            route.process(outboundHttpClient::post);
+        } else {
+            route.toD("${header.endpoint}")
                 .bean(subscriptionManager, "clearFailTracker(${header.SubscriptionId})")
                 .log(LoggingLevel.INFO, "POST complete ${header.SubscriptionId} - Response: [${header.CamelHttpResponseCode} ${header.CamelHttpResponseText}]");
+        }
 
     }
 }
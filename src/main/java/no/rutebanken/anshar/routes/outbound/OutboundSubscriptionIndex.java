@@ -0,0 +1,129 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import com.hazelcast.map.IMap;
+import com.hazelcast.map.listener.EntryAddedListener;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.EntryExpiredListener;
+import com.hazelcast.map.listener.EntryRemovedListener;
+import com.hazelcast.map.listener.EntryUpdatedListener;
+import no.rutebanken.anshar.subscription.SiriDataType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Local index of outbound subscriptions by data type and dataset.
+ *
+ * Kept in sync with the distributed subscription-map through entry-listeners, so that pushed updates
+ * only visit the subscriptions that can match.
+ */
+class OutboundSubscriptionIndex {
+
+    /**
+     * Key used for subscriptions without datasetId - i.e. subscriptions to all datasets
+     */
+    private static final String ALL_DATASETS = "";
+
+    private final Map<SiriDataType, Map<String, Map<String, OutboundSubscriptionSetup>>> index = new ConcurrentHashMap<>();
+
+    private final Map<String, OutboundSubscriptionSetup> subscriptionsById = new ConcurrentHashMap<>();
+
+    /**
+     * Registers entry-listeners and indexes all existing subscriptions
+     *
+     * @param onRemoved called on every member when a subscription is removed, expires or is evicted - after it
+     *                  has been removed from the index
+     */
+    void listenTo(IMap<String, OutboundSubscriptionSetup> subscriptions, Consumer<String> onRemoved) {
+        subscriptions.addEntryListener((EntryAddedListener<String, OutboundSubscriptionSetup>) event -> put(event.getValue()), true);
+        subscriptions.addEntryListener((EntryUpdatedListener<String, OutboundSubscriptionSetup>) event -> put(event.getValue()), true);
+        subscriptions.addEntryListener((EntryRemovedListener<String, OutboundSubscriptionSetup>) event -> removed(event.getKey(), onRemoved), false);
+        subscriptions.addEntryListener((EntryExpiredListener<String, OutboundSubscriptionSetup>) event -> removed(event.getKey(), onRemoved), false);
+        subscriptions.addEntryListener((EntryEvictedListener<String, OutboundSubscriptionSetup>) event -> removed(event.getKey(), onRemoved), false);
+
+        subscriptions.values().forEach(this::put);
+    }
+
+    private void removed(String subscriptionId, Consumer<String> onRemoved) {
+        remove(subscriptionId);
+        onRemoved.accept(subscriptionId);
+    }
+
+    synchronized void put(OutboundSubscriptionSetup subscription) {
+        if (subscription == null) {
+            return;
+        }
+        // Type or dataset may have changed
+        remove(subscription.getSubscriptionId());
+
+        subscriptionsById.put(subscription.getSubscriptionId(), subscription);
+        index.computeIfAbsent(subscription.getSubscriptionType(), t -> new ConcurrentHashMap<>())
+            .computeIfAbsent(datasetKey(subscription.getDatasetId()), d -> new ConcurrentHashMap<>())
+            .put(subscription.getSubscriptionId(), subscription);
+    }
+
+    synchronized void remove(String subscriptionId) {
+        OutboundSubscriptionSetup existing = subscriptionsById.remove(subscriptionId);
+        if (existing == null) {
+            return;
+        }
+        Map<String, Map<String, OutboundSubscriptionSetup>> byDataset = index.get(existing.getSubscriptionType());
+        if (byDataset != null) {
+            String datasetKey = datasetKey(existing.getDatasetId());
+            Map<String, OutboundSubscriptionSetup> subscriptions = byDataset.get(datasetKey);
+            if (subscriptions != null) {
+                subscriptions.remove(subscriptionId);
+                if (subscriptions.isEmpty()) {
+                    byDataset.remove(datasetKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return subscriptions for the given data type that subscribe to the dataset, or to all datasets
+     */
+    List<OutboundSubscriptionSetup> findSubscriptions(SiriDataType dataType, String datasetId) {
+        List<OutboundSubscriptionSetup> result = new ArrayList<>();
+        Map<String, Map<String, OutboundSubscriptionSetup>> byDataset = index.get(dataType);
+        if (byDataset != null) {
+            Map<String, OutboundSubscriptionSetup> allDatasets = byDataset.get(ALL_DATASETS);
+            if (allDatasets != null) {
+                result.addAll(allDatasets.values());
+            }
+            if (datasetId != null) {
+                Map<String, OutboundSubscriptionSetup> dataset = byDataset.get(datasetId);
+                if (dataset != null) {
+                    result.addAll(dataset.values());
+                }
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        return subscriptionsById.size();
+    }
+
+    private static String datasetKey(String datasetId) {
+        return datasetId != null ? datasetId : ALL_DATASETS;
+    }
+}
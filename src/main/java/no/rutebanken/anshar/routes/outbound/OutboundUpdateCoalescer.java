@@ -0,0 +1,170 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Coalesces pushed updates for subscriptions with ChangeBeforeUpdates.
+ *
+ * The first update for a subscription opens a window of ChangeBeforeUpdates. Updates to the same element
+ * within the window replace each other, and all buffered updates are delivered together when the window
+ * closes - i.e. at most one delivery per subscription and window. The time each update was stored is kept,
+ * so that the outbound lag includes the time spent in the window.
+ */
+class OutboundUpdateCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundUpdateCoalescer.class);
+
+    interface Delivery {
+        void deliver(OutboundSubscriptionSetup subscription, List<Object> updates, OutboundLag lag);
+    }
+
+    private final Delivery delivery;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("outbound-coalescer-%d")
+        .setDaemon(true)
+        .build());
+
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    /**
+     * @param delivery called with subscription and coalesced updates when a window closes
+     */
+    OutboundUpdateCoalescer(Delivery delivery) {
+        this.delivery = delivery;
+    }
+
+    /**
+     * Buffers updates for subscription
+     *
+     * @param windowMillis length of window opened by the first buffered update
+     * @param datasetId dataset the updates were stored for
+     * @param storedAt time the updates were stored
+     * @param keyFunction identifies the updated element - updates with the same key replace each other
+     */
+    <T> void add(OutboundSubscriptionSetup subscription, long windowMillis, String datasetId, long storedAt,
+                 Collection<T> updates, Function<T, Object> keyFunction) {
+        final String subscriptionId = subscription.getSubscriptionId();
+        windows.compute(subscriptionId, (id, window) -> {
+            if (window == null) {
+                window = new Window(subscription);
+                schedule(id, window, windowMillis);
+            }
+            synchronized (window) {
+                window.subscription = subscription;
+                for (T update : updates) {
+                    Object key = keyFunction.apply(update);
+                    // Moved last, as the latest update
+                    window.updates.remove(key);
+                    window.updates.put(key, new BufferedUpdate(update, datasetId, storedAt));
+                }
+            }
+            return window;
+        });
+    }
+
+    /**
+     * Discards buffered updates for subscription
+     */
+    void remove(String subscriptionId) {
+        windows.remove(subscriptionId);
+    }
+
+    int getBufferedCount(String subscriptionId) {
+        Window window = windows.get(subscriptionId);
+        if (window == null) {
+            return 0;
+        }
+        synchronized (window) {
+            return window.updates.size();
+        }
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void schedule(String subscriptionId, Window window, long windowMillis) {
+        try {
+            scheduler.schedule(() -> close(subscriptionId, window), windowMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.info("Outbound coalescer is shut down - ignoring updates");
+        }
+    }
+
+    private void close(String subscriptionId, Window window) {
+        // Window may already have been removed with subscription
+        if (!windows.remove(subscriptionId, window)) {
+            return;
+        }
+        List<Object> updates = new ArrayList<>();
+        OutboundSubscriptionSetup subscription;
+        OutboundLag lag;
+        synchronized (window) {
+            subscription = window.subscription;
+            lag = new OutboundLag(subscription.getSubscriptionType());
+            for (BufferedUpdate buffered : window.updates.values()) {
+                updates.add(buffered.update);
+                lag.add(buffered.datasetId, buffered.storedAt, 1);
+            }
+        }
+        if (updates.isEmpty()) {
+            return;
+        }
+        try {
+            delivery.deliver(subscription, updates, lag);
+        } catch (Exception e) {
+            logger.warn("Delivery of coalesced updates failed for subscription {}", subscriptionId, e);
+        }
+    }
+
+    private static class BufferedUpdate {
+        private final Object update;
+        private final String datasetId;
+        private final long storedAt;
+
+        private BufferedUpdate(Object update, String datasetId, long storedAt) {
+            this.update = update;
+            this.datasetId = datasetId;
+            this.storedAt = storedAt;
+        }
+    }
+
+    private static class Window {
+        private final Map<Object, BufferedUpdate> updates = new LinkedHashMap<>();
+        private OutboundSubscriptionSetup subscription;
+
+        private Window(OutboundSubscriptionSetup subscription) {
+            this.subscription = subscription;
+        }
+    }
+}
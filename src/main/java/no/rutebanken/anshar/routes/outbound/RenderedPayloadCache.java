@@ -0,0 +1,203 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.routes.siri.transformer.ValueAdapter;
+import no.rutebanken.anshar.routes.siri.transformer.ValueAdapterMemoizer;
+import org.apache.camel.Exchange;
+import org.entur.siri.validator.SiriValidator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static no.rutebanken.anshar.routes.HttpParameter.SIRI_VERSION_HEADER_NAME;
+import static no.rutebanken.anshar.routes.siri.transformer.SiriOutputTransformerRoute.COPY_BEFORE_TRANSFORM_HEADER_NAME;
+import static no.rutebanken.anshar.routes.siri.transformer.SiriOutputTransformerRoute.OUTPUT_ADAPTERS_HEADER_NAME;
+
+/**
+ * Shares rendered outbound payloads between subscribers.
+ *
+ * The same update is pushed to all matching subscribers, and subscribers with the same filter, SIRI-version
+ * and outbound adapters receive identical bytes - these are transformed and marshalled once.
+ */
+@Service
+public class RenderedPayloadCache {
+
+    static final String RENDER_SOURCE_HEADER = "anshar.render.source";
+
+    static final String RENDER_KEY_PROPERTY = "anshar.render.key";
+
+    static final String RENDERED_PROPERTY = "anshar.rendered";
+
+    private static final String DEFAULT_ADAPTERS_KEY = "default";
+
+    private static final AtomicLong renderTokenSequence = new AtomicLong();
+
+    @Value("${anshar.outbound.render.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${anshar.outbound.render.cache.max.size.mb:200}")
+    private int maxSizeMb;
+
+    @Value("${anshar.outbound.render.cache.expiry.seconds:60}")
+    private int expirySeconds;
+
+    @Autowired
+    private PrometheusMetricsService metrics;
+
+    private Cache<RenderKey, byte[]> renderedPayloads;
+
+    @PostConstruct
+    void init() {
+        renderedPayloads = CacheBuilder.newBuilder()
+            .maximumWeight(maxSizeMb * 1024L * 1024L)
+            .weigher((RenderKey key, byte[] payload) -> payload.length)
+            .expireAfterWrite(expirySeconds, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+        metrics.registerRenderedPayloadCache(renderedPayloads);
+    }
+
+    /**
+     * Sets cached payload as body if it has already been rendered for another subscriber
+     */
+    void lookup(Exchange exchange) {
+        Source source = exchange.getIn().getHeader(RENDER_SOURCE_HEADER, Source.class);
+        exchange.getIn().removeHeader(RENDER_SOURCE_HEADER);
+
+        if (!enabled || source == null) {
+            return;
+        }
+
+        String adaptersKey = resolveAdaptersKey(exchange.getIn().getHeader(OUTPUT_ADAPTERS_HEADER_NAME, List.class));
+        if (adaptersKey == null) {
+            // Adapters can not be compared - render for this subscriber only
+            return;
+        }
+
+        RenderKey key = new RenderKey(source,
+            exchange.getIn().getHeader(SIRI_VERSION_HEADER_NAME, SiriValidator.Version.class),
+            adaptersKey);
+
+        byte[] rendered = renderedPayloads.getIfPresent(key);
+        if (rendered != null) {
+            exchange.getIn().setBody(rendered);
+            exchange.getIn().removeHeader(OUTPUT_ADAPTERS_HEADER_NAME);
+            exchange.getIn().removeHeader(COPY_BEFORE_TRANSFORM_HEADER_NAME);
+            exchange.setProperty(RENDERED_PROPERTY, true);
+        } else {
+            exchange.setProperty(RENDER_KEY_PROPERTY, key);
+        }
+    }
+
+    /**
+     * Keeps rendered payload for other subscribers
+     */
+    void store(Exchange exchange) {
+        RenderKey key = exchange.getProperty(RENDER_KEY_PROPERTY, RenderKey.class);
+        if (key != null) {
+            renderedPayloads.put(key, exchange.getIn().getBody(byte[].class));
+            exchange.removeProperty(RENDER_KEY_PROPERTY);
+        }
+    }
+
+    /**
+     * Identifies one pushed payload - taken once per push, and shared by all subscribers receiving it
+     */
+    static long nextRenderToken() {
+        return renderTokenSequence.incrementAndGet();
+    }
+
+    static String resolveAdaptersKey(List<ValueAdapter> adapters) {
+        if (adapters == null) {
+            return DEFAULT_ADAPTERS_KEY;
+        }
+        return ValueAdapterMemoizer.createConfigurationKey(adapters);
+    }
+
+    /**
+     * Identifies one delivery created from a pushed payload - i.e. the render token of the push, the filter
+     * applied to it and the part of the split delivery. The payload itself is not referenced, so cached
+     * entries do not keep pushed data alive.
+     */
+    static final class Source {
+        private final long renderToken;
+        private final Map<Class, Set<String>> filter;
+        private final int deliverySize;
+        private final int part;
+
+        Source(long renderToken, Map<Class, Set<String>> filter, int deliverySize, int part) {
+            this.renderToken = renderToken;
+            this.filter = filter;
+            this.deliverySize = deliverySize;
+            this.part = part;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Source)) return false;
+            Source that = (Source) o;
+            return renderToken == that.renderToken &&
+                deliverySize == that.deliverySize &&
+                part == that.part &&
+                Objects.equals(filter, that.filter);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(renderToken, filter, deliverySize, part);
+        }
+    }
+
+    static final class RenderKey {
+        private final Source source;
+        private final SiriValidator.Version version;
+        private final String adaptersKey;
+
+        RenderKey(Source source, SiriValidator.Version version, String adaptersKey) {
+            this.source = source;
+            this.version = version;
+            this.adaptersKey = adaptersKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RenderKey)) return false;
+            RenderKey that = (RenderKey) o;
+            return source.equals(that.source) &&
+                version == that.version &&
+                adaptersKey.equals(that.adaptersKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(source, version, adaptersKey);
+        }
+    }
+}
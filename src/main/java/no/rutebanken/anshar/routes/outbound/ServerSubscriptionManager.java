@@ -16,6 +16,10 @@
 package no.rutebanken.anshar.routes.outbound;
 
 import com.hazelcast.map.IMap;
+import no.rutebanken.anshar.data.EstimatedTimetables;
+import no.rutebanken.anshar.data.VehicleActivities;
+import no.rutebanken.anshar.metrics.PipelineStage;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.siri.handlers.OutboundIdMappingPolicy;
 import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
 import no.rutebanken.anshar.subscription.SiriDataType;
@@ -44,6 +48,8 @@ import uk.org.siri.siri21.SubscriptionRequest;
 import uk.org.siri.siri21.VehicleActivityStructure;
 import uk.org.siri.siri21.VehicleMonitoringSubscriptionStructure;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.xml.datatype.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
@@ -53,9 +59,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
 
 import static java.time.temporal.ChronoUnit.MILLIS;
 import static no.rutebanken.anshar.routes.kafka.KafkaConfig.CODESPACE_ID_KAFKA_HEADER_NAME;
@@ -87,6 +90,9 @@ public class ServerSubscriptionManager {
     @Value("${anshar.outbound.heartbeatinterval.maximum}")
     private long maximumHeartbeatInterval = 300000;
 
+    @Value("${anshar.outbound.changebeforeupdates.maximum:60000}")
+    private long maximumChangeBeforeUpdates = 60000;
+
     @Value("${anshar.outbound.error.consumeraddress}")
     private String errorConsumerAddressMissing = "Error";
 
@@ -108,9 +114,37 @@ public class ServerSubscriptionManager {
     @Autowired
     private CamelRouteManager camelRouteManager;
 
+    @Autowired
+    private OutboundDispatcher outboundDispatcher;
+
+    @Autowired
+    private OutboundHttpClient outboundHttpClient;
+
+    @Autowired
+    private OutboundCircuitBreaker circuitBreaker;
+
     @Autowired
     private SiriHelper siriHelper;
 
+    @Autowired
+    private PrometheusMetricsService metrics;
+
+    private final OutboundSubscriptionIndex subscriptionIndex = new OutboundSubscriptionIndex();
+
+    private final OutboundUpdateCoalescer updateCoalescer = new OutboundUpdateCoalescer(this::pushCoalescedUpdates);
+
+    @PostConstruct
+    void initSubscriptionIndex() {
+        // Outbound state is local to each member - released on all members when the subscription is removed or expires
+        subscriptionIndex.listenTo(subscriptions, this::releaseSubscriber);
+        logger.info("Indexed {} outbound subscriptions", subscriptionIndex.size());
+    }
+
+    @PreDestroy
+    void shutdownUpdateCoalescer() {
+        updateCoalescer.shutdown();
+    }
+
 
     public Collection getSubscriptions() {
         return Collections.unmodifiableCollection(subscriptions.values());
@@ -175,25 +209,9 @@ public class ServerSubscriptionManager {
 
             Siri subscriptionResponse = siriObjectFactory.createSubscriptionResponse(subscription.getSubscriptionId(), true, null);
 
-            final String breadcrumbId = MDC.get("camel.breadcrumbId");
-            Executors.newSingleThreadScheduledExecutor().execute(() -> {
-                try {
-                    MDC.put("camel.breadcrumbId", breadcrumbId);
-
-                    //Send initial ServiceDelivery
-                    logger.info("Find initial delivery for {}", subscription);
-                    Siri delivery = siriHelper.findInitialDeliveryData(subscription);
-
-                    if (delivery != null) {
-                        logger.info("Sending initial delivery to {}", subscription.getAddress());
-                        camelRouteManager.pushSiriData(delivery, subscription, false);
-                    } else {
-                        logger.info("No initial delivery found for {}", subscription);
-                    }
-                } finally {
-                    MDC.remove("camel.breadcrumbId");
-                }
-            });
+            //Send initial ServiceDelivery - streamed in pages on a separate executor. Pages bypass the subscriber's
+            //dispatcher queue, circuit breaker and coalescer, and are not ordered with live updates
+            camelRouteManager.pushInitialDelivery(subscription);
             return subscriptionResponse;
         }
     }
@@ -246,31 +264,50 @@ public class ServerSubscriptionManager {
         return null;
     }
 
-    private int getChangeBeforeUpdates(SubscriptionRequest subscriptionRequest) {
+    private long getChangeBeforeUpdates(SubscriptionRequest subscriptionRequest) {
+        long changeBeforeUpdates = 0;
         if (SiriHelper.containsValues(subscriptionRequest.getVehicleMonitoringSubscriptionRequests())) {
-            return getMilliSeconds(subscriptionRequest.getVehicleMonitoringSubscriptionRequests().get(0).getChangeBeforeUpdates());
+            changeBeforeUpdates = getMilliSeconds(subscriptionRequest.getVehicleMonitoringSubscriptionRequests().get(0).getChangeBeforeUpdates());
         } else if (SiriHelper.containsValues(subscriptionRequest.getEstimatedTimetableSubscriptionRequests())) {
-            return getMilliSeconds(subscriptionRequest.getEstimatedTimetableSubscriptionRequests().get(0).getChangeBeforeUpdates());
+            changeBeforeUpdates = getMilliSeconds(subscriptionRequest.getEstimatedTimetableSubscriptionRequests().get(0).getChangeBeforeUpdates());
         }
-        return 0;
+        // Updates are delayed by up to ChangeBeforeUpdates
+        return Math.min(changeBeforeUpdates, maximumChangeBeforeUpdates);
     }
 
-    private int getMilliSeconds(Duration changeBeforeUpdates) {
+    private long getMilliSeconds(Duration changeBeforeUpdates) {
         if (changeBeforeUpdates != null) {
-            return changeBeforeUpdates.getSeconds()*1000;
+            return changeBeforeUpdates.getTimeInMillis(new Date(0));
         }
         return 0;
     }
 
     private void addSubscription(OutboundSubscriptionSetup subscription) {
         subscriptions.put(subscription.getSubscriptionId(), subscription);
+        // Index is also updated by entry-listener, but should be immediately available on this node
+        subscriptionIndex.put(subscription);
     }
 
     private OutboundSubscriptionSetup removeSubscription(String subscriptionId) {
         logger.info("Removing subscription {}", subscriptionId);
         failTrackerMap.delete(subscriptionId);
         heartbeatTimestampMap.remove(subscriptionId);
-        return subscriptions.remove(subscriptionId);
+        OutboundSubscriptionSetup removed = subscriptions.remove(subscriptionId);
+        // Also released by the entry-listener, but should be immediate on this node
+        subscriptionIndex.remove(subscriptionId);
+        releaseSubscriber(subscriptionId);
+        return removed;
+    }
+
+    /**
+     * Discards queued deliveries, circuit-state, coalesced updates and metrics for a removed subscription
+     */
+    void releaseSubscriber(String subscriptionId) {
+        outboundDispatcher.removeSubscriber(subscriptionId);
+        outboundHttpClient.removeSubscriber(subscriptionId);
+        circuitBreaker.remove(subscriptionId);
+        updateCoalescer.remove(subscriptionId);
+        metrics.removeOutboundDropped(subscriptionId);
     }
 
     private String findSubscriptionIdentifier(SubscriptionRequest subscriptionRequest) {
@@ -342,19 +379,24 @@ public class ServerSubscriptionManager {
 
 
     public void pushUpdatesAsync(SiriDataType datatype, List updates, String datasetId) {
+        if (updates == null || updates.isEmpty()) {
+            return;
+        }
 
         final String breadcrumbId = MDC.get("camel.breadcrumbId");
+        final String subscriptionId = MDC.get("subscriptionId");
+        // Updates are pushed immediately after they have been stored
+        final long storedAt = System.currentTimeMillis();
 
-        ExecutorService executorService = Executors.newSingleThreadExecutor();
         switch (datatype) {
             case ESTIMATED_TIMETABLE:
-                executorService.submit(() -> pushUpdatedEstimatedTimetables(updates, datasetId, breadcrumbId));
+                outboundDispatcher.fanOut(() -> timedPush(datatype, subscriptionId, () -> pushUpdatedEstimatedTimetables(updates, datasetId, storedAt, breadcrumbId)));
                 break;
             case SITUATION_EXCHANGE:
-                executorService.submit(() -> pushUpdatedSituations(updates, datasetId, breadcrumbId));
+                outboundDispatcher.fanOut(() -> timedPush(datatype, subscriptionId, () -> pushUpdatedSituations(updates, datasetId, storedAt, breadcrumbId)));
                 break;
             case VEHICLE_MONITORING:
-                executorService.submit(() -> pushUpdatedVehicleActivities(updates, datasetId, breadcrumbId));
+                outboundDispatcher.fanOut(() -> timedPush(datatype, subscriptionId, () -> pushUpdatedVehicleActivities(updates, datasetId, storedAt, breadcrumbId)));
                 break;
             default:
                 // Ignore
@@ -362,8 +404,19 @@ public class ServerSubscriptionManager {
         }
     }
 
+    /**
+     * Outbound lag is recorded when the updates have been delivered - see {@link OutboundLag}
+     *
+     * @param subscriptionId inbound subscription that provided the updates
+     */
+    private void timedPush(SiriDataType datatype, String subscriptionId, Runnable push) {
+        long pushStart = System.nanoTime();
+        push.run();
+        metrics.registerPipelineStage(PipelineStage.OUTBOUND_PUSH, subscriptionId, datatype, System.nanoTime() - pushStart);
+    }
+
     private void pushUpdatedVehicleActivities(
-        List<VehicleActivityStructure> addedOrUpdated, String datasetId, String breadcrumbId
+        List<VehicleActivityStructure> addedOrUpdated, String datasetId, long storedAt, String breadcrumbId
     ) {
         MDC.put("camel.breadcrumbId", breadcrumbId);
 
@@ -371,32 +424,25 @@ public class ServerSubscriptionManager {
             return;
         }
         Siri delivery = siriObjectFactory.createVMServiceDelivery(addedOrUpdated);
+        OutboundLag lag = new OutboundLag(SiriDataType.VEHICLE_MONITORING, datasetId, storedAt, addedOrUpdated.size());
 
         if (pushToTopicEnabled) {
             siriVmTopicProducer.asyncRequestBodyAndHeader(siriVmTopicProducer.getDefaultEndpoint(), delivery, CODESPACE_ID_KAFKA_HEADER_NAME, datasetId);
+            lag.delivered(metrics);
         }
 
-        final List<OutboundSubscriptionSetup> recipients = subscriptions
-            .values()
-            .stream()
-            .filter(subscriptionRequest -> (
-                    subscriptionRequest.getSubscriptionType().equals(SiriDataType.VEHICLE_MONITORING)
-                        && (
-                        subscriptionRequest.getDatasetId() == null || (
-                            subscriptionRequest
-                                .getDatasetId()
-                                .equals(datasetId)
-                        )
-                    )
-                )
-
-            )
-            .collect(Collectors.toList());
+        final List<OutboundSubscriptionSetup> recipients = subscriptionIndex.findSubscriptions(SiriDataType.VEHICLE_MONITORING, datasetId);
 
+        FilteredDeliveries deliveries = new FilteredDeliveries(delivery, siriHelper);
         boolean logFullContents = false;
         for (OutboundSubscriptionSetup recipient : recipients) {
-            camelRouteManager.pushSiriData(delivery, recipient, logFullContents);
-            logFullContents = false;
+            if (recipient.getChangeBeforeUpdates() > 0) {
+                updateCoalescer.add(recipient, recipient.getChangeBeforeUpdates(), datasetId, storedAt, addedOrUpdated,
+                    activity -> getVehicleActivityKey(datasetId, activity));
+            } else {
+                camelRouteManager.pushSiriData(deliveries, recipient, logFullContents, lag);
+                logFullContents = false;
+            }
         }
 
         MDC.remove("camel.breadcrumbId");
@@ -404,7 +450,7 @@ public class ServerSubscriptionManager {
 
 
     private void pushUpdatedSituations(
-        List<PtSituationElement> addedOrUpdated, String datasetId, String breadcrumbId
+        List<PtSituationElement> addedOrUpdated, String datasetId, long storedAt, String breadcrumbId
     ) {
         MDC.put("camel.breadcrumbId", breadcrumbId);
 
@@ -412,38 +458,26 @@ public class ServerSubscriptionManager {
             return;
         }
         Siri delivery = siriObjectFactory.createSXServiceDelivery(addedOrUpdated);
+        OutboundLag lag = new OutboundLag(SiriDataType.SITUATION_EXCHANGE, datasetId, storedAt, addedOrUpdated.size());
 
         if (pushToTopicEnabled) {
             siriSxTopicProducer.asyncRequestBodyAndHeader(siriSxTopicProducer.getDefaultEndpoint(), delivery, CODESPACE_ID_KAFKA_HEADER_NAME, datasetId);
+            lag.delivered(metrics);
         }
 
-        final List<OutboundSubscriptionSetup> recipients = subscriptions
-            .values()
-            .stream()
-            .filter(subscriptionRequest -> (
-                    subscriptionRequest.getSubscriptionType().equals(SiriDataType.SITUATION_EXCHANGE)
-                        && (
-                        subscriptionRequest.getDatasetId() == null || (
-                            subscriptionRequest
-                                .getDatasetId()
-                                .equals(datasetId)
-                        )
-                    )
-                )
-
-            )
-            .collect(Collectors.toList());
+        final List<OutboundSubscriptionSetup> recipients = subscriptionIndex.findSubscriptions(SiriDataType.SITUATION_EXCHANGE, datasetId);
 
+        FilteredDeliveries deliveries = new FilteredDeliveries(delivery, siriHelper);
         boolean logFullContents = true;
         for (OutboundSubscriptionSetup recipient : recipients) {
-            camelRouteManager.pushSiriData(delivery, recipient, logFullContents);
+            camelRouteManager.pushSiriData(deliveries, recipient, logFullContents, lag);
             logFullContents = false;
         }
 
         MDC.remove("camel.breadcrumbId");
     }
 
-    private void pushUpdatedEstimatedTimetables(List<EstimatedVehicleJourney> addedOrUpdated, String datasetId, String breadcrumbId) {
+    private void pushUpdatedEstimatedTimetables(List<EstimatedVehicleJourney> addedOrUpdated, String datasetId, long storedAt, String breadcrumbId) {
 
         if (addedOrUpdated == null || addedOrUpdated.isEmpty()) {
             return;
@@ -452,41 +486,59 @@ public class ServerSubscriptionManager {
         MDC.put("camel.breadcrumbId", breadcrumbId);
 
         Siri delivery = siriObjectFactory.createETServiceDelivery(addedOrUpdated);
+        OutboundLag lag = new OutboundLag(SiriDataType.ESTIMATED_TIMETABLE, datasetId, storedAt, addedOrUpdated.size());
 
         if (pushToTopicEnabled) {
             siriEtTopicProducer.asyncRequestBodyAndHeader(siriEtTopicProducer.getDefaultEndpoint(), delivery, CODESPACE_ID_KAFKA_HEADER_NAME, datasetId);
+            lag.delivered(metrics);
         }
 
-        final List<OutboundSubscriptionSetup> recipients = subscriptions
-            .values()
-            .stream()
-            .filter(subscriptionRequest -> (
-                    subscriptionRequest.getSubscriptionType().equals(SiriDataType.ESTIMATED_TIMETABLE)
-                        && (
-                        subscriptionRequest.getDatasetId() == null || (
-                            subscriptionRequest
-                                .getDatasetId()
-                                .equals(datasetId)
-                        )
-                    )
-                )
-
-            )
-            .collect(Collectors.toList());
+        final List<OutboundSubscriptionSetup> recipients = subscriptionIndex.findSubscriptions(SiriDataType.ESTIMATED_TIMETABLE, datasetId);
 
         logger.info("Pushing {} ET updates to {} outbound subscriptions", addedOrUpdated.size(), recipients.size());
 
+        FilteredDeliveries deliveries = new FilteredDeliveries(delivery, siriHelper);
         boolean logFullContents = true;
         for (OutboundSubscriptionSetup recipient : recipients) {
-            camelRouteManager.pushSiriData(delivery, recipient, logFullContents);
-            logFullContents = false;
+            if (recipient.getChangeBeforeUpdates() > 0) {
+                updateCoalescer.add(recipient, recipient.getChangeBeforeUpdates(), datasetId, storedAt, addedOrUpdated,
+                    journey -> EstimatedTimetables.createKey(datasetId, journey));
+            } else {
+                camelRouteManager.pushSiriData(deliveries, recipient, logFullContents, lag);
+                logFullContents = false;
+            }
         }
         MDC.remove("camel.breadcrumbId");
     }
 
+    private static Object getVehicleActivityKey(String datasetId, VehicleActivityStructure activity) {
+        if (activity.getMonitoredVehicleJourney() == null) {
+            // Not identifiable - never replaced
+            return activity;
+        }
+        return VehicleActivities.createKey(datasetId, activity.getMonitoredVehicleJourney());
+    }
+
+    /**
+     * Delivers updates coalesced during the ChangeBeforeUpdates-window of a subscription
+     */
+    private void pushCoalescedUpdates(OutboundSubscriptionSetup subscription, List<Object> updates, OutboundLag lag) {
+        Siri delivery;
+        if (subscription.getSubscriptionType() == SiriDataType.VEHICLE_MONITORING) {
+            delivery = siriObjectFactory.createVMServiceDelivery((List) updates);
+        } else if (subscription.getSubscriptionType() == SiriDataType.ESTIMATED_TIMETABLE) {
+            delivery = siriObjectFactory.createETServiceDelivery((List) updates);
+        } else {
+            return;
+        }
+        logger.debug("Pushing {} coalesced updates to subscription {}", updates.size(), subscription.getSubscriptionId());
+        camelRouteManager.pushSiriData(delivery, subscription, false, lag);
+    }
+
     public void pushFailedForSubscription(String subscriptionId) {
         OutboundSubscriptionSetup outboundSubscriptionSetup = subscriptions.get(subscriptionId);
         if (outboundSubscriptionSetup != null) {
+            circuitBreaker.onFailure(subscriptionId);
 
             //Grace-period is set to minimum 5 minutes
             long gracePeriod = Math.max(3*outboundSubscriptionSetup.getHeartbeatInterval(), 5*60*1000L);
@@ -505,6 +557,7 @@ public class ServerSubscriptionManager {
     }
 
     public void clearFailTracker(String subscriptionId) {
+        circuitBreaker.onSuccess(subscriptionId);
         if (failTrackerMap.containsKey(subscriptionId)) {
             logger.info("Subscription {} is now responding - clearing failtracker", subscriptionId);
             failTrackerMap.delete(subscriptionId);
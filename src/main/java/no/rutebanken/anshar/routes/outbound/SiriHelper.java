@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import uk.org.siri.siri21.AbstractServiceDeliveryStructure;
 import uk.org.siri.siri21.AffectedLineStructure;
 import uk.org.siri.siri21.AffectsScopeStructure;
 import uk.org.siri.siri21.EstimatedTimetableDeliveryStructure;
@@ -35,6 +36,7 @@ import uk.org.siri.siri21.EstimatedVersionFrameStructure;
 import uk.org.siri.siri21.LineDirectionStructure;
 import uk.org.siri.siri21.LineRef;
 import uk.org.siri.siri21.PtSituationElement;
+import uk.org.siri.siri21.ServiceDelivery;
 import uk.org.siri.siri21.Siri;
 import uk.org.siri.siri21.SituationExchangeDeliveryStructure;
 import uk.org.siri.siri21.SituationExchangeRequestStructure;
@@ -50,9 +52,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 @SuppressWarnings("unchecked")
 @Component
@@ -79,16 +88,32 @@ public class SiriHelper {
 
     Map<Class, Set<String>> getFilter(SubscriptionRequest subscriptionRequest) {
         if (containsValues(subscriptionRequest.getSituationExchangeSubscriptionRequests())) {
-            return getFilter(subscriptionRequest.getSituationExchangeSubscriptionRequests().get(0));
+            return canonicalFilter(getFilter(subscriptionRequest.getSituationExchangeSubscriptionRequests().get(0)));
         } else if (containsValues(subscriptionRequest.getVehicleMonitoringSubscriptionRequests())) {
-            return getFilter(subscriptionRequest.getVehicleMonitoringSubscriptionRequests().get(0));
+            return canonicalFilter(getFilter(subscriptionRequest.getVehicleMonitoringSubscriptionRequests().get(0)));
         } else if (containsValues(subscriptionRequest.getEstimatedTimetableSubscriptionRequests())) {
-            return getFilter(subscriptionRequest.getEstimatedTimetableSubscriptionRequests().get(0));
+            return canonicalFilter(getFilter(subscriptionRequest.getEstimatedTimetableSubscriptionRequests().get(0)));
         }
 
         return new HashMap<>();
     }
 
+    /**
+     * Filters without values are removed, so that subscriptions with equivalent filters have equal filter-maps
+     * and can share filtered deliveries.
+     */
+    static Map<Class, Set<String>> canonicalFilter(Map<Class, Set<String>> filter) {
+        Map<Class, Set<String>> canonical = new HashMap<>();
+        if (filter != null) {
+            filter.forEach((type, values) -> {
+                if (values != null && !values.isEmpty()) {
+                    canonical.put(type, new HashSet<>(values));
+                }
+            });
+        }
+        return canonical;
+    }
+
     private Map<Class, Set<String>> getFilter(SituationExchangeSubscriptionStructure subscriptionStructure) {
         SituationExchangeRequestStructure situationExchangeRequest = subscriptionStructure.getSituationExchangeRequest();
 
@@ -148,30 +173,77 @@ public class SiriHelper {
         return filterMap;
     }
 
-    Siri findInitialDeliveryData(OutboundSubscriptionSetup subscriptionRequest) {
-        Siri delivery = null;
-
-        switch (subscriptionRequest.getSubscriptionType()) {
-            case SITUATION_EXCHANGE:
+    /**
+     * Reads initial delivery page by page, so that the complete dataset is not held in memory at once. The next page
+     * is read on the executor when the previous page has been delivered - delivery stops if a page is not delivered.
+     *
+     * @param consumer called with one ServiceDelivery per page, completed with true when delivered
+     * @return completed with total number of elements
+     */
+    public CompletableFuture<Integer> forEachInitialDelivery(OutboundSubscriptionSetup subscriptionRequest, int pageSize,
+                                                             Executor executor, Function<Siri, CompletionStage<Boolean>> consumer) {
+        final String datasetId = subscriptionRequest.getDatasetId();
+        final AtomicInteger count = new AtomicInteger();
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        execute(executor, result, () -> {
+            switch (subscriptionRequest.getSubscriptionType()) {
+                case SITUATION_EXCHANGE:
+                    sendNextPage(situations.getPages(datasetId, pageSize), siriObjectFactory::createSXServiceDelivery,
+                        executor, consumer, count, result);
+                    break;
+                case VEHICLE_MONITORING:
+                    sendNextPage(vehicleActivities.getPages(datasetId, pageSize), siriObjectFactory::createVMServiceDelivery,
+                        executor, consumer, count, result);
+                    break;
+                case ESTIMATED_TIMETABLE:
+                    sendNextPage(estimatedTimetables.getPages(datasetId, pageSize), siriObjectFactory::createETServiceDelivery,
+                        executor, consumer, count, result);
+                    break;
+                default:
+                    result.complete(0);
+            }
+        });
 
-                Collection<PtSituationElement> situationElementList = situations.getAll(subscriptionRequest.getDatasetId());
-                logger.info("Initial SX-delivery: {} elements", situationElementList.size());
-                delivery = siriObjectFactory.createSXServiceDelivery(situationElementList);
-                break;
-            case VEHICLE_MONITORING:
+        return result.whenComplete((total, throwable) -> {
+            if (total != null) {
+                logger.info("Initial {}-delivery: {} elements", subscriptionRequest.getSubscriptionType(), total);
+            }
+        });
+    }
 
-                Collection<VehicleActivityStructure> vehicleActivityList = vehicleActivities.getAll(subscriptionRequest.getDatasetId());
-                logger.info("Initial VM-delivery: {} elements", vehicleActivityList.size());
-                delivery = siriObjectFactory.createVMServiceDelivery(vehicleActivityList);
-                break;
-            case ESTIMATED_TIMETABLE:
+    private <T> void sendNextPage(Iterator<Collection<T>> pages, Function<Collection<T>, Siri> createDelivery, Executor executor,
+                                  Function<Siri, CompletionStage<Boolean>> consumer, AtomicInteger count, CompletableFuture<Integer> result) {
+        if (!pages.hasNext()) {
+            result.complete(count.get());
+            return;
+        }
+        Collection<T> page = pages.next();
+        count.addAndGet(page.size());
+
+        consumer.apply(createDelivery.apply(page)).whenComplete((delivered, throwable) -> {
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+            } else if (!Boolean.TRUE.equals(delivered)) {
+                result.complete(count.get());
+            } else {
+                execute(executor, result, () -> sendNextPage(pages, createDelivery, executor, consumer, count, result));
+            }
+        });
+    }
 
-                Collection<EstimatedVehicleJourney> timetables = estimatedTimetables.getAll(subscriptionRequest.getDatasetId());
-                logger.info("Initial ET-delivery: {} elements", timetables.size());
-                delivery = siriObjectFactory.createETServiceDelivery(timetables);
-                break;
+    private static void execute(Executor executor, CompletableFuture<Integer> result, Runnable task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
         }
-        return delivery;
     }
 
     public List<Siri> splitDeliveries(Siri payload, int maximumSizePerDelivery) {
@@ -247,6 +319,11 @@ public class SiriHelper {
         return (list != null && !list.isEmpty());
     }
 
+    /**
+     * Filters SIRI-data without copying any of it - the returned object is a new delivery that references
+     * the matching elements of the original. Original object is not altered, and matching elements are shared
+     * with it, so they must be copied before being modified.
+     */
     public static Siri filterSiriPayload(Siri siri, Map<Class, Set<String>> filter) {
         if (filter == null || filter.isEmpty()) {
             logger.debug("No filter to apply");
@@ -255,18 +332,11 @@ public class SiriHelper {
 
         if (siri.getServiceDelivery() != null) {
 
-            Siri filtered;
-            try {
-                filtered = SiriObjectFactory.deepCopy(siri);
-            } catch (Exception e) {
-                return siri;
-            }
-
-            if (containsValues(filtered.getServiceDelivery().getVehicleMonitoringDeliveries()) |
-                    containsValues(filtered.getServiceDelivery().getEstimatedTimetableDeliveries())) {
-                return applySingleMatchFilter(filtered, filter);
-            } else if (containsValues(filtered.getServiceDelivery().getSituationExchangeDeliveries())) {
-                return applyMultipleMatchFilter(filtered, filter);
+            if (containsValues(siri.getServiceDelivery().getVehicleMonitoringDeliveries()) |
+                    containsValues(siri.getServiceDelivery().getEstimatedTimetableDeliveries())) {
+                return applySingleMatchFilter(siri, filter);
+            } else if (containsValues(siri.getServiceDelivery().getSituationExchangeDeliveries())) {
+                return applyMultipleMatchFilter(siri, filter);
             }
         }
 
@@ -278,57 +348,73 @@ public class SiriHelper {
      */
     private static Siri applySingleMatchFilter(Siri siri, Map<Class, Set<String>> filter) {
 
-
-        filterLineRef(siri, filter.get(LineRef.class));
-        filterVehicleRef(siri, filter.get(VehicleRef.class));
-
-        return siri;
-    }
-
-    private static void filterLineRef(Siri siri, Set<String> linerefValues) {
-        if (linerefValues == null || linerefValues.isEmpty()) {
-            return;
+        Set<String> linerefValues = filter.get(LineRef.class);
+        Set<String> vehiclerefValues = filter.get(VehicleRef.class);
+        if (!isFilterActive(linerefValues) && !isFilterActive(vehiclerefValues)) {
+            return siri;
         }
 
+        Siri filtered = createSiriShell(siri);
+
         //VM-deliveries
-        List<VehicleMonitoringDeliveryStructure> vehicleMonitoringDeliveries = siri.getServiceDelivery().getVehicleMonitoringDeliveries();
-        for (VehicleMonitoringDeliveryStructure delivery : vehicleMonitoringDeliveries) {
-            List<VehicleActivityStructure> vehicleActivities = delivery.getVehicleActivities();
-            List<VehicleActivityStructure> filteredActivities = new ArrayList<>();
+        for (VehicleMonitoringDeliveryStructure delivery : siri.getServiceDelivery().getVehicleMonitoringDeliveries()) {
+            VehicleMonitoringDeliveryStructure filteredDelivery = copyDeliveryHeader(delivery, new VehicleMonitoringDeliveryStructure());
+            filteredDelivery.setVersion(delivery.getVersion());
+            filteredDelivery.setExtensions(delivery.getExtensions());
 
-            for (VehicleActivityStructure vehicleActivity : vehicleActivities) {
+            for (VehicleActivityStructure vehicleActivity : delivery.getVehicleActivities()) {
                 VehicleActivityStructure.MonitoredVehicleJourney monitoredVehicleJourney = vehicleActivity.getMonitoredVehicleJourney();
-                if (monitoredVehicleJourney != null) {
-                    if (monitoredVehicleJourney.getLineRef() != null) {
-                        if (isLineRefMatch(linerefValues, monitoredVehicleJourney.getLineRef().getValue())) {
-                            filteredActivities.add(vehicleActivity);
-                        }
-                    }
+                if (monitoredVehicleJourney != null &&
+                        isMatch(linerefValues, monitoredVehicleJourney.getLineRef(), vehiclerefValues, monitoredVehicleJourney.getVehicleRef())) {
+                    filteredDelivery.getVehicleActivities().add(vehicleActivity);
                 }
             }
-            delivery.getVehicleActivities().clear();
-            delivery.getVehicleActivities().addAll(filteredActivities);
+            filteredDelivery.getVehicleActivityCancellations().addAll(delivery.getVehicleActivityCancellations());
+            filteredDelivery.getVehicleActivityNotes().addAll(delivery.getVehicleActivityNotes());
+            filtered.getServiceDelivery().getVehicleMonitoringDeliveries().add(filteredDelivery);
         }
 
         //ET-deliveries
-        List<EstimatedTimetableDeliveryStructure> etDeliveries = siri.getServiceDelivery().getEstimatedTimetableDeliveries();
-        for (EstimatedTimetableDeliveryStructure delivery : etDeliveries) {
-            List<EstimatedVersionFrameStructure> etVersionFrames = delivery.getEstimatedJourneyVersionFrames();
-
-            for (EstimatedVersionFrameStructure version : etVersionFrames) {
-                List<EstimatedVehicleJourney> matches = new ArrayList<>();
-                List<EstimatedVehicleJourney> estimatedVehicleJourneies = version.getEstimatedVehicleJourneies();
-                for (EstimatedVehicleJourney estimatedVehicleJourney : estimatedVehicleJourneies) {
-                    if (estimatedVehicleJourney.getLineRef() != null) {
-                        if (isLineRefMatch(linerefValues, estimatedVehicleJourney.getLineRef().getValue())) {
-                            matches.add(estimatedVehicleJourney);
-                        }
+        for (EstimatedTimetableDeliveryStructure delivery : siri.getServiceDelivery().getEstimatedTimetableDeliveries()) {
+            EstimatedTimetableDeliveryStructure filteredDelivery = copyDeliveryHeader(delivery, new EstimatedTimetableDeliveryStructure());
+            filteredDelivery.setVersion(delivery.getVersion());
+            filteredDelivery.setExtensions(delivery.getExtensions());
+
+            for (EstimatedVersionFrameStructure version : delivery.getEstimatedJourneyVersionFrames()) {
+                EstimatedVersionFrameStructure filteredVersion = new EstimatedVersionFrameStructure();
+                filteredVersion.setRecordedAtTime(version.getRecordedAtTime());
+                filteredVersion.setVersionRef(version.getVersionRef());
+
+                for (EstimatedVehicleJourney estimatedVehicleJourney : version.getEstimatedVehicleJourneies()) {
+                    if (isMatch(linerefValues, estimatedVehicleJourney.getLineRef(), vehiclerefValues, estimatedVehicleJourney.getVehicleRef())) {
+                        filteredVersion.getEstimatedVehicleJourneies().add(estimatedVehicleJourney);
                     }
                 }
-                version.getEstimatedVehicleJourneies().clear();
-                version.getEstimatedVehicleJourneies().addAll(matches);
+                filteredDelivery.getEstimatedJourneyVersionFrames().add(filteredVersion);
             }
+            filtered.getServiceDelivery().getEstimatedTimetableDeliveries().add(filteredDelivery);
+        }
+
+        return filtered;
+    }
+
+    /*
+     * Element matches when all active filters match
+     */
+    private static boolean isMatch(Set<String> linerefValues, LineRef lineRef, Set<String> vehiclerefValues, VehicleRef vehicleRef) {
+        if (isFilterActive(linerefValues) &&
+                (lineRef == null || !isLineRefMatch(linerefValues, lineRef.getValue()))) {
+            return false;
+        }
+        if (isFilterActive(vehiclerefValues) &&
+                (vehicleRef == null || !vehiclerefValues.contains(vehicleRef.getValue()))) {
+            return false;
         }
+        return true;
+    }
+
+    private static boolean isFilterActive(Set<String> values) {
+        return values != null && !values.isEmpty();
     }
 
     private static boolean isLineRefMatch(Set<String> linerefValues, String completeValue) {
@@ -339,93 +425,100 @@ public class SiriHelper {
         } else return linerefValues.contains(completeValue);
     }
 
-    private static void filterVehicleRef(Siri siri, Set<String> vehiclerefValues) {
-        if (vehiclerefValues == null || vehiclerefValues.isEmpty()) {
-            return;
+    /*
+     * Filters elements with multiple possible matches per element
+     */
+    private static Siri applyMultipleMatchFilter(Siri siri, Map<Class, Set<String>> filter) {
+
+        Set<String> linerefValues = filter.get(LineRef.class);
+        if (!isFilterActive(linerefValues)) {
+            return siri;
         }
-        List<VehicleMonitoringDeliveryStructure> vehicleMonitoringDeliveries = siri.getServiceDelivery().getVehicleMonitoringDeliveries();
-        for (VehicleMonitoringDeliveryStructure delivery : vehicleMonitoringDeliveries) {
-            List<VehicleActivityStructure> vehicleActivities = delivery.getVehicleActivities();
-            List<VehicleActivityStructure> filteredActivities = new ArrayList<>();
 
-            for (VehicleActivityStructure vehicleActivity : vehicleActivities) {
-                VehicleActivityStructure.MonitoredVehicleJourney monitoredVehicleJourney = vehicleActivity.getMonitoredVehicleJourney();
-                if (monitoredVehicleJourney != null) {
-                    if (monitoredVehicleJourney.getVehicleRef() != null) {
-                        if (vehiclerefValues.contains(monitoredVehicleJourney.getVehicleRef().getValue())) {
-                            filteredActivities.add(vehicleActivity);
-                        }
+        Siri filtered = createSiriShell(siri);
+
+        for (SituationExchangeDeliveryStructure delivery : siri.getServiceDelivery().getSituationExchangeDeliveries()) {
+            SituationExchangeDeliveryStructure filteredDelivery = copyDeliveryHeader(delivery, new SituationExchangeDeliveryStructure());
+            filteredDelivery.setVersion(delivery.getVersion());
+            filteredDelivery.setExtensions(delivery.getExtensions());
+
+            SituationExchangeDeliveryStructure.Situations filteredSituations = new SituationExchangeDeliveryStructure.Situations();
+            if (delivery.getSituations() != null) {
+                for (PtSituationElement s : delivery.getSituations().getPtSituationElements()) {
+                    if (affectsLine(s, linerefValues)) {
+                        filteredSituations.getPtSituationElements().add(s);
                     }
                 }
             }
-            delivery.getVehicleActivities().clear();
-            delivery.getVehicleActivities().addAll(filteredActivities);
+            filteredDelivery.setSituations(filteredSituations);
+            filtered.getServiceDelivery().getSituationExchangeDeliveries().add(filteredDelivery);
         }
 
-        //ET-deliveries
-        List<EstimatedTimetableDeliveryStructure> etDeliveries = siri.getServiceDelivery().getEstimatedTimetableDeliveries();
-        for (EstimatedTimetableDeliveryStructure delivery : etDeliveries) {
-            List<EstimatedVersionFrameStructure> etVersionFrames = delivery.getEstimatedJourneyVersionFrames();
-
-            for (EstimatedVersionFrameStructure version : etVersionFrames) {
-                List<EstimatedVehicleJourney> matches = new ArrayList<>();
-                List<EstimatedVehicleJourney> estimatedVehicleJourneies = version.getEstimatedVehicleJourneies();
-                for (EstimatedVehicleJourney estimatedVehicleJourney : estimatedVehicleJourneies) {
-                    if (estimatedVehicleJourney.getVehicleRef() != null) {
-                        if (vehiclerefValues.contains(estimatedVehicleJourney.getVehicleRef().getValue())) {
-                            matches.add(estimatedVehicleJourney);
+        return filtered;
+    }
+
+    private static boolean affectsLine(PtSituationElement s, Set<String> linerefValues) {
+        if (s.getAffects() != null &&
+                s.getAffects().getNetworks() != null &&
+                s.getAffects().getNetworks().getAffectedNetworks() != null) {
+
+            for (AffectsScopeStructure.Networks.AffectedNetwork affectedNetwork : s.getAffects().getNetworks().getAffectedNetworks()) {
+                List<AffectedLineStructure> affectedLines = affectedNetwork.getAffectedLines();
+                if (affectedLines != null) {
+                    for (AffectedLineStructure affectedLine : affectedLines) {
+                        LineRef lineRef = affectedLine.getLineRef();
+                        if (lineRef != null && isLineRefMatch(linerefValues, lineRef.getValue())) {
+                            return true;
                         }
                     }
                 }
-                version.getEstimatedVehicleJourneies().clear();
-                version.getEstimatedVehicleJourneies().addAll(matches);
             }
         }
+        return false;
     }
 
-
     /*
-     * Filters elements with multiple possible matches per element
+     * New Siri-object with an empty ServiceDelivery that has the same header-fields as the original
      */
-    private static Siri applyMultipleMatchFilter(Siri siri, Map<Class, Set<String>> filter) {
-
-        Set<String> linerefValues = filter.get(LineRef.class);
-        if (linerefValues == null || linerefValues.isEmpty()) {
-            return siri;
-        }
-        List<SituationExchangeDeliveryStructure> situationExchangeDeliveries = siri.getServiceDelivery().getSituationExchangeDeliveries();
-        for (SituationExchangeDeliveryStructure delivery : situationExchangeDeliveries) {
-            SituationExchangeDeliveryStructure.Situations situations = delivery.getSituations();
-
-
-            List<PtSituationElement> ptSituationElements = situations.getPtSituationElements();
-            List<PtSituationElement> filteredSituationElements = new ArrayList<>();
-            for (PtSituationElement s : ptSituationElements) {
-                if (s.getAffects() != null &&
-                        s.getAffects().getNetworks() != null &&
-                        s.getAffects().getNetworks().getAffectedNetworks() != null) {
-
-                    List<AffectsScopeStructure.Networks.AffectedNetwork> affectedNetworks = s.getAffects().getNetworks().getAffectedNetworks();
-                    for (AffectsScopeStructure.Networks.AffectedNetwork affectedNetwork : affectedNetworks) {
-                        List<AffectedLineStructure> affectedLines = affectedNetwork.getAffectedLines();
-                        if (affectedLines != null) {
-                            for (AffectedLineStructure affectedLine : affectedLines) {
-                                LineRef lineRef = affectedLine.getLineRef();
-                                if (!filteredSituationElements.contains(s) && lineRef != null) {
-                                    if (isLineRefMatch(linerefValues, lineRef.getValue())) {
-                                        filteredSituationElements.add(s);
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-            situations.getPtSituationElements().clear();
-            situations.getPtSituationElements().addAll(filteredSituationElements);
-        }
+    private static Siri createSiriShell(Siri siri) {
+        ServiceDelivery serviceDelivery = siri.getServiceDelivery();
+
+        ServiceDelivery filteredServiceDelivery = new ServiceDelivery();
+        filteredServiceDelivery.setResponseTimestamp(serviceDelivery.getResponseTimestamp());
+        filteredServiceDelivery.setProducerRef(serviceDelivery.getProducerRef());
+        filteredServiceDelivery.setAddress(serviceDelivery.getAddress());
+        filteredServiceDelivery.setResponseMessageIdentifier(serviceDelivery.getResponseMessageIdentifier());
+        filteredServiceDelivery.setRequestMessageRef(serviceDelivery.getRequestMessageRef());
+        filteredServiceDelivery.setDelegatorAddress(serviceDelivery.getDelegatorAddress());
+        filteredServiceDelivery.setDelegatorRef(serviceDelivery.getDelegatorRef());
+        filteredServiceDelivery.setStatus(serviceDelivery.isStatus());
+        filteredServiceDelivery.setErrorCondition(serviceDelivery.getErrorCondition());
+        filteredServiceDelivery.setMoreData(serviceDelivery.isMoreData());
+        filteredServiceDelivery.setExtensions(serviceDelivery.getExtensions());
+
+        Siri filtered = new Siri();
+        filtered.setVersion(siri.getVersion());
+        filtered.setServiceDelivery(filteredServiceDelivery);
+        return filtered;
+    }
 
-        return siri;
+    /*
+     * Copies all header-fields of the delivery - delivered elements are added by the caller
+     */
+    private static <T extends AbstractServiceDeliveryStructure> T copyDeliveryHeader(AbstractServiceDeliveryStructure from, T to) {
+        to.setResponseTimestamp(from.getResponseTimestamp());
+        to.setRequestMessageRef(from.getRequestMessageRef());
+        to.setDelegatorAddress(from.getDelegatorAddress());
+        to.setDelegatorRef(from.getDelegatorRef());
+        to.setSubscriberRef(from.getSubscriberRef());
+        to.setSubscriptionFilterRef(from.getSubscriptionFilterRef());
+        to.setSubscriptionRef(from.getSubscriptionRef());
+        to.setStatus(from.isStatus());
+        to.setErrorCondition(from.getErrorCondition());
+        to.setValidUntil(from.getValidUntil());
+        to.setShortestPossibleCycle(from.getShortestPossibleCycle());
+        to.setDefaultLanguage(from.getDefaultLanguage());
+        return to;
     }
 
     public Siri getAllVM() {
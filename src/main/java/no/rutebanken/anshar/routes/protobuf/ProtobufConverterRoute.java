@@ -1,6 +1,8 @@
 package no.rutebanken.anshar.routes.protobuf;
 
+import com.google.common.base.Utf8;
 import no.rutebanken.anshar.data.collections.KryoSerializer;
+import no.rutebanken.anshar.util.EncodingRepairUtil;
 import org.apache.camel.builder.RouteBuilder;
 import org.entur.protobuf.mapper.SiriMapper;
 import org.rutebanken.siri20.util.SiriXml;
@@ -25,7 +27,7 @@ public class ProtobufConverterRoute extends RouteBuilder {
                     final String body = fixEncodingErrorsInXml(p.getIn().getBody(String.class), p.getIn().getHeader("subscriptionId", String.class));
                     p.getOut().setBody(body);
                     p.getOut().setHeaders(p.getIn().getHeaders());
-                    p.getOut().setHeader(CONTENT_LENGTH, body.getBytes().length);
+                    p.getOut().setHeader(CONTENT_LENGTH, Utf8.encodedLength(body));
                 })
                 .bean(kryoSerializer, "write")
                 .log("Compressing - done")
@@ -85,37 +87,12 @@ public class ProtobufConverterRoute extends RouteBuilder {
             log.warn("Body is null!!!");
         }
 
-        boolean replacedChars = false;
-        if (body.indexOf("Ã¦") >= 0) {
-            body = body.replaceAll("Ã¦", "æ");
-            replacedChars = true;
-        }
-        if (body.indexOf("Ã†") >= 0) {
-            body = body.replaceAll("Ã†", "Æ");
-            replacedChars = true;
-        }
-        if (body.indexOf("Ã¸") >= 0) {
-            body = body.replaceAll("Ã¸", "ø");
-            replacedChars = true;
-        }
-        if (body.indexOf("Ã\u0098") >= 0) {
-            body = body.replaceAll("Ã\u0098", "Ø");
-            replacedChars = true;
-        }
-        if (body.indexOf("Ã¥") >= 0) {
-            body = body.replaceAll("Ã¥", "å");
-            replacedChars = true;
-        }
-        if (body.indexOf("Ã\u0085") >= 0) {
-            body = body.replaceAll("Ã\u0085", "Å");
-            replacedChars = true;
-        }
+        final String fixedBody = EncodingRepairUtil.fixEncodingErrors(body);
 
-        if (replacedChars) {
+        if (fixedBody != body) {
             log.info("Fixed encoding errors for subscriptionId: {}", subscriptionId);
         }
 
-        return body;
+        return fixedBody;
     }
 }
-
@@ -16,8 +16,12 @@
 package no.rutebanken.anshar.routes.siri;
 
 import no.rutebanken.anshar.config.AnsharConfiguration;
+import no.rutebanken.anshar.metrics.PipelineStage;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.RestRouteBuilder;
 import no.rutebanken.anshar.routes.dataformat.SiriDataFormatHelper;
+import no.rutebanken.anshar.routes.messaging.IncomingDeliveryQueue;
+import no.rutebanken.anshar.routes.messaging.WeightedSubscriptionQueues;
 import no.rutebanken.anshar.routes.siri.handlers.OutboundIdMappingPolicy;
 import no.rutebanken.anshar.routes.siri.handlers.SiriHandler;
 import no.rutebanken.anshar.subscription.SubscriptionManager;
@@ -63,6 +67,12 @@ public class Siri20RequestHandlerRoute extends RestRouteBuilder {
     @Autowired
     private AnsharConfiguration configuration;
 
+    @Autowired
+    private IncomingDeliveryQueue incomingDeliveryQueue;
+
+    @Autowired
+    private PrometheusMetricsService metrics;
+
     public static final String TRANSFORM_VERSION = "TRANSFORM_VERSION";
     public static final String TRANSFORM_SOAP = "TRANSFORM_SOAP";
 
@@ -136,9 +146,7 @@ public class Siri20RequestHandlerRoute extends RestRouteBuilder {
                 .choice()
                     .when(e -> subscriptionExistsAndIsActive(e))
                         //Valid subscription
-                        .to("seda:async.process.request?waitForTaskToComplete=Never")
-                        .setHeader(Exchange.HTTP_RESPONSE_CODE, constant("200"))
-                        .setBody(constant(null))
+                        .process(p -> enqueueIncomingDelivery(p))
                     .endChoice()
                     .otherwise()
                         // Invalid subscription
@@ -152,9 +160,9 @@ public class Siri20RequestHandlerRoute extends RestRouteBuilder {
             .routeId("process.incoming")
                 ;
 
-        from("seda:async.process.request?concurrentConsumers=20")
+        // Consumed from IncomingDeliveryQueue - body is already converted to String
+        from("direct:async.process.request")
             .to("direct:set.mdc.subscriptionId")
-            .convertBodyTo(String.class)
             .process(p -> {
                 p.getMessage().setBody(p.getIn().getBody());
                 p.getMessage().setHeaders(p.getIn().getHeaders());
@@ -293,6 +301,38 @@ public class Siri20RequestHandlerRoute extends RestRouteBuilder {
 
     }
 
+    private void enqueueIncomingDelivery(Exchange e) {
+        Message message = e.getMessage();
+        String subscriptionId = message.getHeader(PARAM_SUBSCRIPTION_ID, String.class);
+        SubscriptionSetup subscriptionSetup = subscriptionManager.get(subscriptionId);
+
+        // Reading the request-body and enqueuing it for processing
+        long receiveStart = System.nanoTime();
+        WeightedSubscriptionQueues.Admission admission = incomingDeliveryQueue.offer(
+            subscriptionId,
+            subscriptionSetup.getSubscriptionType(),
+            message.getBody(String.class),
+            message.getHeaders()
+        );
+        metrics.registerPipelineStage(PipelineStage.RECEIVE, subscriptionSetup, System.nanoTime() - receiveStart);
+
+        switch (admission) {
+            case ACCEPTED:
+                message.setHeader(Exchange.HTTP_RESPONSE_CODE, HttpServletResponse.SC_OK);
+                message.setBody(null);
+                break;
+            case SUBSCRIPTION_QUEUE_FULL:
+                message.removeHeaders("*");
+                message.setHeader(Exchange.HTTP_RESPONSE_CODE, 429); //429 Too Many Requests
+                message.setBody("Too many queued deliveries for subscription");
+                break;
+            default:
+                message.removeHeaders("*");
+                message.setHeader(Exchange.HTTP_RESPONSE_CODE, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                message.setBody("Server is overloaded");
+        }
+    }
+
     private String getSubscriptionDataType(Exchange e) {
         String subscriptionId = e.getIn().getHeader(PARAM_SUBSCRIPTION_ID, String.class);
         if (subscriptionId == null || subscriptionId.isEmpty()) {
@@ -44,17 +44,17 @@ public class Siri20ToSiriRS20RequestResponse extends SiriSubscriptionRouteBuilde
 
         SiriRequestFactory helper = new SiriRequestFactory(subscriptionSetup);
 
-        String httpOptions = getTimeout();
+        String httpOptions = getPollingHttpOptions();
 
         String monitoringRouteId = "monitor.rs.20." + subscriptionSetup.getSubscriptionType() + "." + subscriptionSetup.getVendor();
         boolean releaseLeadershipOnError;
         if (subscriptionSetup.getSubscriptionMode() == SubscriptionSetup.SubscriptionMode.REQUEST_RESPONSE |
                 subscriptionSetup.getSubscriptionMode() == SubscriptionSetup.SubscriptionMode.POLLING_FETCHED_DELIVERY) {
             releaseLeadershipOnError = true;
-            singletonFrom("quartz://anshar/monitor_" + subscriptionSetup.getRequestResponseRouteName() + "?trigger.repeatInterval=" + heartbeatIntervalMillis,
+            singletonFrom("quartz://anshar/monitor_" + subscriptionSetup.getRequestResponseRouteName() + "?trigger.repeatInterval=" + initPollingInterval(),
                     monitoringRouteId)
                     .choice()
-                    .when(p -> requestData(subscriptionSetup.getSubscriptionId(), p.getFromRouteId()))
+                    .when(p -> requestData(subscriptionSetup.getSubscriptionId(), p.getFromRouteId()) && isPollDue())
                     .to("direct:" + subscriptionSetup.getServiceRequestRouteName())
                     .endChoice()
             ;
@@ -73,16 +73,27 @@ public class Siri20ToSiriRS20RequestResponse extends SiriSubscriptionRouteBuilde
             .removeHeaders("CamelHttp*") // Remove any incoming HTTP headers as they interfere with the outgoing definition
             .setHeader(Exchange.CONTENT_TYPE, constant(subscriptionSetup.getContentType())) // Necessary when talking to Microsoft web services
             .setHeader(Exchange.HTTP_METHOD, constant(HttpMethods.POST))
+            .process(requestCompressedResponse())
             .process(addCustomHeaders())
             .to("log:request:" + getClass().getSimpleName() + "?showAll=true&multiline=true")
             .doTry()
+                .process(pollStarted())
                 .to(getRequestUrl(subscriptionSetup, httpOptions))
-                .setHeader("CamelHttpPath", constant("/appContext" + subscriptionSetup.buildUrl(false)))
-                .log("Got response " + subscriptionSetup.toString())
-                .to("log:response:" + getClass().getSimpleName() + "?showAll=true&multiline=true")
-                .setHeader(PARAM_SUBSCRIPTION_ID, simple(subscriptionSetup.getSubscriptionId()))
-                .setHeader(INTERNAL_SIRI_DATA_TYPE, simple(subscriptionSetup.getSubscriptionType().name()))
-                .to("direct:enqueue.message")
+                .process(pollCompleted())
+                .process(fingerprintResponse())
+                .choice()
+                    .when(exchangeProperty(UNCHANGED_RESPONSE_PROPERTY).isEqualTo(true))
+                        .log("Unchanged response - skipping processing " + subscriptionSetup.toString())
+                        .process(unchangedResponseReceived())
+                    .otherwise()
+                        .setHeader("CamelHttpPath", constant("/appContext" + subscriptionSetup.buildUrl(false)))
+                        .log("Got response " + subscriptionSetup.toString())
+                        .to("log:response:" + getClass().getSimpleName() + "?showAll=true&multiline=true")
+                        .setHeader(PARAM_SUBSCRIPTION_ID, simple(subscriptionSetup.getSubscriptionId()))
+                        .setHeader(INTERNAL_SIRI_DATA_TYPE, simple(subscriptionSetup.getSubscriptionType().name()))
+                        .to("direct:enqueue.message")
+                        .process(commitFingerprint())
+                .endDoTry()
             .doCatch(Exception.class)
                 .log("Caught exception -" + (releaseLeadershipOnError ? "":" NOT") + " releasing leadership: " + subscriptionSetup.toString())
                 .to("log:response:" + getClass().getSimpleName() + "?showCaughtException=true&showAll=true&multiline=true")
@@ -45,7 +45,7 @@ public class Siri20ToSiriWS20RequestResponse extends SiriSubscriptionRouteBuilde
 
         SiriRequestFactory helper = new SiriRequestFactory(subscriptionSetup);
 
-        String httpOptions = getTimeout();
+        String httpOptions = getPollingHttpOptions();
 
         String monitoringRouteId = "monitor.ws.20." + subscriptionSetup.getSubscriptionType() + "." + subscriptionSetup.getVendor();
         boolean releaseLeadershipOnError;
@@ -82,17 +82,28 @@ public class Siri20ToSiriWS20RequestResponse extends SiriSubscriptionRouteBuilde
                 .removeHeaders("CamelHttp*") // Remove any incoming HTTP headers as they interfere with the outgoing definition
                 .setHeader(Exchange.CONTENT_TYPE, constant(subscriptionSetup.getContentType())) // Necessary when talking to Microsoft web services
                 .setHeader(Exchange.HTTP_METHOD, constant(org.apache.camel.component.http.HttpMethods.POST))
+                .process(requestCompressedResponse())
                 .process(addCustomHeaders())
                 .to("log:request:" + getClass().getSimpleName() + "?showAll=true&multiline=true")
                 .doTry()
+                    .process(pollStarted())
                     .to(getRequestUrl(subscriptionSetup, httpOptions))
-                    .to("log:response:" + getClass().getSimpleName() + "?showAll=true&multiline=true")
-                    .setHeader("CamelHttpPath", constant("/appContext" + subscriptionSetup.buildUrl(false)))
-                    .log("Got response " + subscriptionSetup.toString())
-                    .setHeader(TRANSFORM_SOAP, constant(TRANSFORM_SOAP))
-                    .setHeader(PARAM_SUBSCRIPTION_ID, simple(subscriptionSetup.getSubscriptionId()))
-                    .setHeader(INTERNAL_SIRI_DATA_TYPE, simple(subscriptionSetup.getSubscriptionType().name()))
-                    .to("direct:process.message.synchronous")
+                    .process(pollCompleted())
+                    .process(fingerprintResponse())
+                    .choice()
+                        .when(exchangeProperty(UNCHANGED_RESPONSE_PROPERTY).isEqualTo(true))
+                            .log("Unchanged response - skipping processing " + subscriptionSetup.toString())
+                            .process(unchangedResponseReceived())
+                        .otherwise()
+                            .to("log:response:" + getClass().getSimpleName() + "?showAll=true&multiline=true")
+                            .setHeader("CamelHttpPath", constant("/appContext" + subscriptionSetup.buildUrl(false)))
+                            .log("Got response " + subscriptionSetup.toString())
+                            .setHeader(TRANSFORM_SOAP, constant(TRANSFORM_SOAP))
+                            .setHeader(PARAM_SUBSCRIPTION_ID, simple(subscriptionSetup.getSubscriptionId()))
+                            .setHeader(INTERNAL_SIRI_DATA_TYPE, simple(subscriptionSetup.getSubscriptionType().name()))
+                            .to("direct:process.message.synchronous")
+                            .process(commitFingerprint())
+                    .endDoTry()
                 .doCatch(Exception.class)
                     .log("Caught exception - releasing leadership: " + subscriptionSetup.toString())
                     .to("log:response:" + getClass().getSimpleName() + "?showCaughtException=true&showAll=true&multiline=true")
@@ -15,10 +15,18 @@
 
 package no.rutebanken.anshar.routes.siri;
 
+import com.google.common.hash.HashCode;
 import com.sun.xml.bind.marshaller.NamespacePrefixMapper;
 import no.rutebanken.anshar.config.AnsharConfiguration;
 import no.rutebanken.anshar.data.EstimatedTimetables;
+import no.rutebanken.anshar.metrics.PipelineStage;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.BaseRouteBuilder;
+import no.rutebanken.anshar.routes.ServiceNotSupportedException;
+import no.rutebanken.anshar.routes.health.HealthManager;
+import no.rutebanken.anshar.routes.siri.helpers.AdaptivePollingInterval;
+import no.rutebanken.anshar.routes.siri.helpers.PollingConnectionManager;
+import no.rutebanken.anshar.routes.siri.helpers.ResponseFingerprint;
 import no.rutebanken.anshar.routes.siri.transformer.ApplicationContextHolder;
 import no.rutebanken.anshar.subscription.SubscriptionManager;
 import no.rutebanken.anshar.subscription.SubscriptionSetup;
@@ -27,6 +35,7 @@ import no.rutebanken.anshar.subscription.helpers.RequestType;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.apache.camel.component.http.HttpMethods;
+import org.apache.http.HttpHeaders;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -35,6 +44,7 @@ import org.springframework.stereotype.Component;
 import javax.ws.rs.core.MediaType;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public abstract class SiriSubscriptionRouteBuilder extends BaseRouteBuilder {
@@ -47,9 +57,25 @@ public abstract class SiriSubscriptionRouteBuilder extends BaseRouteBuilder {
 
     private Instant restartTriggered = Instant.MIN;
 
+    private static final String POLL_STARTED_PROPERTY = "anshar.poll.started";
+
+    static final String UNCHANGED_RESPONSE_PROPERTY = "anshar.poll.unchanged";
+
+    static final String RESPONSE_FINGERPRINT_PROPERTY = "anshar.poll.fingerprint";
+
     @Autowired
     EstimatedTimetables estimatedTimetables;
 
+    PrometheusMetricsService metricsService;
+
+    private HealthManager healthManager;
+
+    private ResponseFingerprint responseFingerprint;
+
+    private AdaptivePollingInterval adaptivePollingInterval;
+
+    private PollingConnectionManager pollingConnectionManager;
+
     boolean hasBeenStarted;
 
     private Instant lastCheckStatus = Instant.now();
@@ -57,6 +83,10 @@ public abstract class SiriSubscriptionRouteBuilder extends BaseRouteBuilder {
     public SiriSubscriptionRouteBuilder(AnsharConfiguration config, SubscriptionManager subscriptionManager) {
         super(config, subscriptionManager);
         estimatedTimetables = ApplicationContextHolder.getContext().getBean(EstimatedTimetables.class);
+        metricsService = ApplicationContextHolder.getContext().getBean(PrometheusMetricsService.class);
+        healthManager = ApplicationContextHolder.getContext().getBean(HealthManager.class);
+        pollingConnectionManager = ApplicationContextHolder.getContext().getBean(PollingConnectionManager.class);
+        responseFingerprint = new ResponseFingerprint(Duration.ofSeconds(config.getUnchangedPollResponseMaxAgeSeconds()));
     }
 
     String getTimeout() {
@@ -72,6 +102,104 @@ public abstract class SiriSubscriptionRouteBuilder extends BaseRouteBuilder {
         return "?httpClient.socketTimeout=" + timeout + "&httpClient.connectTimeout=" + timeout;
     }
 
+    /**
+     * Http-options for polling - connections are taken from the shared, keep-alive pool
+     */
+    String getPollingHttpOptions() throws ServiceNotSupportedException {
+        pollingConnectionManager.registerPollingSubscription(subscriptionSetup.getSubscriptionId(), getRequestUrl(subscriptionSetup, null));
+        return getTimeout() +
+            "&clientConnectionManager=#pollingConnectionManager" +
+            "&httpClient.connectionRequestTimeout=" + config.getPollingConnectionRequestTimeout();
+    }
+
+    /**
+     * Initializes adaptive polling for request/response-subscriptions, if enabled
+     *
+     * @return interval between polling-triggers - the adaptive interval is checked on each trigger
+     */
+    long initPollingInterval() {
+        Duration heartbeatInterval = subscriptionSetup.getHeartbeatInterval();
+        if (config.isAdaptivePollingEnabled() &&
+            subscriptionSetup.getSubscriptionMode() == SubscriptionSetup.SubscriptionMode.REQUEST_RESPONSE) {
+
+            adaptivePollingInterval = new AdaptivePollingInterval(
+                Duration.ofMillis(Math.max(1000, (long) (heartbeatInterval.toMillis() * config.getAdaptivePollingMinFactor()))),
+                Duration.ofMillis((long) (heartbeatInterval.toMillis() * config.getAdaptivePollingMaxFactor())),
+                heartbeatInterval
+            );
+            metricsService.registerPollingInterval(subscriptionSetup, adaptivePollingInterval);
+
+            return adaptivePollingInterval.getMinInterval().toMillis();
+        }
+        return heartbeatInterval.toMillis();
+    }
+
+    /**
+     * @return true if the adaptive polling-interval has passed since last poll, or if adaptive polling is disabled
+     */
+    boolean isPollDue() {
+        if (adaptivePollingInterval == null) {
+            return true;
+        }
+        adaptivePollingInterval.update(subscriptionManager.getDeliveryChangeStats(subscriptionSetup.getSubscriptionId()));
+        return adaptivePollingInterval.isDue();
+    }
+
+    protected Processor pollStarted() {
+        return exchange -> {
+            exchange.setProperty(POLL_STARTED_PROPERTY, System.currentTimeMillis());
+            if (adaptivePollingInterval != null) {
+                adaptivePollingInterval.pollStarted();
+            }
+        };
+    }
+
+    protected Processor pollCompleted() {
+        return exchange -> {
+            Long started = exchange.getProperty(POLL_STARTED_PROPERTY, Long.class);
+            if (started != null) {
+                long latency = System.currentTimeMillis() - started;
+                metricsService.registerPollingLatency(subscriptionSetup, latency);
+                metricsService.registerPipelineStage(PipelineStage.RECEIVE, subscriptionSetup, TimeUnit.MILLISECONDS.toNanos(latency));
+            }
+        };
+    }
+
+    /**
+     * Flags the polled response as unchanged if it is identical to the previous processed response
+     */
+    protected Processor fingerprintResponse() {
+        return exchange -> {
+            if (config.isSkipUnchangedPollResponses()) {
+                String payload = exchange.getIn().getBody(String.class);
+                exchange.getIn().setBody(payload);
+                HashCode hash = ResponseFingerprint.hash(payload);
+                exchange.setProperty(RESPONSE_FINGERPRINT_PROPERTY, hash);
+                exchange.setProperty(UNCHANGED_RESPONSE_PROPERTY, responseFingerprint.isUnchanged(hash));
+            }
+        };
+    }
+
+    /**
+     * Stores the fingerprint when the response has been enqueued - responses that failed are not skipped when repeated
+     */
+    protected Processor commitFingerprint() {
+        return exchange -> responseFingerprint.update(exchange.getProperty(RESPONSE_FINGERPRINT_PROPERTY, HashCode.class));
+    }
+
+    /**
+     * Unchanged responses are not processed - only activity is updated, and the response is recorded as a
+     * delivery without changes so that adaptive polling backs off
+     */
+    protected Processor unchangedResponseReceived() {
+        return exchange -> {
+            subscriptionManager.dataReceived(subscriptionSetup.getSubscriptionId());
+            subscriptionManager.registerDeliveryChanges(subscriptionSetup, 0, 0, 0);
+            healthManager.dataReceived();
+            metricsService.registerUnchangedPollResponse(subscriptionSetup);
+        };
+    }
+
     protected Processor addCustomHeaders() {
         return exchange -> {
             if (subscriptionSetup.getCustomHeaders() != null && !subscriptionSetup.getCustomHeaders().isEmpty()) {
@@ -83,6 +211,17 @@ public abstract class SiriSubscriptionRouteBuilder extends BaseRouteBuilder {
         };
     }
 
+    /**
+     * Asks the producer for a compressed response - decompression is handled by the http-component
+     */
+    protected Processor requestCompressedResponse() {
+        return exchange -> {
+            if (config.isHttpCompressionEnabled()) {
+                exchange.getIn().setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+            }
+        };
+    }
+
     void initTriggerRoutes() {
 //        if (!subscriptionManager.isNewSubscription(subscriptionSetup.getSubscriptionId())) {
 //            logger.info("Subscription is NOT new - flagging as already started if active {}", subscriptionSetup);
@@ -109,7 +248,10 @@ public abstract class SiriSubscriptionRouteBuilder extends BaseRouteBuilder {
                     .toD(subscriptionSetup.getDataNotReceivedAction() != null ? subscriptionSetup.getDataNotReceivedAction().getEndpoint():"empty", true)
                 .when(p -> shouldBeStarted(p.getFromRouteId()))
                     .log("Triggering start subscription: " + subscriptionSetup)
-                    .process(p -> hasBeenStarted = true)
+                    .process(p -> {
+                        hasBeenStarted = true;
+                        responseFingerprint.reset();
+                    })
                     .to("direct:" + subscriptionSetup.getStartSubscriptionRouteName()) // Start subscription
                 .when(p -> shouldBeCancelled(p.getFromRouteId()))
                     .log("Triggering cancel subscription: " + subscriptionSetup)
@@ -150,6 +292,7 @@ public abstract class SiriSubscriptionRouteBuilder extends BaseRouteBuilder {
                     if (enabled) {
                         //Clear data
                         estimatedTimetables.clearAllByDatasetId(subscriptionSetup.getDatasetId());
+                        responseFingerprint.reset();
 
                         restartTriggered = Instant.now();
 
@@ -15,10 +15,12 @@
 
 package no.rutebanken.anshar.routes.siri.handlers;
 
+import com.google.common.io.CountingInputStream;
 import no.rutebanken.anshar.config.AnsharConfiguration;
 import no.rutebanken.anshar.data.EstimatedTimetables;
 import no.rutebanken.anshar.data.Situations;
 import no.rutebanken.anshar.data.VehicleActivities;
+import no.rutebanken.anshar.metrics.PipelineStage;
 import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.health.HealthManager;
 import no.rutebanken.anshar.routes.outbound.ServerSubscriptionManager;
@@ -59,7 +61,6 @@ import javax.xml.bind.JAXBException;
 import javax.xml.bind.UnmarshalException;
 import javax.xml.datatype.Duration;
 import javax.xml.stream.XMLStreamException;
-import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -69,6 +70,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static no.rutebanken.anshar.routes.siri.transformer.impl.OutboundIdAdapter.getOriginalId;
 
@@ -326,16 +328,15 @@ public class SiriHandler {
 
         if (subscriptionSetup != null) {
 
-            int receivedBytes;
-            try {
-                receivedBytes = xml.available();
-            } catch (IOException e) {
-                receivedBytes = 0;
-            }
-long t1 = System.currentTimeMillis();
-            Siri incoming = SiriXml.parseXml(xml);
-long t2 = System.currentTimeMillis();
-            logger.info("Parsing XML took {} ms, {} bytes", (t2-t1), receivedBytes);
+            // Bytes are counted while parsing - available() is only an estimate, and may be 0 for streams
+            CountingInputStream countingXml = new CountingInputStream(xml);
+            long parseStart = System.nanoTime();
+            Siri incoming = SiriXml.parseXml(countingXml);
+            long parseNanos = System.nanoTime() - parseStart;
+            metrics.registerPipelineStage(PipelineStage.PARSE, subscriptionSetup, parseNanos);
+
+            int receivedBytes = (int) countingXml.getCount();
+            logger.info("Parsing XML took {} ms, {} bytes", TimeUnit.NANOSECONDS.toMillis(parseNanos), receivedBytes);
             if (incoming == null) {
                 return;
             }
@@ -369,11 +370,16 @@ long t2 = System.currentTimeMillis();
                 boolean deliveryContainsData = false;
                 healthManager.dataReceived();
 
+                long processingStarted = System.currentTimeMillis();
+                int receivedCount = 0;
+                int changedCount = 0;
+
                 if (subscriptionSetup.getSubscriptionType().equals(SiriDataType.SITUATION_EXCHANGE)) {
                     List<SituationExchangeDeliveryStructure> situationExchangeDeliveries = incoming.getServiceDelivery().getSituationExchangeDeliveries();
                     logger.info("Got SX-delivery: Subscription [{}]", subscriptionSetup);
 
                     List<PtSituationElement> addedOrUpdated = new ArrayList<>();
+                    long addAllStart = System.nanoTime();
                     if (situationExchangeDeliveries != null) {
                         situationExchangeDeliveries.forEach(sx -> {
                                     if (sx != null) {
@@ -416,7 +422,10 @@ long t2 = System.currentTimeMillis();
                         );
                     }
                     deliveryContainsData = addedOrUpdated.size() > 0;
+                    receivedCount = countSituations(situationExchangeDeliveries);
+                    changedCount = addedOrUpdated.size();
 
+                    metrics.registerPipelineStage(PipelineStage.ADD_ALL, subscriptionSetup, System.nanoTime() - addAllStart);
                     subscriptionManager.incrementObjectCounter(subscriptionSetup, addedOrUpdated.size());
 
                     logger.info("Active SX-elements: {}, current delivery: {}, {}", situations.getSize(), addedOrUpdated.size(), subscriptionSetup);
@@ -426,6 +435,7 @@ long t2 = System.currentTimeMillis();
                     logger.info("Got VM-delivery: Subscription [{}] {}", subscriptionSetup, subscriptionSetup.forwardPositionData() ? "- Position only":"");
 
                     List<VehicleActivityStructure> addedOrUpdated = new ArrayList<>();
+                    long addAllStart = System.nanoTime();
                     if (vehicleMonitoringDeliveries != null) {
                         vehicleMonitoringDeliveries.forEach(vm -> {
                                     if (vm != null) {
@@ -467,8 +477,12 @@ long t2 = System.currentTimeMillis();
 
                     deliveryContainsData = deliveryContainsData || (addedOrUpdated.size() > 0);
 
+                    receivedCount = countVehicleActivities(vehicleMonitoringDeliveries);
+                    changedCount = addedOrUpdated.size();
+
                     serverSubscriptionManager.pushUpdatesAsync(subscriptionSetup.getSubscriptionType(), addedOrUpdated, subscriptionSetup.getDatasetId());
 
+                    metrics.registerPipelineStage(PipelineStage.ADD_ALL, subscriptionSetup, System.nanoTime() - addAllStart);
                     subscriptionManager.incrementObjectCounter(subscriptionSetup, addedOrUpdated.size());
 
                     logger.info("Active VM-elements: {}, current delivery: {}, {}", vehicleActivities.getSize(), addedOrUpdated.size(), subscriptionSetup);
@@ -478,6 +492,7 @@ long t2 = System.currentTimeMillis();
                     logger.info("Got ET-delivery: Subscription {}", subscriptionSetup);
 
                     List<EstimatedVehicleJourney> addedOrUpdated = new ArrayList<>();
+                    long addAllStart = System.nanoTime();
                     if (estimatedTimetableDeliveries != null) {
                         estimatedTimetableDeliveries.forEach(et -> {
                                     if (et != null) {
@@ -523,13 +538,19 @@ long t2 = System.currentTimeMillis();
 
                     deliveryContainsData = deliveryContainsData || (addedOrUpdated.size() > 0);
 
+                    receivedCount = countEstimatedVehicleJourneys(estimatedTimetableDeliveries);
+                    changedCount = addedOrUpdated.size();
+
                     serverSubscriptionManager.pushUpdatesAsync(subscriptionSetup.getSubscriptionType(), addedOrUpdated, subscriptionSetup.getDatasetId());
 
+                    metrics.registerPipelineStage(PipelineStage.ADD_ALL, subscriptionSetup, System.nanoTime() - addAllStart);
                     subscriptionManager.incrementObjectCounter(subscriptionSetup, addedOrUpdated.size());
 
                     logger.info("Active ET-elements: {}, current delivery: {}, {}", estimatedTimetables.getSize(), addedOrUpdated.size(), subscriptionSetup);
                 }
 
+                subscriptionManager.registerDeliveryChanges(subscriptionSetup, receivedCount, changedCount, System.currentTimeMillis() - processingStarted);
+
                 if (deliveryContainsData) {
                     subscriptionManager.dataReceived(subscriptionId, receivedBytes);
                 } else {
@@ -547,6 +568,38 @@ long t2 = System.currentTimeMillis();
         }
     }
 
+    private static int countSituations(List<SituationExchangeDeliveryStructure> deliveries) {
+        if (deliveries == null) {
+            return 0;
+        }
+        return deliveries.stream()
+            .filter(sx -> sx != null && sx.getSituations() != null && sx.getSituations().getPtSituationElements() != null)
+            .mapToInt(sx -> sx.getSituations().getPtSituationElements().size())
+            .sum();
+    }
+
+    private static int countVehicleActivities(List<VehicleMonitoringDeliveryStructure> deliveries) {
+        if (deliveries == null) {
+            return 0;
+        }
+        return deliveries.stream()
+            .filter(vm -> vm != null && vm.getVehicleActivities() != null)
+            .mapToInt(vm -> vm.getVehicleActivities().size())
+            .sum();
+    }
+
+    private static int countEstimatedVehicleJourneys(List<EstimatedTimetableDeliveryStructure> deliveries) {
+        if (deliveries == null) {
+            return 0;
+        }
+        return deliveries.stream()
+            .filter(et -> et != null && et.getEstimatedJourneyVersionFrames() != null)
+            .flatMap(et -> et.getEstimatedJourneyVersionFrames().stream())
+            .filter(versionFrame -> versionFrame != null && versionFrame.getEstimatedVehicleJourneies() != null)
+            .mapToInt(versionFrame -> versionFrame.getEstimatedVehicleJourneies().size())
+            .sum();
+    }
+
     private Map<String, List<PtSituationElement>> splitSituationsByCodespace(
         List<PtSituationElement> ptSituationElements
     ) {
@@ -0,0 +1,99 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.helpers;
+
+import no.rutebanken.anshar.subscription.helpers.DeliveryChangeStats;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Polling-interval for a request/response-subscription that adapts to how much the polled data changes.
+ *
+ * The interval is shortened when a large share of the received objects are new or changed, and lengthened
+ * when little changes or when processing takes a large share of the interval - always within [min, max].
+ */
+public class AdaptivePollingInterval {
+
+    static final double HIGH_CHANGE_RATE = 0.25;
+    static final double LOW_CHANGE_RATE = 0.02;
+
+    private static final double SHORTEN_FACTOR = 0.5;
+    private static final double LENGTHEN_FACTOR = 1.5;
+
+    private final Duration minInterval;
+    private final Duration maxInterval;
+
+    private Duration interval;
+    private Instant lastPoll;
+    private Instant lastStatsProcessed;
+
+    public AdaptivePollingInterval(Duration minInterval, Duration maxInterval, Duration initialInterval) {
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.interval = bounded(initialInterval);
+    }
+
+    /**
+     * Adjusts the interval based on the latest delivery - each delivery is only considered once
+     */
+    public synchronized Duration update(DeliveryChangeStats stats) {
+        if (stats == null || stats.getProcessed() == null ||
+            (lastStatsProcessed != null && !stats.getProcessed().isAfter(lastStatsProcessed))) {
+            return interval;
+        }
+        lastStatsProcessed = stats.getProcessed();
+
+        if (stats.getProcessingMillis() > interval.toMillis() / 2) {
+            interval = bounded(multiply(interval, LENGTHEN_FACTOR));
+        } else if (stats.getChangeRate() >= HIGH_CHANGE_RATE) {
+            interval = bounded(multiply(interval, SHORTEN_FACTOR));
+        } else if (stats.getChangeRate() <= LOW_CHANGE_RATE) {
+            interval = bounded(multiply(interval, LENGTHEN_FACTOR));
+        }
+        return interval;
+    }
+
+    public synchronized boolean isDue() {
+        return lastPoll == null || !Instant.now().isBefore(lastPoll.plus(interval));
+    }
+
+    public synchronized void pollStarted() {
+        lastPoll = Instant.now();
+    }
+
+    public synchronized Duration getInterval() {
+        return interval;
+    }
+
+    public Duration getMinInterval() {
+        return minInterval;
+    }
+
+    private Duration bounded(Duration duration) {
+        if (duration.compareTo(minInterval) < 0) {
+            return minInterval;
+        }
+        if (duration.compareTo(maxInterval) > 0) {
+            return maxInterval;
+        }
+        return duration;
+    }
+
+    private static Duration multiply(Duration duration, double factor) {
+        return Duration.ofMillis((long) (duration.toMillis() * factor));
+    }
+}
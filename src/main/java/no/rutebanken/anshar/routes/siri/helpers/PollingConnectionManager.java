@@ -0,0 +1,217 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.helpers;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared pool of keep-alive connections used by all polling routes.
+ *
+ * Each polling subscription has at most one request in flight, so the limit per host is raised to the number
+ * of polling subscriptions for that host - unless a host-specific limit is configured.
+ *
+ * Referenced from the http-endpoints as "clientConnectionManager=#pollingConnectionManager". Since
+ * Camel shuts down custom connection managers when an endpoint is stopped, shutdown is ignored
+ * until the application itself is stopped.
+ */
+@Component(value = "pollingConnectionManager")
+public class PollingConnectionManager extends PoolingHttpClientConnectionManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(PollingConnectionManager.class);
+
+    @Value("${anshar.polling.http.max.total:200}")
+    private int maxTotal;
+
+    @Value("${anshar.polling.http.max.per.host:5}")
+    private int maxPerHost;
+
+    /**
+     * Host-specific limits as "scheme://host[:port]=limit"
+     */
+    @Value("${anshar.polling.http.max.per.host.overrides:}")
+    private List<String> maxPerHostOverrides;
+
+    @Value("${anshar.polling.http.idle.timeout.seconds:60}")
+    private int idleTimeoutSeconds;
+
+    @Autowired
+    private PrometheusMetricsService metricsService;
+
+    private ScheduledExecutorService idleConnectionEvictor;
+
+    private final Set<HttpRoute> overriddenRoutes = new HashSet<>();
+
+    private final Map<String, HttpRoute> pollingSubscriptions = new HashMap<>();
+
+    PollingConnectionManager() {
+    }
+
+    PollingConnectionManager(int maxTotal, int maxPerHost, List<String> maxPerHostOverrides, int idleTimeoutSeconds,
+                             PrometheusMetricsService metricsService) {
+        this.maxTotal = maxTotal;
+        this.maxPerHost = maxPerHost;
+        this.maxPerHostOverrides = maxPerHostOverrides;
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+        this.metricsService = metricsService;
+        configure();
+    }
+
+    @PostConstruct
+    void configure() {
+        setMaxTotal(maxTotal);
+        setDefaultMaxPerRoute(maxPerHost);
+        setValidateAfterInactivity(2000);
+
+        for (String override : maxPerHostOverrides) {
+            String[] hostAndLimit = override.split("=");
+            HttpRoute route = hostAndLimit.length == 2 ? createRoute(hostAndLimit[0].trim()) : null;
+            if (route == null) {
+                logger.warn("Ignoring invalid connection-limit {}", override);
+                continue;
+            }
+            setMaxPerRoute(route, Integer.parseInt(hostAndLimit[1].trim()));
+            overriddenRoutes.add(route);
+        }
+
+        idleConnectionEvictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("polling-connection-evictor")
+            .setDaemon(true)
+            .build());
+        idleConnectionEvictor.scheduleWithFixedDelay(() -> {
+            closeExpiredConnections();
+            closeIdleConnections(idleTimeoutSeconds, TimeUnit.SECONDS);
+        }, idleTimeoutSeconds, idleTimeoutSeconds, TimeUnit.SECONDS);
+
+        metricsService.registerPollingConnectionPool(this);
+    }
+
+    /**
+     * Registers polling subscription, and raises the limit for its host to the number of polling subscriptions
+     * for that host
+     */
+    public synchronized void registerPollingSubscription(String subscriptionId, String url) {
+        HttpRoute route = createRoute(url);
+        if (route == null) {
+            logger.warn("Unable to resolve host for polling subscription {} - using default connection-limit", subscriptionId);
+            return;
+        }
+        pollingSubscriptions.put(subscriptionId, route);
+        if (overriddenRoutes.contains(route)) {
+            return;
+        }
+
+        int subscriptionCount = Collections.frequency(pollingSubscriptions.values(), route);
+        int limit = Math.min(maxTotal, Math.max(maxPerHost, subscriptionCount));
+        if (limit != getMaxPerRoute(route)) {
+            logger.info("Connection-limit for {} set to {} for {} polling subscriptions", route.getTargetHost(), limit, subscriptionCount);
+            setMaxPerRoute(route, limit);
+        }
+    }
+
+    /**
+     * @param uri "scheme://host[:port]", optionally followed by path
+     * @return route with explicit port, as routes are resolved by the http-client
+     */
+    static HttpRoute createRoute(String uri) {
+        try {
+            URI parsed = new URI(uri);
+            if (parsed.getHost() == null || parsed.getScheme() == null) {
+                return null;
+            }
+            boolean secure = "https".equalsIgnoreCase(parsed.getScheme());
+            int port = parsed.getPort() >= 0 ? parsed.getPort() : (secure ? 443 : 80);
+            return new HttpRoute(new HttpHost(parsed.getHost(), port, parsed.getScheme().toLowerCase()), null, secure);
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+        final ConnectionRequest request = super.requestConnection(route, state);
+        return new ConnectionRequest() {
+            @Override
+            public HttpClientConnection get(long timeout, TimeUnit timeUnit)
+                throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                final long waitStart = System.nanoTime();
+                try {
+                    return request.get(timeout, timeUnit);
+                } finally {
+                    metricsService.registerPollingConnectionLeased(route.getTargetHost().getHostName(), System.nanoTime() - waitStart);
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    @Override
+    public void connect(HttpClientConnection managedConn, HttpRoute route, int connectTimeout, HttpContext context) throws IOException {
+        // Only called when no pooled connection could be reused
+        metricsService.registerPollingConnectionCreated(route.getTargetHost().getHostName());
+        super.connect(managedConn, route, connectTimeout, context);
+    }
+
+    @Override
+    public void shutdown() {
+        // Shared between endpoints - shut down with the application
+    }
+
+    @Override
+    public void close() {
+        // Shared between endpoints - shut down with the application
+    }
+
+    @PreDestroy
+    void destroy() {
+        if (idleConnectionEvictor != null) {
+            idleConnectionEvictor.shutdownNow();
+        }
+        super.shutdown();
+    }
+}
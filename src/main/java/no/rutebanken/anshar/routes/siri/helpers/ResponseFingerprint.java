@@ -0,0 +1,80 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.helpers;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Fingerprint of the last raw response for a polled subscription.
+ *
+ * Identical responses are reported as unchanged, but a response is always reported as changed when the
+ * previous fingerprint is older than maxAge to make sure data that has been flushed/expired is restored.
+ * The fingerprint is only updated when the response has been processed, so that a failed response is
+ * processed again when it is repeated.
+ */
+public class ResponseFingerprint {
+
+    private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+    private final Duration maxAge;
+
+    private HashCode fingerprint;
+
+    private Instant fingerprintCreated;
+
+    public ResponseFingerprint(Duration maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @return hash of payload, or null if payload is empty
+     */
+    public static HashCode hash(String payload) {
+        if (payload == null || payload.isEmpty()) {
+            return null;
+        }
+        return hashFunction.hashString(payload, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return true if the hash is identical to the current fingerprint, and the fingerprint has not expired
+     */
+    public synchronized boolean isUnchanged(HashCode hash) {
+        return hash != null && hash.equals(fingerprint) && fingerprintCreated.plus(maxAge).isAfter(Instant.now());
+    }
+
+    /**
+     * Stores hash of a processed response as the new fingerprint
+     */
+    public synchronized void update(HashCode hash) {
+        if (hash == null) {
+            return;
+        }
+        fingerprint = hash;
+        fingerprintCreated = Instant.now();
+    }
+
+    public synchronized void reset() {
+        fingerprint = null;
+        fingerprintCreated = null;
+    }
+}
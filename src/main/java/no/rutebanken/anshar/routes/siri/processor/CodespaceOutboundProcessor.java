@@ -112,4 +112,9 @@ public class CodespaceOutboundProcessor extends ValueAdapter implements PostProc
                 return getMappedId(text);
         }
     }
+
+    @Override
+    protected String getMemoizationKey() {
+        return toString() + ":" + outboundIdMappingPolicy;
+    }
 }
@@ -100,4 +100,9 @@ public class RemoveEmojiPostProcessor extends ValueAdapter implements PostProces
     private boolean keepCharacter(char c) {
         return (c > 30 && c <= 500) || specialCharactersToKeep.contains(c);
     }
+
+    @Override
+    protected String getMemoizationKey() {
+        return toString() + ":" + outboundIdMappingPolicy;
+    }
 }
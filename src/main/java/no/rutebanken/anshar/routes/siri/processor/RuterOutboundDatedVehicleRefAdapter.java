@@ -101,6 +101,11 @@ public class RuterOutboundDatedVehicleRefAdapter extends ValueAdapter implements
         return text;
     }
 
+    @Override
+    protected String getMemoizationKey() {
+        return toString() + ":" + outboundIdMappingPolicy;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
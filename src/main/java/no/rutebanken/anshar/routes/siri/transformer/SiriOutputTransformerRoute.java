@@ -29,6 +29,11 @@ public class SiriOutputTransformerRoute extends RouteBuilder {
 
     public static final String OUTPUT_ADAPTERS_HEADER_NAME = "adapters";
 
+    /**
+     * Set when body references elements shared with other deliveries - i.e. filtered payloads
+     */
+    public static final String COPY_BEFORE_TRANSFORM_HEADER_NAME = "copyBeforeTransform";
+
     @Override
     public void configure() {
         final List<ValueAdapter> outboundAdapters = MappingAdapterPresets.getOutboundAdapters(OutboundIdMappingPolicy.DEFAULT);
@@ -43,11 +48,13 @@ public class SiriOutputTransformerRoute extends RouteBuilder {
                     } else {
                         adapters = outboundAdapters;
                     }
+                    boolean copyBeforeTransform = Boolean.TRUE.equals(p.getIn().getHeader(COPY_BEFORE_TRANSFORM_HEADER_NAME));
+                    p.getIn().removeHeader(COPY_BEFORE_TRANSFORM_HEADER_NAME);
 
                     p.getOut().setBody(SiriValueTransformer.transform(
                         p.getIn().getBody(Siri.class),
                         adapters,
-                        false,
+                        copyBeforeTransform,
                         false));
                     p.getOut().setHeaders(p.getIn().getHeaders());
                 })
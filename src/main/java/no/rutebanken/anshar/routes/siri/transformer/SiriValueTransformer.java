@@ -15,9 +15,6 @@
 
 package no.rutebanken.anshar.routes.siri.transformer;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
 import no.rutebanken.anshar.routes.siri.processor.PostProcessor;
 import no.rutebanken.anshar.routes.siri.transformer.impl.OutboundIdAdapter;
@@ -29,15 +26,14 @@ import uk.org.siri.siri21.Siri;
 import javax.xml.bind.JAXBException;
 import javax.xml.stream.XMLStreamException;
 import java.io.InputStream;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 public class SiriValueTransformer {
 
@@ -45,25 +41,17 @@ public class SiriValueTransformer {
 
     private static final Logger logger = LoggerFactory.getLogger(SiriValueTransformer.class);
 
-    private static final Map<GetterKey, Set<Method>> cachedGettersForAdapter = new HashMap<>();
-
-    private static final LoadingCache<Class, List<Method>> getterMethodsCache = CacheBuilder.newBuilder()
-            .build(
-                    new CacheLoader<Class, List<Method>>() {
-                        public List<Method> load(Class clazz) {
-                            Method[] methods = clazz.getMethods();
-                            List<Method> getterMethods = new ArrayList<>();
-                            for (Method method : methods) {
-                                if (method.getParameterCount() == 0 &&
-                                        !("void".equals(method.getReturnType().getName()))) {
-                                    getterMethods.add(method);
-                                }
-                            }
-                            return getterMethods;
-                        }
-                    });
+    private static volatile ValueAdapterMemoizer memoizer;
+
+    static synchronized void setMemoizer(ValueAdapterMemoizer valueAdapterMemoizer) {
+        memoizer = valueAdapterMemoizer;
+    }
 
-    private static final List<String> methodsToIgnore = Collections.singletonList("getMonitoringError");
+    static synchronized void removeMemoizer(ValueAdapterMemoizer valueAdapterMemoizer) {
+        if (memoizer == valueAdapterMemoizer) {
+            memoizer = null;
+        }
+    }
 
     /**
      *
@@ -94,6 +82,21 @@ public class SiriValueTransformer {
      * @return Transformed SIRI-object
      */
     public static Siri transform(Siri siri, List<ValueAdapter> adapters, boolean deepCopyBeforeTransform, boolean detailedLogging) {
+        return transform(siri, adapters, deepCopyBeforeTransform, detailedLogging, true);
+    }
+
+    /**
+     *
+     *
+     * @param siri SIRI data to transform
+     * @param adapters Adapters to apply
+     * @param deepCopyBeforeTransform Defines if SIRI-object should be deep-copied before transformation. !! Note: If false - input-object will be altered !!
+     * @param detailedLogging Switches on/off detailed logging
+     * @param fused Defines if all valueAdapters should be applied in a single traversal. When false, the object is traversed once per valueAdapter.
+     *              In both cases adapters targeting the same class are applied in the order they are listed.
+     * @return Transformed SIRI-object
+     */
+    public static Siri transform(Siri siri, List<ValueAdapter> adapters, boolean deepCopyBeforeTransform, boolean detailedLogging, boolean fused) {
         if (siri == null) {
             return null;
         }
@@ -146,16 +149,24 @@ public class SiriValueTransformer {
             if (detailedLogging) {
                 logger.debug("SIRI Transform: {} postProcessors added", postProcessors.size());
             }
-            for (ValueAdapter a : valueAdapters) {
-                try {
-                    applyAdapter(transformed, a);
+            if (fused) {
+                applyAdaptersFused(transformed, valueAdapters);
 
-                    if (detailedLogging) {
-                        logger.debug("SIRI Transform: valueAdapter {} processed", a.toString());
+                if (detailedLogging) {
+                    logger.debug("SIRI Transform: {} valueAdapters processed in single traversal", valueAdapters.size());
+                }
+            } else {
+                for (ValueAdapter a : valueAdapters) {
+                    try {
+                        applyAdapter(transformed, a);
+
+                        if (detailedLogging) {
+                            logger.debug("SIRI Transform: valueAdapter {} processed", a.toString());
+                        }
+                    } catch (Throwable t) {
+                        logger.warn("Caught exception while transforming SIRI-object.", t);
+                        logger.debug("SIRI Transform: valueAdapter {} failed", a.toString());
                     }
-                } catch (Throwable t) {
-                    logger.warn("Caught exception while transforming SIRI-object.", t);
-                    logger.debug("SIRI Transform: valueAdapter {} failed", a.toString());
                 }
             }
             if (detailedLogging) {
@@ -183,113 +194,144 @@ public class SiriValueTransformer {
     }
 
     /**
-     * Recursively applies ValueAdapter to all fields of the specified type within SIRI-packages.
+     * Applies all valueAdapters in a single traversal of the SIRI-object.
      *
-     * Uses getValue()/setValue(...) apply adapters
+     * Adapters are grouped by the class they target, and adapters targeting the same class are applied
+     * to each value in the order they are listed. An adapter that fails is logged, and skipped for the
+     * rest of the traversal.
      *
-     * @param obj
-     * @param adapter
-     * @throws NoSuchMethodException
-     * @throws InvocationTargetException
-     * @throws IllegalAccessException
+     * @param siri
+     * @param valueAdapters
      */
-    private static void applyAdapter(Object obj, ValueAdapter adapter) throws Throwable {
+    private static void applyAdaptersFused(Siri siri, List<ValueAdapter> valueAdapters) {
+        Map<Class<?>, List<ValueAdapter>> adaptersByClass = new LinkedHashMap<>();
+        for (ValueAdapter adapter : valueAdapters) {
+            if (adapter.getClassToApply() != null) {
+                adaptersByClass.computeIfAbsent(adapter.getClassToApply(), c -> new ArrayList<>()).add(adapter);
+            }
+        }
+        if (adaptersByClass.isEmpty()) {
+            return;
+        }
+        applyAdapters(siri, adaptersByClass, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private static void applyAdapters(Object obj, Map<Class<?>, List<ValueAdapter>> adaptersByClass, Set<ValueAdapter> failedAdapters) {
 
         //Only apply to Siri-classes
-        if (obj != null && obj.getClass().getName().startsWith("uk.org.siri")) {
+        if (obj != null && TransformationPlan.isSiriClass(obj.getClass())) {
 
-            GetterKey getterKey = new GetterKey(obj.getClass(), adapter);
-            Set<Method> allMethods = cachedGettersForAdapter.get(getterKey);
+            TransformationPlan plan = TransformationPlan.forClass(obj.getClass(), adaptersByClass.keySet());
 
-            if (allMethods == null) {
-                allMethods = new HashSet<>();
-                allMethods.addAll(getterMethodsCache.get(obj.getClass()));
-            }
-            for (Method method : allMethods) {
-                if (methodsToIgnore.contains(method.getName())) {
-                    continue;
+            for (TransformationPlan.ValueGetter valueGetter : plan.valueGetters) {
+                Object previousValue = valueGetter.getter.apply(obj);
+                if (previousValue != null) {
+                    for (ValueAdapter adapter : adaptersByClass.get(valueGetter.targetClass)) {
+                        if (failedAdapters.contains(adapter)) {
+                            continue;
+                        }
+                        try {
+                            applyValue(previousValue, adapter);
+                        } catch (Throwable t) {
+                            failedAdapters.add(adapter);
+                            logger.warn("Caught exception while transforming SIRI-object.", t);
+                            logger.debug("SIRI Transform: valueAdapter {} failed", adapter.toString());
+                        }
+                    }
                 }
+            }
 
+            for (Function<Object, Object> getter : plan.childGetters) {
+                Object currentValue = getter.apply(obj);
+                if (currentValue != null) {
+                    if (currentValue instanceof List) {
+                        List list = (List) currentValue;
+                        for (Object o : list) {
+                            applyAdapters(o, adaptersByClass, failedAdapters);
+                        }
+                    } else {
+                        applyAdapters(currentValue, adaptersByClass, failedAdapters);
+                    }
+                }
+            }
+        }
+    }
 
-                if (method.getReturnType().equals(adapter.getClassToApply())) {
-
-                    Set<Method> methods = cachedGettersForAdapter.getOrDefault(getterKey, new HashSet<>());
-                    methods.add(method);
-                    cachedGettersForAdapter.put(getterKey, methods);
+    /**
+     * Recursively applies ValueAdapter to all fields of the specified type within SIRI-packages.
+     *
+     * Uses a compiled TransformationPlan for each class, so that only paths that may lead to the
+     * targeted class are visited.
+     *
+     * @param obj
+     * @param adapter
+     */
+    private static void applyAdapter(Object obj, ValueAdapter adapter) {
 
-                    Object previousValue = method.invoke(obj);
-                    if (previousValue != null) {
-                        String value = (String) previousValue.getClass().getMethod("getValue").invoke(previousValue);
-                        String alteredValue;
+        //Only apply to Siri-classes
+        if (obj != null && adapter.getClassToApply() != null && TransformationPlan.isSiriClass(obj.getClass())) {
 
-                        String originalId = value;
-
-                        if (adapter instanceof OutboundIdAdapter) {
-                            alteredValue = adapter.apply(value);
-                        } else {
-                            if (value.contains(SEPARATOR)) {
-                                originalId = value.substring(0, value.indexOf(SEPARATOR));
-                                alteredValue = adapter.apply(value.substring(value.indexOf(SEPARATOR) + SEPARATOR.length()));
-                            } else {
-                                alteredValue = adapter.apply(value);
-                            }
-                            if (!originalId.equals(alteredValue)) { //No need to map already correct ids
-                                alteredValue = originalId + SEPARATOR + alteredValue;
-                            }
-                        }
+            TransformationPlan plan = TransformationPlan.forClass(obj.getClass(), adapter.getClassToApply());
 
+            for (TransformationPlan.ValueGetter valueGetter : plan.valueGetters) {
+                Object previousValue = valueGetter.getter.apply(obj);
+                if (previousValue != null) {
+                    applyValue(previousValue, adapter);
+                }
+            }
 
-                        Method valueSetter = previousValue.getClass().getMethod("setValue", String.class);
-                        valueSetter.invoke(previousValue, alteredValue);
-                    }
-                } else {
-                    Object currentValue = method.invoke(obj);
-                    if (currentValue != null) {
-                        if (currentValue instanceof List) {
-                            List list = (List) currentValue;
-                            for (Object o : list) {
-                                applyAdapter(o, adapter);
-                            }
-                        } else {
-                            applyAdapter(currentValue, adapter);
+            for (Function<Object, Object> getter : plan.childGetters) {
+                Object currentValue = getter.apply(obj);
+                if (currentValue != null) {
+                    if (currentValue instanceof List) {
+                        List list = (List) currentValue;
+                        for (Object o : list) {
+                            applyAdapter(o, adapter);
                         }
+                    } else {
+                        applyAdapter(currentValue, adapter);
                     }
                 }
             }
         }
     }
 
-    private static class GetterKey {
-        private final ValueAdapter adapter;
-        private final Class clazz;
-
-        public GetterKey(Class clazz, ValueAdapter adapter) {
-            this.clazz = clazz;
-            this.adapter = adapter;
-        }
+    /**
+     * Uses getValue()/setValue(...) to apply adapter to a single value
+     *
+     * @param previousValue
+     * @param adapter
+     */
+    private static void applyValue(Object previousValue, ValueAdapter adapter) {
+        TransformationPlan.ValueAccessor accessor = TransformationPlan.valueAccessor(previousValue.getClass());
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) {
-                return true;
-            }
-            if (o == null || getClass() != o.getClass()) {
-                return false;
-            }
+        String value = accessor.getValue(previousValue);
+        String alteredValue;
 
-            GetterKey getterKey = (GetterKey) o;
+        String originalId = value;
 
-            if (adapter != null ? !adapter.equals(getterKey.adapter) : getterKey.adapter != null) {
-                return false;
+        if (adapter instanceof OutboundIdAdapter) {
+            alteredValue = applyMemoized(adapter, value);
+        } else {
+            if (value.contains(SEPARATOR)) {
+                originalId = value.substring(0, value.indexOf(SEPARATOR));
+                alteredValue = applyMemoized(adapter, value.substring(value.indexOf(SEPARATOR) + SEPARATOR.length()));
+            } else {
+                alteredValue = applyMemoized(adapter, value);
+            }
+            if (!originalId.equals(alteredValue)) { //No need to map already correct ids
+                alteredValue = originalId + SEPARATOR + alteredValue;
             }
-            return clazz != null ? clazz.equals(getterKey.clazz) : getterKey.clazz == null;
         }
 
-        @Override
-        public int hashCode() {
-            int result = adapter != null ? adapter.hashCode() : 0;
-            result = 31 * result + (clazz != null ? clazz.hashCode() : 0);
-            return result;
+        accessor.setValue(previousValue, alteredValue);
+    }
+
+    private static String applyMemoized(ValueAdapter adapter, String value) {
+        final ValueAdapterMemoizer valueAdapterMemoizer = memoizer;
+        if (valueAdapterMemoizer != null) {
+            return valueAdapterMemoizer.apply(adapter, value);
         }
+        return adapter.apply(value);
     }
 }
@@ -0,0 +1,351 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.transformer;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Compiled transformation-plan for a single SIRI-class and the classes targeted by one or more ValueAdapters.
+ *
+ * The plan contains only the getters that either return a targeted class directly, or lead to
+ * objects that may contain a targeted class. Getters are compiled to lambdas once, and plans
+ * are cached for all adapters with the same targets.
+ */
+class TransformationPlan {
+
+    private static final String SIRI_PACKAGE_PREFIX = "uk.org.siri";
+
+    private static final List<String> methodsToIgnore = Collections.singletonList("getMonitoringError");
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final Map<PlanKey, TransformationPlan> plans = new ConcurrentHashMap<>();
+
+    private static final Map<ReachabilityKey, Boolean> reachability = new ConcurrentHashMap<>();
+
+    private static final Map<Class<?>, List<Method>> getterMethods = new ConcurrentHashMap<>();
+
+    private static final Map<Class<?>, ValueAccessor> valueAccessors = new ConcurrentHashMap<>();
+
+    /**
+     * Getters returning one of the targeted classes
+     */
+    final List<ValueGetter> valueGetters;
+
+    /**
+     * Getters returning objects or lists that may contain one of the targeted classes
+     */
+    final List<Function<Object, Object>> childGetters;
+
+    private TransformationPlan(List<ValueGetter> valueGetters, List<Function<Object, Object>> childGetters) {
+        this.valueGetters = valueGetters;
+        this.childGetters = childGetters;
+    }
+
+    boolean isEmpty() {
+        return valueGetters.isEmpty() && childGetters.isEmpty();
+    }
+
+    static boolean isSiriClass(Class<?> clazz) {
+        return clazz.getName().startsWith(SIRI_PACKAGE_PREFIX);
+    }
+
+    static TransformationPlan forClass(Class<?> clazz, Class<?> targetClass) {
+        return plans.computeIfAbsent(new PlanKey(clazz, Set.of(targetClass)), TransformationPlan::compile);
+    }
+
+    static TransformationPlan forClass(Class<?> clazz, Set<Class<?>> targetClasses) {
+        return plans.computeIfAbsent(new PlanKey(clazz, targetClasses), TransformationPlan::compile);
+    }
+
+    static ValueAccessor valueAccessor(Class<?> clazz) {
+        return valueAccessors.computeIfAbsent(clazz, ValueAccessor::compile);
+    }
+
+    private static TransformationPlan compile(PlanKey key) {
+        List<ValueGetter> valueGetters = new ArrayList<>();
+        List<Function<Object, Object>> childGetters = new ArrayList<>();
+
+        for (Method method : getGetters(key.clazz)) {
+            if (key.targetClasses.contains(method.getReturnType())) {
+                valueGetters.add(new ValueGetter(method.getReturnType(), compileGetter(method)));
+            } else if (mayContain(method, key.targetClasses)) {
+                childGetters.add(compileGetter(method));
+            }
+        }
+        return new TransformationPlan(List.copyOf(valueGetters), List.copyOf(childGetters));
+    }
+
+    private static List<Method> getGetters(Class<?> clazz) {
+        return getterMethods.computeIfAbsent(clazz, c -> {
+            List<Method> getters = new ArrayList<>();
+            for (Method method : c.getMethods()) {
+                if (method.getParameterCount() == 0 &&
+                        !void.class.equals(method.getReturnType()) &&
+                        !method.getReturnType().isPrimitive() &&
+                        !Modifier.isStatic(method.getModifiers()) &&
+                        !methodsToIgnore.contains(method.getName())) {
+                    getters.add(method);
+                }
+            }
+            return getters;
+        });
+    }
+
+    /**
+     * Resolves the declared type of the objects returned by the getter - element-type for lists
+     */
+    private static Class<?> resolveDeclaredType(Method method) {
+        Class<?> returnType = method.getReturnType();
+        if (List.class.isAssignableFrom(returnType)) {
+            Type genericType = method.getGenericReturnType();
+            if (genericType instanceof ParameterizedType) {
+                Type elementType = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+                if (elementType instanceof Class) {
+                    return (Class<?>) elementType;
+                }
+            }
+            return Object.class;
+        }
+        return returnType;
+    }
+
+    /**
+     * Declared types that are not concrete may hold SIRI-objects at runtime, and must be visited
+     */
+    private static boolean isOpenType(Class<?> type) {
+        return type.equals(Object.class) ||
+                type.isInterface() ||
+                (Modifier.isAbstract(type.getModifiers()) && !type.isPrimitive() && !type.isArray());
+    }
+
+    private static boolean mayContain(Method method, Set<Class<?>> targetClasses) {
+        Class<?> declaredType = resolveDeclaredType(method);
+        for (Class<?> targetClass : targetClasses) {
+            if (canReach(declaredType, targetClass)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if any SIRI-class reachable from the given type has a getter returning the targeted class.
+     */
+    private static boolean canReach(Class<?> type, Class<?> targetClass) {
+        if (isOpenType(type)) {
+            return true;
+        }
+        if (!isSiriClass(type) || type.isEnum()) {
+            return false;
+        }
+
+        return reachability.computeIfAbsent(new ReachabilityKey(type, targetClass), key -> {
+            Set<Class<?>> visited = new HashSet<>();
+            Deque<Class<?>> toVisit = new ArrayDeque<>();
+            toVisit.add(key.clazz);
+
+            while (!toVisit.isEmpty()) {
+                Class<?> current = toVisit.poll();
+                if (!visited.add(current)) {
+                    continue;
+                }
+                for (Method method : getGetters(current)) {
+                    if (method.getReturnType().equals(key.targetClass)) {
+                        return true;
+                    }
+                    Class<?> declaredType = resolveDeclaredType(method);
+                    if (isOpenType(declaredType)) {
+                        return true;
+                    }
+                    if (isSiriClass(declaredType) && !declaredType.isEnum()) {
+                        toVisit.add(declaredType);
+                    }
+                }
+            }
+            return false;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> compileGetter(Method method) {
+        try {
+            MethodHandle handle = LOOKUP.unreflect(method);
+            CallSite site = LambdaMetafactory.metafactory(
+                    LOOKUP,
+                    "apply",
+                    MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class),
+                    handle,
+                    handle.type()
+            );
+            return (Function<Object, Object>) site.getTarget().invokeExact();
+        } catch (Throwable t) {
+            return reflectiveGetter(method);
+        }
+    }
+
+    private static Function<Object, Object> reflectiveGetter(Method method) {
+        return obj -> {
+            try {
+                return method.invoke(obj);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    /**
+     * Compiled getter returning one of the targeted classes
+     */
+    static class ValueGetter {
+        final Class<?> targetClass;
+        final Function<Object, Object> getter;
+
+        private ValueGetter(Class<?> targetClass, Function<Object, Object> getter) {
+            this.targetClass = targetClass;
+            this.getter = getter;
+        }
+    }
+
+    /**
+     * Compiled getValue()/setValue(String) for the SIRI-classes targeted by ValueAdapters
+     */
+    static class ValueAccessor {
+        private final Function<Object, Object> getter;
+        private final BiConsumer<Object, Object> setter;
+
+        private ValueAccessor(Function<Object, Object> getter, BiConsumer<Object, Object> setter) {
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        String getValue(Object obj) {
+            return (String) getter.apply(obj);
+        }
+
+        void setValue(Object obj, String value) {
+            setter.accept(obj, value);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static ValueAccessor compile(Class<?> clazz) {
+            try {
+                Method getValue = clazz.getMethod("getValue");
+                Method setValue = clazz.getMethod("setValue", String.class);
+
+                BiConsumer<Object, Object> setter;
+                try {
+                    MethodHandle handle = LOOKUP.unreflect(setValue);
+                    CallSite site = LambdaMetafactory.metafactory(
+                            LOOKUP,
+                            "accept",
+                            MethodType.methodType(BiConsumer.class),
+                            MethodType.methodType(void.class, Object.class, Object.class),
+                            handle,
+                            handle.type()
+                    );
+                    setter = (BiConsumer<Object, Object>) site.getTarget().invokeExact();
+                } catch (Throwable t) {
+                    setter = (obj, value) -> {
+                        try {
+                            setValue.invoke(obj, value);
+                        } catch (ReflectiveOperationException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    };
+                }
+                return new ValueAccessor(compileGetter(getValue), setter);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException("Class " + clazz + " does not have getValue/setValue", e);
+            }
+        }
+    }
+
+    private static class PlanKey {
+        private final Class<?> clazz;
+        private final Set<Class<?>> targetClasses;
+
+        private PlanKey(Class<?> clazz, Set<Class<?>> targetClasses) {
+            this.clazz = clazz;
+            this.targetClasses = Set.copyOf(targetClasses);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            PlanKey planKey = (PlanKey) o;
+            return clazz.equals(planKey.clazz) && targetClasses.equals(planKey.targetClasses);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(clazz, targetClasses);
+        }
+    }
+
+    private static class ReachabilityKey {
+        private final Class<?> clazz;
+        private final Class<?> targetClass;
+
+        private ReachabilityKey(Class<?> clazz, Class<?> targetClass) {
+            this.clazz = clazz;
+            this.targetClass = targetClass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ReachabilityKey that = (ReachabilityKey) o;
+            return clazz.equals(that.clazz) && targetClass.equals(that.targetClass);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(clazz, targetClass);
+        }
+    }
+}
@@ -46,6 +46,29 @@ public abstract class ValueAdapter implements Serializable {
 
     protected abstract String apply(String value);
 
+    /**
+     * Adapters that always return the same result for the same input may be memoized by returning a key
+     * that uniquely identifies the adapter-configuration. Adapters returning null are never memoized.
+     *
+     * PostProcessors are never memoized, but may return a key to allow outbound payloads rendered with
+     * the same adapters to be shared between subscribers.
+     *
+     * @return key identifying the adapter-configuration, or null
+     */
+    protected String getMemoizationKey() {
+        return null;
+    }
+
+    /**
+     * Called when a memoized result is used instead of calling apply - allows adapters to keep metrics updated.
+     *
+     * @param value original value
+     * @param result memoized result
+     */
+    protected void onMemoizedResult(String value, String result) {
+        // No side-effects by default
+    }
+
     public String toString() {
         return this.getClass().getSimpleName() + "[" + (clazz != null ? clazz.getSimpleName():"null") + "]";
     }
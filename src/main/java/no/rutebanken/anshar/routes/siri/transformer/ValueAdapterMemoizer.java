@@ -0,0 +1,140 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.transformer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of results from ValueAdapters, one cache per adapter-configuration.
+ *
+ * Only adapters that provide a memoization-key are cached - see {@link ValueAdapter#getMemoizationKey()}.
+ */
+@Component
+public class ValueAdapterMemoizer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ValueAdapterMemoizer.class);
+
+    @Value("${anshar.mapping.adapter.cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${anshar.mapping.adapter.cache.max.size:50000}")
+    private long maxSize;
+
+    @Autowired
+    private PrometheusMetricsService metricsService;
+
+    private final Map<String, Cache<String, String>> caches = new ConcurrentHashMap<>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    ValueAdapterMemoizer() {
+    }
+
+    ValueAdapterMemoizer(boolean enabled, long maxSize, PrometheusMetricsService metricsService) {
+        this.enabled = enabled;
+        this.maxSize = maxSize;
+        this.metricsService = metricsService;
+    }
+
+    /**
+     * SiriValueTransformer is static - the memoizer is only used while this bean's context is running
+     */
+    @PostConstruct
+    void register() {
+        SiriValueTransformer.setMemoizer(this);
+    }
+
+    @PreDestroy
+    void unregister() {
+        SiriValueTransformer.removeMemoizer(this);
+    }
+
+    String apply(ValueAdapter adapter, String value) {
+        if (!enabled || value == null) {
+            return adapter.apply(value);
+        }
+
+        final String memoizationKey = adapter.getMemoizationKey();
+        if (memoizationKey == null) {
+            return adapter.apply(value);
+        }
+
+        Cache<String, String> cache = caches.computeIfAbsent(memoizationKey, this::createCache);
+
+        String result = cache.getIfPresent(value);
+        if (result != null) {
+            adapter.onMemoizedResult(value, result);
+            return result;
+        }
+
+        final long generationBefore = generation.get();
+        result = adapter.apply(value);
+        if (result != null && generationBefore == generation.get()) {
+            cache.put(value, result);
+        }
+        return result;
+    }
+
+    private Cache<String, String> createCache(String memoizationKey) {
+        Cache<String, String> cache = CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .recordStats()
+            .build();
+        metricsService.registerAdapterCache(memoizationKey, cache);
+        return cache;
+    }
+
+    /**
+     * @return key identifying the combined configuration of all adapters, or null if any of the adapters
+     * does not provide a memoization-key
+     */
+    public static String createConfigurationKey(List<ValueAdapter> adapters) {
+        StringBuilder key = new StringBuilder();
+        for (ValueAdapter adapter : adapters) {
+            final String memoizationKey = adapter.getMemoizationKey();
+            if (memoizationKey == null) {
+                return null;
+            }
+            key.append(memoizationKey).append('|');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Clears all cached results - must be called whenever data used by adapters is updated
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        if (!caches.isEmpty()) {
+            logger.info("Invalidating {} value-adapter caches", caches.size());
+            caches.values().forEach(Cache::invalidateAll);
+        }
+    }
+}
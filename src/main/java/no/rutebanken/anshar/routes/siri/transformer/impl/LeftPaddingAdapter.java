@@ -38,6 +38,11 @@ public class LeftPaddingAdapter extends ValueAdapter {
         return StringUtils.leftPad(text, paddingLength, paddingChar);
     }
 
+    @Override
+    protected String getMemoizationKey() {
+        return toString() + ":" + paddingLength + ":" + paddingChar;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
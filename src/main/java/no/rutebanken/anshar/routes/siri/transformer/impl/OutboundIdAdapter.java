@@ -72,6 +72,11 @@ public class OutboundIdAdapter extends ValueAdapter {
         return text;
     }
 
+    @Override
+    protected String getMemoizationKey() {
+        return toString() + ":" + outboundIdMappingPolicy;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
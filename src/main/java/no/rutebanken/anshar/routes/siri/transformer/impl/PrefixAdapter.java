@@ -47,6 +47,18 @@ public class PrefixAdapter extends ValueAdapter {
         return prefix+text;
     }
 
+    @Override
+    protected String getMemoizationKey() {
+        return toString() + ":" + dataType + ":" + datasetId + ":" + prefix;
+    }
+
+    @Override
+    protected void onMemoizedResult(String value, String result) {
+        if (!value.equals(result)) {
+            getMetricsService().registerDataMapping(dataType, datasetId, APPEND_PREFIX, 1);
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -41,6 +41,11 @@ public class RightPaddingStopPlaceAdapter extends ValueAdapter {
         return text;
     }
 
+    @Override
+    protected String getMemoizationKey() {
+        return toString() + ":" + length + ":" + paddingValue;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
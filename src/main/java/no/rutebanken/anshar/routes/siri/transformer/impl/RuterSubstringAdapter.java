@@ -48,6 +48,11 @@ public class RuterSubstringAdapter extends ValueAdapter {
         this.lengthAfterSeparator = lengthAfterSeparator;
     }
 
+    @Override
+    protected String getMemoizationKey() {
+        return toString() + ":" + valueSeparator + ":" + replacementChar;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -127,6 +127,18 @@ public class StopPlaceRegisterMapper extends ValueAdapter {
         return new StringBuilder().append(nsrIdPrefix).append(id).toString();
     }
 
+    @Override
+    protected String getMemoizationKey() {
+        return toString() + ":" + type + ":" + datasetId + ":" + datatype + ":" + prefixes;
+    }
+
+    @Override
+    protected void onMemoizedResult(String value, String result) {
+        if (metricsEnabled && !value.equals(result)) {
+            getMetricsService().registerDataMapping(type, datasetId, ORIGINAL_ID_TO_NSR, 1);
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,180 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.validation;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes async profile-validations on a fixed number of threads with a bounded queue.
+ *
+ * Subscriptions with validation explicitly enabled are always validated, and are prioritized
+ * ahead of subscriptions that are only validated because full validation is enabled. The
+ * latter are sampled - only every n'th delivery per subscription is validated.
+ *
+ * When the queue is full, explicitly enabled validations replace the most recently queued sampled
+ * validation. Other validations are dropped rather than queued.
+ */
+public class BoundedValidationExecutor {
+
+    private static final int PRIORITY_EXPLICIT = 0;
+    private static final int PRIORITY_SAMPLED = 1;
+
+    private final ThreadPoolExecutor executor;
+    private final PriorityBlockingQueue<Runnable> queue;
+    private final int maxQueueSize;
+    private final int sampleRate;
+
+    private final Map<String, AtomicLong> deliveryCounters = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong droppedCounter = new AtomicLong();
+
+    public BoundedValidationExecutor(int threads, int maxQueueSize, int sampleRate) {
+        this.maxQueueSize = Math.max(1, maxQueueSize);
+        this.sampleRate = Math.max(1, sampleRate);
+
+        ThreadFactory factory = new ThreadFactoryBuilder()
+            .setNameFormat("validation-%d")
+            .setDaemon(true)
+            .build();
+
+        queue = new PriorityBlockingQueue<>(this.maxQueueSize);
+        int poolSize = Math.max(1, threads);
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, queue, factory);
+    }
+
+    /**
+     * Sampling-decision for a delivery that should be validated.
+     *
+     * @param subscriptionId subscription the delivery belongs to
+     * @param explicitlyEnabled true if validation is explicitly enabled for the subscription
+     * @return true if the delivery should be validated
+     */
+    public boolean shouldValidate(String subscriptionId, boolean explicitlyEnabled) {
+        if (explicitlyEnabled || sampleRate == 1) {
+            return true;
+        }
+        long count = deliveryCounters.computeIfAbsent(subscriptionId, s -> new AtomicLong()).getAndIncrement();
+        return count % sampleRate == 0;
+    }
+
+    /**
+     * Submits validation-task
+     *
+     * @return true if the task was accepted, false if it was dropped due to a full queue
+     */
+    public boolean submit(Runnable task, boolean explicitlyEnabled) {
+        return submit(task, explicitlyEnabled, null);
+    }
+
+    /**
+     * Submits validation-task
+     *
+     * @param onEvicted called if the task is accepted, but later removed from the queue to make room for an
+     *                  explicitly enabled validation
+     * @return true if the task was accepted, false if it was dropped due to a full queue
+     */
+    public boolean submit(Runnable task, boolean explicitlyEnabled, Runnable onEvicted) {
+        final int priority = explicitlyEnabled ? PRIORITY_EXPLICIT : PRIORITY_SAMPLED;
+        PrioritizedTask evicted = null;
+        // Tasks are only added here, so the queue cannot grow between the check and execute
+        synchronized (queue) {
+            if (queue.size() >= maxQueueSize) {
+                evicted = explicitlyEnabled ? findSampledTask() : null;
+                if (evicted == null) {
+                    droppedCounter.incrementAndGet();
+                    return false;
+                }
+                if (!queue.remove(evicted)) {
+                    // Already started - the queue has room anyway
+                    evicted = null;
+                }
+            }
+            executor.execute(new PrioritizedTask(task, priority, sequence.getAndIncrement(), onEvicted));
+        }
+        if (evicted != null) {
+            droppedCounter.incrementAndGet();
+            if (evicted.onEvicted != null) {
+                evicted.onEvicted.run();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the queued sampled task that would otherwise run last
+     */
+    private PrioritizedTask findSampledTask() {
+        PrioritizedTask lowest = null;
+        for (Runnable queued : queue) {
+            PrioritizedTask candidate = (PrioritizedTask) queued;
+            if (candidate.priority == PRIORITY_SAMPLED && (lowest == null || candidate.compareTo(lowest) > 0)) {
+                lowest = candidate;
+            }
+        }
+        return lowest;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getDroppedCount() {
+        return droppedCounter.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final Runnable task;
+        private final int priority;
+        private final long sequence;
+        private final Runnable onEvicted;
+
+        private PrioritizedTask(Runnable task, int priority, long sequence, Runnable onEvicted) {
+            this.task = task;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.onEvicted = onEvicted;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask o) {
+            if (priority != o.priority) {
+                return Integer.compare(priority, o.priority);
+            }
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+}
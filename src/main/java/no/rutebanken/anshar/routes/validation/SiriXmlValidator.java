@@ -15,10 +15,10 @@
 
 package no.rutebanken.anshar.routes.validation;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.hazelcast.map.IMap;
 import com.hazelcast.replicatedmap.ReplicatedMap;
 import no.rutebanken.anshar.config.AnsharConfiguration;
+import no.rutebanken.anshar.metrics.PipelineStage;
 import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.siri.transformer.ApplicationContextHolder;
 import no.rutebanken.anshar.routes.validation.validators.CustomValidator;
@@ -39,9 +39,12 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.stereotype.Component;
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import uk.org.siri.siri21.Siri;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.xml.XMLConstants;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -61,9 +64,8 @@ import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.nio.charset.StandardCharsets;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.HashSet;
@@ -71,10 +73,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 
 import static no.rutebanken.anshar.routes.validation.ValidationType.PROFILE_VALIDATION;
@@ -131,15 +129,21 @@ public class SiriXmlValidator extends ApplicationContextHolder {
 
     private final Map<SiriDataType, Set<CustomValidator>> validationRules = new EnumMap(SiriDataType.class);
 
-    private ExecutorService validationExecutorService;
+    private BoundedValidationExecutor validationExecutor;
 
-    public  SiriXmlValidator() {
-        ThreadFactory factory = new ThreadFactoryBuilder()
-            .setNameFormat("validation")
-            .setDaemon(true)
-            .build();
+    @PostConstruct
+    private void initializeExecutor() {
+        validationExecutor = new BoundedValidationExecutor(
+            configuration.getValidationThreads(),
+            configuration.getValidationQueueSize(),
+            configuration.getValidationSampleRate()
+        );
+        metricsService.registerValidationQueue(validationExecutor);
+    }
 
-        validationExecutorService = Executors.newCachedThreadPool(factory);
+    @PreDestroy
+    private void shutdownExecutor() {
+        validationExecutor.shutdown();
     }
 
     static {
@@ -176,25 +180,22 @@ public class SiriXmlValidator extends ApplicationContextHolder {
 
 
     public Siri parseXml(SubscriptionSetup subscriptionSetup, String xml)
-        throws XMLStreamException {
-        ByteArrayInputStream stream = new ByteArrayInputStream(xml.getBytes());
-        return parseXml(subscriptionSetup, stream);
-    }
-
-    public Siri parseXml(SubscriptionSetup subscriptionSetup, InputStream xml)
         throws XMLStreamException {
         try {
             long parseStart = System.currentTimeMillis();
 
             Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
 
-            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(xml);
+            // Reading directly from the String - the same String is reused for profile-validation
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(new StringReader(xml));
 
             final SiriValidationEventHandler schemaValidationHandler = new SiriValidationEventHandler();
 
+            final boolean explicitValidation = subscriptionSetup.isValidation();
+
             boolean validate = false;
-            if (configuration.isFullValidationEnabled() || 
-                                    subscriptionSetup.isValidation()) {
+            if ((configuration.isFullValidationEnabled() || explicitValidation) &&
+                    validationExecutor.shouldValidate(subscriptionSetup.getSubscriptionId(), explicitValidation)) {
                 validate = true;
 
                 // Add schema to validate against
@@ -204,18 +205,28 @@ public class SiriXmlValidator extends ApplicationContextHolder {
                 unmarshaller.setEventHandler(schemaValidationHandler);
             }
 
+            long unmarshalStart = System.nanoTime();
             Siri siri = unmarshaller.unmarshal(reader, Siri.class).getValue();
+            metricsService.registerPipelineStage(PipelineStage.PARSE, subscriptionSetup, System.nanoTime() - unmarshalStart);
 
             final String breadcrumbId = MDC.get("camel.breadcrumbId");
 
             if (siri.getServiceDelivery() != null && validate) {
-                validationExecutorService.execute(() -> {
+                final long queuedAt = System.currentTimeMillis();
+                boolean accepted = validationExecutor.submit(() -> {
                     MDC.put("subscriptionId", subscriptionSetup.getSubscriptionId());
                     MDC.put("camel.breadcrumbId", breadcrumbId);
+                    metricsService.registerValidationQueueTime(subscriptionSetup.getSubscriptionType(), System.currentTimeMillis() - queuedAt);
                     performProfileValidation(subscriptionSetup, xml, siri, schemaValidationHandler);
                     MDC.remove("camel.breadcrumbId");
                     MDC.remove("subscriptionId");
-                });
+                }, explicitValidation,
+                    () -> metricsService.registerDroppedValidation(subscriptionSetup.getSubscriptionType(), subscriptionSetup.getDatasetId()));
+
+                if (!accepted) {
+                    logger.info("Validation-queue is full, skipping profile-validation for this delivery");
+                    metricsService.registerDroppedValidation(subscriptionSetup.getSubscriptionType(), subscriptionSetup.getDatasetId());
+                }
             }
 
             long parseDone = System.currentTimeMillis();
@@ -261,12 +272,11 @@ public class SiriXmlValidator extends ApplicationContextHolder {
             schemaHandler.categorizedEvents.isEmpty(), profileHandler.categorizedEvents.isEmpty());
     }
 
-    private static AtomicInteger concurrentValidationThreads = new AtomicInteger();
     private boolean performProfileValidation(
-        SubscriptionSetup subscriptionSetup, InputStream xml, Siri siri, SiriValidationEventHandler schemaValidationResults
+        SubscriptionSetup subscriptionSetup, String originalXml, Siri siri, SiriValidationEventHandler schemaValidationResults
     ) {
-        concurrentValidationThreads.incrementAndGet();
         long validationStart = System.currentTimeMillis();
+        long validationStartNanos = System.nanoTime();
 
         try {
 
@@ -278,13 +288,6 @@ public class SiriXmlValidator extends ApplicationContextHolder {
                 return false;
             }
 
-            /*
-             * Re-marshalling SIRI-data for filtering-purposes
-             */
-            xml.reset();
-
-            String originalXml = new String(xml.readAllBytes());
-
             SiriValidationEventHandler profileValidationResults = new SiriValidationEventHandler();
 
             validateAttributes(originalXml, type, siri, profileValidationResults);
@@ -324,9 +327,12 @@ public class SiriXmlValidator extends ApplicationContextHolder {
 
             long validationDone = System.currentTimeMillis();
 
-            logger.info("Async validation took: {} ms, {} concurrent validations queued",
+            metricsService.registerValidationTime(subscriptionSetup.getSubscriptionType(), validationDone - validationStart);
+            metricsService.registerPipelineStage(PipelineStage.PROFILE_VALIDATION, subscriptionSetup, System.nanoTime() - validationStartNanos);
+
+            logger.info("Async validation took: {} ms, {} validations queued",
                 validationDone-validationStart,
-                concurrentValidationThreads.decrementAndGet());
+                validationExecutor.getQueueSize());
         }
         return false;
     }
@@ -345,9 +351,7 @@ public class SiriXmlValidator extends ApplicationContextHolder {
         XPath xpath = xpathFactory.newXPath();
         DocumentBuilder builder = builderFactory.newDocumentBuilder();
 
-        InputStream stream = new ByteArrayInputStream(siriXml.getBytes(StandardCharsets.UTF_8));
-
-        Document xmlDocument = builder.parse(stream);
+        Document xmlDocument = builder.parse(new InputSource(new StringReader(siriXml)));
 
         int errorCounter = 0;
         int ruleCounter = 0;
@@ -22,6 +22,7 @@ import no.rutebanken.anshar.config.AnsharConfiguration;
 import no.rutebanken.anshar.data.*;
 import no.rutebanken.anshar.routes.health.HealthManager;
 import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
+import no.rutebanken.anshar.subscription.helpers.DeliveryChangeStats;
 import no.rutebanken.anshar.subscription.helpers.RequestType;
 import org.apache.commons.io.FileUtils;
 import org.json.simple.JSONArray;
@@ -66,6 +67,10 @@ public class SubscriptionManager {
     @Qualifier("getReceivedBytesMap")
     private IMap<String, Long> receivedBytes;
 
+    @Autowired
+    @Qualifier("getDeliveryChangeStatsMap")
+    private IMap<String, DeliveryChangeStats> deliveryChangeStats;
+
     @Autowired
     @Qualifier("getActivatedTimestampMap")
     IMap<String, java.time.Instant> activatedTimestamp;
@@ -139,6 +144,7 @@ public class SubscriptionManager {
             lastActivity.remove(subscriptionId);
             hitcount.remove(subscriptionId);
             objectCounter.remove(subscriptionId);
+            deliveryChangeStats.remove(subscriptionId);
         } else if (found) {
             setup.setActive(false);
             addSubscription(subscriptionId, setup);
@@ -230,6 +236,19 @@ public class SubscriptionManager {
         }
     }
 
+    /**
+     * Keeps track of how much polled data changes - used to adapt polling-interval
+     */
+    public void registerDeliveryChanges(SubscriptionSetup subscriptionSetup, int receivedCount, int changedCount, long processingMillis) {
+        if (subscriptionSetup.getSubscriptionMode() == SubscriptionSetup.SubscriptionMode.REQUEST_RESPONSE) {
+            deliveryChangeStats.set(subscriptionSetup.getSubscriptionId(), new DeliveryChangeStats(receivedCount, changedCount, processingMillis));
+        }
+    }
+
+    public DeliveryChangeStats getDeliveryChangeStats(String subscriptionId) {
+        return deliveryChangeStats.get(subscriptionId);
+    }
+
     public boolean isActiveSubscription(String subscriptionId) {
         SubscriptionSetup subscriptionSetup = subscriptions.get(subscriptionId);
         if (subscriptionSetup != null) {
@@ -0,0 +1,63 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.subscription.helpers;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * Number of received and new/changed objects in the last processed delivery for a subscription.
+ */
+public class DeliveryChangeStats implements Serializable {
+
+    private final int receivedCount;
+    private final int changedCount;
+    private final long processingMillis;
+    private final Instant processed;
+
+    public DeliveryChangeStats(int receivedCount, int changedCount, long processingMillis) {
+        this.receivedCount = receivedCount;
+        this.changedCount = changedCount;
+        this.processingMillis = processingMillis;
+        this.processed = Instant.now();
+    }
+
+    public int getReceivedCount() {
+        return receivedCount;
+    }
+
+    public int getChangedCount() {
+        return changedCount;
+    }
+
+    public long getProcessingMillis() {
+        return processingMillis;
+    }
+
+    public Instant getProcessed() {
+        return processed;
+    }
+
+    /**
+     * @return fraction of received objects that were new or changed
+     */
+    public double getChangeRate() {
+        if (receivedCount <= 0) {
+            return 0;
+        }
+        return Math.min(1.0, (double) changedCount / receivedCount);
+    }
+}
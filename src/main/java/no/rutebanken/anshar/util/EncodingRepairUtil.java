@@ -0,0 +1,81 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.util;
+
+public class EncodingRepairUtil {
+
+    /*
+     * UTF-8 encoded æøåÆØÅ decoded as ISO-8859-1/windows-1252 all start with 'Ã'
+     */
+    private static final char MOJIBAKE_PREFIX = 'Ã';
+
+    private EncodingRepairUtil() {
+        //should not be instantiated
+    }
+
+    /**
+     * Replaces characters created by wrong encoding (e.g. "Ã¸" -> "ø") in a single pass.
+     *
+     * @param text text to repair
+     * @return repaired text - the same instance is returned when no repair is needed
+     */
+    public static String fixEncodingErrors(String text) {
+        if (text == null) {
+            return null;
+        }
+
+        int index = text.indexOf(MOJIBAKE_PREFIX);
+        if (index < 0) {
+            return text;
+        }
+
+        StringBuilder builder = null;
+        int copiedUntil = 0;
+        final int length = text.length();
+
+        while (index >= 0 && index < length - 1) {
+            char replacement = replacementFor(text.charAt(index + 1));
+            if (replacement != 0) {
+                if (builder == null) {
+                    builder = new StringBuilder(length);
+                }
+                builder.append(text, copiedUntil, index).append(replacement);
+                copiedUntil = index + 2;
+                index = text.indexOf(MOJIBAKE_PREFIX, copiedUntil);
+            } else {
+                index = text.indexOf(MOJIBAKE_PREFIX, index + 1);
+            }
+        }
+
+        if (builder == null) {
+            return text;
+        }
+        builder.append(text, copiedUntil, length);
+        return builder.toString();
+    }
+
+    private static char replacementFor(char c) {
+        switch (c) {
+            case '¦':       return 'æ';
+            case '†':       return 'Æ';
+            case '¸':       return 'ø';
+            case '\u0098':  return 'Ø';
+            case '¥':       return 'å';
+            case '\u0085':  return 'Å';
+            default:        return 0;
+        }
+    }
+}
@@ -16,6 +16,9 @@
 package no.rutebanken.anshar.data;
 
 import no.rutebanken.anshar.integration.SpringBootBaseTest;
+import no.rutebanken.anshar.routes.outbound.OutboundSubscriptionSetup;
+import no.rutebanken.anshar.routes.outbound.SiriHelper;
+import no.rutebanken.anshar.subscription.SiriDataType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -34,8 +37,11 @@ import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static no.rutebanken.anshar.helpers.SleepUtil.sleep;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -49,6 +55,9 @@ public class EstimatedTimetablesTest extends SpringBootBaseTest {
     @Autowired
     private EstimatedTimetables estimatedTimetables;
 
+    @Autowired
+    private SiriHelper siriHelper;
+
     @BeforeEach
     public void init() {
         estimatedTimetables.clearAll();
@@ -663,4 +672,77 @@ public class EstimatedTimetablesTest extends SpringBootBaseTest {
         recordedCall.setDeparturePlatformName(call.getDeparturePlatformName());
         return recordedCall;
     }
+
+    @Test
+    public void testReadInPages() {
+        for (int i = 0; i < 5; i++) {
+            estimatedTimetables.add("test", createEstimatedVehicleJourney("1234-paged", "paged-" + i, 0, 10, ZonedDateTime.now().plusMinutes(1), true));
+        }
+        estimatedTimetables.add("other", createEstimatedVehicleJourney("1234-paged", "paged-other", 0, 10, ZonedDateTime.now().plusMinutes(1), true));
+
+        assertEquals(List.of(2, 2, 1), pageSizes(estimatedTimetables.getPages("test", 2)));
+        assertEquals(List.of(1), pageSizes(estimatedTimetables.getPages("other", 2)));
+        assertEquals(List.of(6), pageSizes(estimatedTimetables.getPages(null, 10)));
+    }
+
+    @Test
+    public void testReadInPagesSkipsRemovedElements() {
+        for (int i = 0; i < 5; i++) {
+            estimatedTimetables.add("test", createEstimatedVehicleJourney("1234-paged", "paged-" + i, 0, 10, ZonedDateTime.now().plusMinutes(1), true));
+        }
+        estimatedTimetables.add("other", createEstimatedVehicleJourney("1234-paged", "paged-other", 0, 10, ZonedDateTime.now().plusMinutes(1), true));
+
+        // Keys are read up front - values removed before the page is read are skipped
+        Iterator<Collection<EstimatedVehicleJourney>> pages = estimatedTimetables.getPages(null, 1);
+        estimatedTimetables.clearAllByDatasetId("test");
+
+        assertEquals(List.of(1), pageSizes(pages));
+    }
+
+    @Test
+    public void testInitialDeliveryInPages() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            estimatedTimetables.add("test", createEstimatedVehicleJourney("1234-paged", "paged-" + i, 0, 10, ZonedDateTime.now().plusMinutes(1), true));
+        }
+
+        List<Siri> deliveries = new ArrayList<>();
+        int count = siriHelper.forEachInitialDelivery(createSubscription(SiriDataType.ESTIMATED_TIMETABLE, "test"), 2, Runnable::run, delivery -> {
+            deliveries.add(delivery);
+            return CompletableFuture.completedFuture(true);
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(5, count);
+        assertEquals(3, deliveries.size());
+        for (Siri delivery : deliveries) {
+            assertFalse(delivery.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                .getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies().isEmpty());
+        }
+    }
+
+    @Test
+    public void testInitialDeliveryStopsWhenPageIsNotDelivered() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            estimatedTimetables.add("test", createEstimatedVehicleJourney("1234-paged", "paged-" + i, 0, 10, ZonedDateTime.now().plusMinutes(1), true));
+        }
+
+        List<Siri> deliveries = new ArrayList<>();
+        int count = siriHelper.forEachInitialDelivery(createSubscription(SiriDataType.ESTIMATED_TIMETABLE, "test"), 2, Runnable::run, delivery -> {
+            deliveries.add(delivery);
+            return CompletableFuture.completedFuture(false);
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, count);
+        assertEquals(1, deliveries.size());
+    }
+
+    private static OutboundSubscriptionSetup createSubscription(SiriDataType dataType, String datasetId) {
+        return new OutboundSubscriptionSetup(ZonedDateTime.now(), dataType, "http://localhost", 60000, 0,
+            null, null, UUID.randomUUID().toString(), "test", ZonedDateTime.now().plusHours(1), datasetId, null, null);
+    }
+
+    private static <T> List<Integer> pageSizes(Iterator<Collection<T>> pages) {
+        List<Integer> sizes = new ArrayList<>();
+        pages.forEachRemaining(page -> sizes.add(page.size()));
+        return sizes;
+    }
 }
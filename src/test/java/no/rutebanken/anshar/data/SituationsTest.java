@@ -16,21 +16,33 @@
 package no.rutebanken.anshar.data;
 
 import no.rutebanken.anshar.integration.SpringBootBaseTest;
+import no.rutebanken.anshar.routes.outbound.OutboundSubscriptionSetup;
+import no.rutebanken.anshar.routes.outbound.SiriHelper;
 import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
+import no.rutebanken.anshar.subscription.SiriDataType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import uk.org.siri.siri21.HalfOpenTimestampOutputRangeStructure;
 import uk.org.siri.siri21.PtSituationElement;
+import uk.org.siri.siri21.Siri;
 import uk.org.siri.siri21.SituationNumber;
 import uk.org.siri.siri21.SituationVersion;
 import uk.org.siri.siri21.WorkflowStatusEnumeration;
 
 import java.math.BigInteger;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static no.rutebanken.anshar.helpers.SleepUtil.sleep;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -42,6 +54,9 @@ public class SituationsTest extends SpringBootBaseTest {
     @Autowired
     private SiriObjectFactory siriObjectFactory;
 
+    @Autowired
+    private SiriHelper siriHelper;
+
     @BeforeEach
     public void init() {
         situations.clearAll();
@@ -282,4 +297,61 @@ public class SituationsTest extends SpringBootBaseTest {
         element.getValidityPeriods().add(period);
         return element;
     }
+
+    @Test
+    public void testReadInPages() {
+        for (int i = 0; i < 5; i++) {
+            situations.add("test", createPtSituationElement("tst", "paged-" + i, ZonedDateTime.now().minusDays(1), ZonedDateTime.now().plusHours(4)));
+        }
+        situations.add("other", createPtSituationElement("oth", "paged-other", ZonedDateTime.now().minusDays(1), ZonedDateTime.now().plusHours(4)));
+
+        assertEquals(List.of(2, 2, 1), pageSizes(situations.getPages("test", 2)));
+        assertEquals(List.of(1), pageSizes(situations.getPages("other", 2)));
+        assertEquals(List.of(6), pageSizes(situations.getPages(null, 10)));
+    }
+
+    @Test
+    public void testReadInPagesSkipsRemovedElements() {
+        for (int i = 0; i < 5; i++) {
+            situations.add("test", createPtSituationElement("tst", "paged-" + i, ZonedDateTime.now().minusDays(1), ZonedDateTime.now().plusHours(4)));
+        }
+        situations.add("other", createPtSituationElement("oth", "paged-other", ZonedDateTime.now().minusDays(1), ZonedDateTime.now().plusHours(4)));
+
+        // Keys are read up front - values removed before the page is read are skipped
+        Iterator<Collection<PtSituationElement>> pages = situations.getPages(null, 1);
+        situations.clearAllByDatasetId("test");
+
+        assertEquals(List.of(1), pageSizes(pages));
+    }
+
+    @Test
+    public void testInitialDeliveryInPages() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            situations.add("test", createPtSituationElement("tst", "paged-" + i, ZonedDateTime.now().minusDays(1), ZonedDateTime.now().plusHours(4)));
+        }
+
+        List<Siri> deliveries = new ArrayList<>();
+        int count = siriHelper.forEachInitialDelivery(createSubscription(SiriDataType.SITUATION_EXCHANGE, "test"), 2, Runnable::run, delivery -> {
+            deliveries.add(delivery);
+            return CompletableFuture.completedFuture(true);
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(5, count);
+        assertEquals(3, deliveries.size());
+        for (Siri delivery : deliveries) {
+            assertFalse(delivery.getServiceDelivery().getSituationExchangeDeliveries().get(0)
+                .getSituations().getPtSituationElements().isEmpty());
+        }
+    }
+
+    private static OutboundSubscriptionSetup createSubscription(SiriDataType dataType, String datasetId) {
+        return new OutboundSubscriptionSetup(ZonedDateTime.now(), dataType, "http://localhost", 60000, 0,
+            null, null, UUID.randomUUID().toString(), "test", ZonedDateTime.now().plusHours(1), datasetId, null, null);
+    }
+
+    private static <T> List<Integer> pageSizes(Iterator<Collection<T>> pages) {
+        List<Integer> sizes = new ArrayList<>();
+        pages.forEachRemaining(page -> sizes.add(page.size()));
+        return sizes;
+    }
 }
@@ -15,7 +15,12 @@
 
 package no.rutebanken.anshar.data;
 
+import io.micrometer.core.instrument.Timer;
 import no.rutebanken.anshar.integration.SpringBootBaseTest;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.routes.outbound.OutboundSubscriptionSetup;
+import no.rutebanken.anshar.routes.outbound.SiriHelper;
+import no.rutebanken.anshar.subscription.SiriDataType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
@@ -29,9 +34,14 @@ import uk.org.siri.siri21.VehicleRef;
 
 import java.math.BigDecimal;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static no.rutebanken.anshar.helpers.SleepUtil.sleep;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -44,6 +54,12 @@ public class VehicleActivitiesTest extends SpringBootBaseTest {
 
     @Autowired
     private VehicleActivities vehicleActivities;
+
+    @Autowired
+    private PrometheusMetricsService metrics;
+
+    @Autowired
+    private SiriHelper siriHelper;
     
     @BeforeEach
     public void init() {
@@ -60,6 +76,22 @@ public class VehicleActivitiesTest extends SpringBootBaseTest {
         assertEquals(previousSize + 1, vehicleActivities.getAll().size(), "Vehicle not added");
     }
 
+    @Test
+    public void testIngestLagRegistered() {
+        String datasetId = "lag-" + UUID.randomUUID();
+        VehicleActivityStructure element = createVehicleActivityStructure(
+                                                    ZonedDateTime.now().minusSeconds(30), UUID.randomUUID().toString());
+
+        vehicleActivities.add(datasetId, element);
+
+        Timer ingestLag = metrics.find("app.anshar.data.freshness.ingest")
+            .tag("codespace", datasetId)
+            .timer();
+        assertNotNull(ingestLag);
+        assertEquals(1, ingestLag.count());
+        assertTrue(ingestLag.max(TimeUnit.SECONDS) >= 30);
+    }
+
     @Test
     public void testNullVehicle() {
         int previousSize = vehicleActivities.getAll().size();
@@ -299,4 +331,60 @@ public class VehicleActivitiesTest extends SpringBootBaseTest {
         }
     }
 
+
+    @Test
+    public void testReadInPages() {
+        for (int i = 0; i < 5; i++) {
+            vehicleActivities.add("test", createVehicleActivityStructure(ZonedDateTime.now(), UUID.randomUUID().toString()));
+        }
+        vehicleActivities.add("other", createVehicleActivityStructure(ZonedDateTime.now(), UUID.randomUUID().toString()));
+
+        assertEquals(List.of(2, 2, 1), pageSizes(vehicleActivities.getPages("test", 2)));
+        assertEquals(List.of(1), pageSizes(vehicleActivities.getPages("other", 2)));
+        assertEquals(List.of(6), pageSizes(vehicleActivities.getPages(null, 10)));
+    }
+
+    @Test
+    public void testReadInPagesSkipsRemovedElements() {
+        for (int i = 0; i < 5; i++) {
+            vehicleActivities.add("test", createVehicleActivityStructure(ZonedDateTime.now(), UUID.randomUUID().toString()));
+        }
+        vehicleActivities.add("other", createVehicleActivityStructure(ZonedDateTime.now(), UUID.randomUUID().toString()));
+
+        // Keys are read up front - values removed before the page is read are skipped
+        Iterator<Collection<VehicleActivityStructure>> pages = vehicleActivities.getPages(null, 1);
+        vehicleActivities.clearAllByDatasetId("test");
+
+        assertEquals(List.of(1), pageSizes(pages));
+    }
+
+    @Test
+    public void testInitialDeliveryInPages() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            vehicleActivities.add("test", createVehicleActivityStructure(ZonedDateTime.now(), UUID.randomUUID().toString()));
+        }
+
+        List<Siri> deliveries = new ArrayList<>();
+        int count = siriHelper.forEachInitialDelivery(createSubscription(SiriDataType.VEHICLE_MONITORING, "test"), 2, Runnable::run, delivery -> {
+            deliveries.add(delivery);
+            return CompletableFuture.completedFuture(true);
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(5, count);
+        assertEquals(3, deliveries.size());
+        for (Siri delivery : deliveries) {
+            assertFalse(delivery.getServiceDelivery().getVehicleMonitoringDeliveries().get(0).getVehicleActivities().isEmpty());
+        }
+    }
+
+    private static OutboundSubscriptionSetup createSubscription(SiriDataType dataType, String datasetId) {
+        return new OutboundSubscriptionSetup(ZonedDateTime.now(), dataType, "http://localhost", 60000, 0,
+            null, null, UUID.randomUUID().toString(), "test", ZonedDateTime.now().plusHours(1), datasetId, null, null);
+    }
+
+    private static <T> List<Integer> pageSizes(Iterator<Collection<T>> pages) {
+        List<Integer> sizes = new ArrayList<>();
+        pages.forEachRemaining(page -> sizes.add(page.size()));
+        return sizes;
+    }
 }
@@ -0,0 +1,66 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.integration;
+
+import io.restassured.http.ContentType;
+import no.rutebanken.anshar.metrics.PipelineStage;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItems;
+
+public class PipelineStatsTest extends BaseHttpTest {
+
+    private static final String SUBSCRIPTION_ID = "pipeline.stats.test";
+
+    @Autowired
+    private PrometheusMetricsService metrics;
+
+    @Test
+    public void testPipelineStatsRequireLogin() {
+        given()
+                .when()
+                .get("anshar/pipeline")
+                .then()
+                .statusCode(401);
+    }
+
+    @Test
+    public void testPipelineStats() {
+        metrics.registerPipelineStage(PipelineStage.PARSE, SUBSCRIPTION_ID, SiriDataType.ESTIMATED_TIMETABLE, TimeUnit.MILLISECONDS.toNanos(20));
+        metrics.registerPipelineStage(PipelineStage.PARSE, SUBSCRIPTION_ID, SiriDataType.ESTIMATED_TIMETABLE, TimeUnit.MILLISECONDS.toNanos(40));
+        metrics.registerPipelineStage(PipelineStage.ADD_ALL, SUBSCRIPTION_ID, SiriDataType.ESTIMATED_TIMETABLE, TimeUnit.MILLISECONDS.toNanos(5));
+
+        given()
+                .auth().preemptive().basic("user", "pass")
+                .when()
+                .get("anshar/pipeline")
+                .then()
+                .statusCode(200)
+                .contentType(ContentType.JSON)
+                .body("findAll { it.subscriptionId == '" + SUBSCRIPTION_ID + "' }.stage", hasItems("ADD_ALL", "PARSE"))
+                .body("find { it.subscriptionId == '" + SUBSCRIPTION_ID + "' && it.stage == 'PARSE' }.dataType", equalTo("ESTIMATED_TIMETABLE"))
+                .body("find { it.subscriptionId == '" + SUBSCRIPTION_ID + "' && it.stage == 'PARSE' }.count", equalTo(2))
+                .body("find { it.subscriptionId == '" + SUBSCRIPTION_ID + "' && it.stage == 'PARSE' }.max", equalTo(40.0f))
+        ;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.metrics;
+
+import io.micrometer.core.instrument.Timer;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class PipelineStageMetricsTest {
+
+    private PrometheusMetricsService metrics;
+
+    @BeforeEach
+    public void init() {
+        metrics = new PrometheusMetricsService();
+    }
+
+    @AfterEach
+    public void shutdown() {
+        metrics.shutdown();
+    }
+
+    @Test
+    public void testStageIsRecordedInSameTimer() {
+        metrics.registerPipelineStage(PipelineStage.PARSE, "sub-1", SiriDataType.ESTIMATED_TIMETABLE, TimeUnit.MILLISECONDS.toNanos(10));
+        Timer timer = getTimer(PipelineStage.PARSE, "sub-1", SiriDataType.ESTIMATED_TIMETABLE);
+
+        metrics.registerPipelineStage(PipelineStage.PARSE, "sub-1", SiriDataType.ESTIMATED_TIMETABLE, TimeUnit.MILLISECONDS.toNanos(30));
+
+        assertSame(timer, getTimer(PipelineStage.PARSE, "sub-1", SiriDataType.ESTIMATED_TIMETABLE));
+        assertEquals(2, timer.count());
+        assertEquals(40.0, timer.totalTime(TimeUnit.MILLISECONDS));
+        assertEquals(30.0, timer.max(TimeUnit.MILLISECONDS));
+        assertEquals(1, metrics.getPipelineStageTimers().size());
+    }
+
+    @Test
+    public void testStagesAreSeparatedPerSubscriptionAndType() {
+        metrics.registerPipelineStage(PipelineStage.PARSE, "sub-1", SiriDataType.ESTIMATED_TIMETABLE, 1);
+        metrics.registerPipelineStage(PipelineStage.ADD_ALL, "sub-1", SiriDataType.ESTIMATED_TIMETABLE, 1);
+        metrics.registerPipelineStage(PipelineStage.PARSE, "sub-2", SiriDataType.ESTIMATED_TIMETABLE, 1);
+        metrics.registerPipelineStage(PipelineStage.PARSE, "sub-1", SiriDataType.VEHICLE_MONITORING, 1);
+
+        assertEquals(4, metrics.getPipelineStageTimers().size());
+        for (Timer timer : metrics.getPipelineStageTimers()) {
+            assertEquals(1, timer.count());
+        }
+    }
+
+    @Test
+    public void testMissingSubscriptionIsTaggedAsEmpty() {
+        metrics.registerPipelineStage(PipelineStage.OUTBOUND_PUSH, null, null, 1);
+        metrics.registerPipelineStage(PipelineStage.OUTBOUND_PUSH, null, null, 1);
+
+        Timer timer = metrics.find("app.anshar.pipeline.stage")
+            .tag("stage", PipelineStage.OUTBOUND_PUSH.name())
+            .tag("subscriptionId", "")
+            .tag("dataType", "")
+            .timer();
+        assertNotNull(timer);
+        assertEquals(2, timer.count());
+    }
+
+    @Test
+    public void testStagesAreRemovedWithSubscription() {
+        metrics.registerPipelineStage(PipelineStage.PARSE, "sub-1", SiriDataType.ESTIMATED_TIMETABLE, 1);
+        metrics.registerPipelineStage(PipelineStage.ADD_ALL, "sub-1", SiriDataType.ESTIMATED_TIMETABLE, 1);
+        metrics.registerPipelineStage(PipelineStage.PARSE, "sub-2", SiriDataType.ESTIMATED_TIMETABLE, 1);
+
+        metrics.removePipelineStages("sub-1");
+
+        assertEquals(1, metrics.getPipelineStageTimers().size());
+
+        // Registered again if the subscription is still delivering
+        metrics.registerPipelineStage(PipelineStage.PARSE, "sub-1", SiriDataType.ESTIMATED_TIMETABLE, 1);
+        assertEquals(1, getTimer(PipelineStage.PARSE, "sub-1", SiriDataType.ESTIMATED_TIMETABLE).count());
+    }
+
+    private Timer getTimer(PipelineStage stage, String subscriptionId, SiriDataType dataType) {
+        Timer timer = metrics.find("app.anshar.pipeline.stage")
+            .tag("stage", stage.name())
+            .tag("subscriptionId", subscriptionId)
+            .tag("dataType", dataType.name())
+            .timer();
+        assertNotNull(timer);
+        return timer;
+    }
+}
@@ -19,10 +19,15 @@ import no.rutebanken.anshar.routes.outbound.SiriHelper;
 import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.EstimatedTimetableDeliveryStructure;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
 import uk.org.siri.siri21.LineRef;
+import uk.org.siri.siri21.MessageQualifierStructure;
 import uk.org.siri.siri21.Siri;
+import uk.org.siri.siri21.SubscriptionQualifierStructure;
 import uk.org.siri.siri21.VehicleActivityStructure;
 import uk.org.siri.siri21.VehicleRef;
+import uk.org.siri.siri21.VersionRefStructure;
 
 import java.time.Instant;
 import java.util.ArrayList;
@@ -37,6 +42,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class SiriHelperTest {
@@ -185,6 +191,72 @@ public class SiriHelperTest {
         assertEquals(filteredSizeAfter, filteredSizeAfter2, "Filtered size does not match");
     }
 
+    @Test
+    public void testFilteredElementsAreNotCopied() {
+        List<EstimatedVehicleJourney> etElements = new ArrayList<>();
+        etElements.add(createEstimatedVehicleJourney("1234"));
+        etElements.add(createEstimatedVehicleJourney("2345"));
+        etElements.add(createEstimatedVehicleJourney("3456"));
+
+        Siri siri = siriObjectFactory.createETServiceDelivery(etElements);
+        siri.getServiceDelivery().setMoreData(true);
+
+        Map<Class, Set<String>> filter = new HashMap<>();
+        filter.put(LineRef.class, new HashSet<>(Arrays.asList("2345")));
+
+        Siri filtered = SiriHelper.filterSiriPayload(siri, filter);
+
+        List<EstimatedVehicleJourney> filteredElements = filtered.getServiceDelivery()
+            .getEstimatedTimetableDeliveries().get(0)
+            .getEstimatedJourneyVersionFrames().get(0)
+            .getEstimatedVehicleJourneies();
+
+        assertEquals(1, filteredElements.size());
+        assertSame(etElements.get(1), filteredElements.get(0), "Matching element has been copied");
+        assertTrue(filtered.getServiceDelivery().isMoreData());
+
+        assertEquals(3, siri.getServiceDelivery()
+            .getEstimatedTimetableDeliveries().get(0)
+            .getEstimatedJourneyVersionFrames().get(0)
+            .getEstimatedVehicleJourneies().size(), "Original object has been altered");
+    }
+
+    @Test
+    public void testFilteredHeaderFieldsAreKept() {
+        Siri siri = siriObjectFactory.createETServiceDelivery(List.of(createEstimatedVehicleJourney("1234"), createEstimatedVehicleJourney("2345")));
+
+        MessageQualifierStructure responseMessageIdentifier = new MessageQualifierStructure();
+        responseMessageIdentifier.setValue("message-1");
+        siri.getServiceDelivery().setResponseMessageIdentifier(responseMessageIdentifier);
+        siri.getServiceDelivery().setAddress("http://localhost/producer");
+
+        EstimatedTimetableDeliveryStructure delivery = siri.getServiceDelivery().getEstimatedTimetableDeliveries().get(0);
+        SubscriptionQualifierStructure subscriptionRef = new SubscriptionQualifierStructure();
+        subscriptionRef.setValue("subscription-1");
+        delivery.setSubscriptionRef(subscriptionRef);
+        delivery.setDefaultLanguage("no");
+
+        VersionRefStructure versionRef = new VersionRefStructure();
+        versionRef.setValue("version-1");
+        delivery.getEstimatedJourneyVersionFrames().get(0).setVersionRef(versionRef);
+
+        Map<Class, Set<String>> filter = new HashMap<>();
+        filter.put(LineRef.class, new HashSet<>(Arrays.asList("2345")));
+
+        Siri filtered = SiriHelper.filterSiriPayload(siri, filter);
+
+        assertSame(responseMessageIdentifier, filtered.getServiceDelivery().getResponseMessageIdentifier());
+        assertEquals("http://localhost/producer", filtered.getServiceDelivery().getAddress());
+        assertEquals(siri.getServiceDelivery().getProducerRef(), filtered.getServiceDelivery().getProducerRef());
+
+        EstimatedTimetableDeliveryStructure filteredDelivery = filtered.getServiceDelivery().getEstimatedTimetableDeliveries().get(0);
+        assertSame(subscriptionRef, filteredDelivery.getSubscriptionRef());
+        assertEquals("no", filteredDelivery.getDefaultLanguage());
+        assertEquals(delivery.getVersion(), filteredDelivery.getVersion());
+        assertSame(versionRef, filteredDelivery.getEstimatedJourneyVersionFrames().get(0).getVersionRef());
+        assertEquals(1, filteredDelivery.getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies().size());
+    }
+
     @Test
     public void testSplitDelivery(){
 
@@ -224,6 +296,14 @@ public class SiriHelperTest {
         assertEquals(siri, splitDeliveries.get(0));
     }
 
+    private EstimatedVehicleJourney createEstimatedVehicleJourney(String lineRefValue) {
+        EstimatedVehicleJourney journey = new EstimatedVehicleJourney();
+        LineRef lineRef = new LineRef();
+        lineRef.setValue(lineRefValue);
+        journey.setLineRef(lineRef);
+        return journey;
+    }
+
     private VehicleActivityStructure createVehicleActivity(String lineRefValue, String vehicleRefValue) {
         VehicleActivityStructure v = new VehicleActivityStructure();
         VehicleActivityStructure.MonitoredVehicleJourney mvj = new VehicleActivityStructure.MonitoredVehicleJourney();
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class ContentEncodingHandlerTest {
+
+    private Server server;
+
+    private URI endpoint;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeEach
+    public void init() throws Exception {
+        ContentEncodingHandler handler = new ContentEncodingHandler(100);
+        // Echoes the request body
+        handler.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+                byte[] body = request.getInputStream().readAllBytes();
+                response.setContentType("application/xml");
+                response.getOutputStream().write(body);
+                baseRequest.setHandled(true);
+            }
+        });
+
+        server = new Server(0);
+        server.setHandler(handler);
+        server.start();
+        endpoint = URI.create("http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/siri");
+    }
+
+    @AfterEach
+    public void shutdown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void testCompressedRequestAndResponse() throws Exception {
+        String xml = createXml(100);
+
+        HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(endpoint)
+                .header("Content-Encoding", "gzip")
+                .header("Accept-Encoding", "gzip")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(gzip(xml)))
+                .build(),
+            HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(200, response.statusCode());
+        assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+        assertEquals(xml, gunzip(response.body()));
+    }
+
+    @Test
+    public void testSmallResponseIsNotCompressed() throws Exception {
+        String xml = createXml(1);
+
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(endpoint)
+                .header("Accept-Encoding", "gzip")
+                .POST(HttpRequest.BodyPublishers.ofString(xml))
+                .build(),
+            HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+        assertFalse(response.headers().firstValue("Content-Encoding").isPresent());
+        assertEquals(xml, response.body());
+    }
+
+    @Test
+    public void testUncompressedWhenNotAccepted() throws Exception {
+        String xml = createXml(100);
+
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(endpoint)
+                .POST(HttpRequest.BodyPublishers.ofString(xml))
+                .build(),
+            HttpResponse.BodyHandlers.ofString());
+
+        assertFalse(response.headers().firstValue("Content-Encoding").isPresent());
+        assertEquals(xml, response.body());
+    }
+
+    private static String createXml(int vehicles) {
+        StringBuilder xml = new StringBuilder("<Siri>");
+        for (int i = 0; i < vehicles; i++) {
+            xml.append("<VehicleRef>").append(i).append("</VehicleRef>");
+        }
+        return xml.append("</Siri>").toString();
+    }
+
+    private static byte[] gzip(String value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(value.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    private static String gunzip(byte[] value) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(value))) {
+            return new String(gzip.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
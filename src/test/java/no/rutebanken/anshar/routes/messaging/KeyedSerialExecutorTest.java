@@ -0,0 +1,97 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.messaging;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KeyedSerialExecutorTest {
+
+    @Test
+    public void testSerialPerKey() throws InterruptedException {
+        KeyedSerialExecutor executor = new KeyedSerialExecutor("test", 8, 1000);
+
+        int keys = 4;
+        int tasksPerKey = 100;
+        CountDownLatch done = new CountDownLatch(keys * tasksPerKey);
+
+        Map<String, List<Integer>> results = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        AtomicInteger overlaps = new AtomicInteger();
+
+        for (int i = 0; i < tasksPerKey; i++) {
+            for (int k = 0; k < keys; k++) {
+                String key = "sub-" + k;
+                int sequence = i;
+                executor.submit(key, () -> {
+                    AtomicInteger counter = running.computeIfAbsent(key, s -> new AtomicInteger());
+                    if (counter.incrementAndGet() > 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    results.computeIfAbsent(key, s -> Collections.synchronizedList(new ArrayList<>())).add(sequence);
+                    counter.decrementAndGet();
+                    done.countDown();
+                });
+            }
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+
+        for (List<Integer> sequences : results.values()) {
+            assertEquals(tasksPerKey, sequences.size());
+            for (int i = 0; i < tasksPerKey; i++) {
+                assertEquals(i, sequences.get(i));
+            }
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testParallelAcrossKeys() throws InterruptedException {
+        KeyedSerialExecutor executor = new KeyedSerialExecutor("test", 2, 10);
+
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch otherKeyDone = new CountDownLatch(1);
+
+        executor.submit("sub-1", () -> awaitQuietly(blocker));
+        executor.submit("sub-2", otherKeyDone::countDown);
+
+        assertTrue(otherKeyDone.await(5, TimeUnit.SECONDS));
+
+        blocker.countDown();
+        executor.shutdown();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
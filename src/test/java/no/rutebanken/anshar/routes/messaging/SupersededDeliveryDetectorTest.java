@@ -0,0 +1,65 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.messaging;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SupersededDeliveryDetectorTest {
+
+    @Test
+    public void testResolveVehicleRefs() {
+        String xml = createDelivery(activity("1234"), activity("2345"));
+
+        assertEquals(Set.of("1234", "2345"), SupersededDeliveryDetector.resolveVehicleRefs(xml));
+    }
+
+    @Test
+    public void testNotCoalescable() {
+        assertNull(SupersededDeliveryDetector.resolveVehicleRefs(createDelivery()));
+
+        String missingVehicleRef = "<VehicleActivity><MonitoredVehicleJourney><LineRef>1</LineRef></MonitoredVehicleJourney></VehicleActivity>";
+        assertNull(SupersededDeliveryDetector.resolveVehicleRefs(createDelivery(activity("1234"), missingVehicleRef)));
+
+        String cancellation = "<VehicleActivityCancellation><VehicleRef>1234</VehicleRef></VehicleActivityCancellation>";
+        assertNull(SupersededDeliveryDetector.resolveVehicleRefs(createDelivery(activity("1234"), cancellation)));
+
+        assertNull(SupersededDeliveryDetector.resolveVehicleRefs("<Siri><VehicleMonitoringDelivery>"));
+    }
+
+    @Test
+    public void testSuperseded() {
+        assertTrue(SupersededDeliveryDetector.isSuperseded(Set.of("1"), Set.of("1", "2")));
+        assertFalse(SupersededDeliveryDetector.isSuperseded(Set.of("1", "3"), Set.of("1", "2")));
+        assertFalse(SupersededDeliveryDetector.isSuperseded(null, Set.of("1", "2")));
+    }
+
+    private static String activity(String vehicleRef) {
+        return "<VehicleActivity><MonitoredVehicleJourney><LineRef>1</LineRef><VehicleRef>" + vehicleRef + "</VehicleRef></MonitoredVehicleJourney></VehicleActivity>";
+    }
+
+    private static String createDelivery(String... activities) {
+        return "<Siri xmlns=\"http://www.siri.org.uk/siri\" version=\"2.0\"><ServiceDelivery><VehicleMonitoringDelivery version=\"2.0\">" +
+            String.join("", activities) +
+            "</VehicleMonitoringDelivery></ServiceDelivery></Siri>";
+    }
+}
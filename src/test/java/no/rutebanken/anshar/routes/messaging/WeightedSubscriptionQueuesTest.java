@@ -0,0 +1,170 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.messaging;
+
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static no.rutebanken.anshar.routes.messaging.WeightedSubscriptionQueues.Admission.ACCEPTED;
+import static no.rutebanken.anshar.routes.messaging.WeightedSubscriptionQueues.Admission.OVERLOADED;
+import static no.rutebanken.anshar.routes.messaging.WeightedSubscriptionQueues.Admission.SUBSCRIPTION_QUEUE_FULL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class WeightedSubscriptionQueuesTest {
+
+    private static final Map<SiriDataType, Integer> WEIGHTS = Map.of(
+        SiriDataType.VEHICLE_MONITORING, 4,
+        SiriDataType.ESTIMATED_TIMETABLE, 2,
+        SiriDataType.SITUATION_EXCHANGE, 1
+    );
+
+    @Test
+    public void testCapacity() {
+        WeightedSubscriptionQueues<String> queues = new WeightedSubscriptionQueues<>(2, 3, WEIGHTS);
+
+        assertEquals(ACCEPTED, queues.offer("et-1", SiriDataType.ESTIMATED_TIMETABLE, "1"));
+        assertEquals(ACCEPTED, queues.offer("et-1", SiriDataType.ESTIMATED_TIMETABLE, "2"));
+        assertEquals(SUBSCRIPTION_QUEUE_FULL, queues.offer("et-1", SiriDataType.ESTIMATED_TIMETABLE, "3"));
+
+        assertEquals(ACCEPTED, queues.offer("vm-1", SiriDataType.VEHICLE_MONITORING, "1"));
+        assertEquals(OVERLOADED, queues.offer("vm-1", SiriDataType.VEHICLE_MONITORING, "2"));
+
+        assertEquals(2, queues.size("et-1"));
+        assertEquals(1, queues.size("vm-1"));
+        assertEquals(3, queues.size());
+    }
+
+    @Test
+    public void testWeightedOrder() throws InterruptedException {
+        WeightedSubscriptionQueues<String> queues = new WeightedSubscriptionQueues<>(10, 100, WEIGHTS);
+
+        for (int i = 0; i < 7; i++) {
+            queues.offer("et-1", SiriDataType.ESTIMATED_TIMETABLE, "et");
+            queues.offer("vm-1", SiriDataType.VEHICLE_MONITORING, "vm");
+            queues.offer("sx-1", SiriDataType.SITUATION_EXCHANGE, "sx");
+        }
+
+        List<SiriDataType> first = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            WeightedSubscriptionQueues.QueuedItem<String> item = queues.poll(1, TimeUnit.SECONDS);
+            queues.complete(item.getSubscriptionId());
+            first.add(item.getDataType());
+        }
+
+        assertEquals(4, first.stream().filter(SiriDataType.VEHICLE_MONITORING::equals).count());
+        assertEquals(2, first.stream().filter(SiriDataType.ESTIMATED_TIMETABLE::equals).count());
+        assertEquals(1, first.stream().filter(SiriDataType.SITUATION_EXCHANGE::equals).count());
+    }
+
+    @Test
+    public void testRoundRobinWithinType() throws InterruptedException {
+        WeightedSubscriptionQueues<String> queues = new WeightedSubscriptionQueues<>(10, 100, WEIGHTS);
+
+        queues.offer("et-1", SiriDataType.ESTIMATED_TIMETABLE, "1-1");
+        queues.offer("et-1", SiriDataType.ESTIMATED_TIMETABLE, "1-2");
+        queues.offer("et-1", SiriDataType.ESTIMATED_TIMETABLE, "1-3");
+        queues.offer("et-2", SiriDataType.ESTIMATED_TIMETABLE, "2-1");
+
+        assertEquals("1-1", pollAndComplete(queues));
+        assertEquals("2-1", pollAndComplete(queues));
+        assertEquals("1-2", pollAndComplete(queues));
+        assertEquals("1-3", pollAndComplete(queues));
+        assertNull(queues.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSerialWithinSubscription() throws InterruptedException {
+        WeightedSubscriptionQueues<String> queues = new WeightedSubscriptionQueues<>(10, 100, WEIGHTS);
+
+        queues.offer("vm-1", SiriDataType.VEHICLE_MONITORING, "1-1");
+        queues.offer("vm-1", SiriDataType.VEHICLE_MONITORING, "1-2");
+        queues.offer("vm-2", SiriDataType.VEHICLE_MONITORING, "2-1");
+
+        assertEquals("1-1", queues.poll(1, TimeUnit.SECONDS).getItem());
+        assertEquals("2-1", queues.poll(1, TimeUnit.SECONDS).getItem());
+
+        // vm-1 is still in progress
+        assertNull(queues.poll(10, TimeUnit.MILLISECONDS));
+
+        queues.complete("vm-1");
+        assertEquals("1-2", queues.poll(1, TimeUnit.SECONDS).getItem());
+    }
+
+    @Test
+    public void testSupersededItemsAreDiscarded() throws InterruptedException {
+        WeightedSubscriptionQueues<String> queues = new WeightedSubscriptionQueues<>(10, 100, WEIGHTS);
+        List<Integer> discarded = new ArrayList<>();
+
+        queues.offer("vm-1", SiriDataType.VEHICLE_MONITORING, "old");
+        queues.offer("vm-1", SiriDataType.VEHICLE_MONITORING, "old");
+        queues.offer("vm-1", SiriDataType.VEHICLE_MONITORING, "other");
+
+        assertEquals(ACCEPTED, queues.offer("vm-1", SiriDataType.VEHICLE_MONITORING, "new", "old"::equals, discarded::add));
+        assertEquals(List.of(2), discarded);
+        assertEquals(2, queues.size());
+
+        assertEquals("other", pollAndComplete(queues));
+        assertEquals("new", pollAndComplete(queues));
+        assertNull(queues.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSupersededItemsAreKeptWhenRejected() {
+        WeightedSubscriptionQueues<String> queues = new WeightedSubscriptionQueues<>(10, 2, WEIGHTS);
+        List<Integer> discarded = new ArrayList<>();
+
+        queues.offer("vm-1", SiriDataType.VEHICLE_MONITORING, "old");
+        queues.offer("vm-2", SiriDataType.VEHICLE_MONITORING, "other");
+
+        assertEquals(OVERLOADED, queues.offer("vm-2", SiriDataType.VEHICLE_MONITORING, "new", "old"::equals, discarded::add));
+        assertEquals(2, queues.size());
+        assertEquals(List.of(), discarded);
+
+        // Superseded items make room for the new item
+        assertEquals(ACCEPTED, queues.offer("vm-1", SiriDataType.VEHICLE_MONITORING, "new", "old"::equals, discarded::add));
+        assertEquals(List.of(1), discarded);
+        assertEquals(2, queues.size());
+    }
+
+    @Test
+    public void testRemove() throws InterruptedException {
+        WeightedSubscriptionQueues<String> queues = new WeightedSubscriptionQueues<>(10, 100, WEIGHTS);
+
+        queues.offer("vm-1", SiriDataType.VEHICLE_MONITORING, "1-1");
+        queues.offer("vm-1", SiriDataType.VEHICLE_MONITORING, "1-2");
+        queues.offer("vm-2", SiriDataType.VEHICLE_MONITORING, "2-1");
+
+        assertEquals(2, queues.remove("vm-1"));
+        assertEquals(0, queues.size("vm-1"));
+        assertEquals(1, queues.size());
+        assertEquals(0, queues.remove("vm-1"));
+
+        assertEquals("2-1", pollAndComplete(queues));
+        assertNull(queues.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    private static String pollAndComplete(WeightedSubscriptionQueues<String> queues) throws InterruptedException {
+        WeightedSubscriptionQueues.QueuedItem<String> item = queues.poll(1, TimeUnit.SECONDS);
+        queues.complete(item.getSubscriptionId());
+        return item.getItem();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.LineRef;
+import uk.org.siri.siri21.Siri;
+import uk.org.siri.siri21.VehicleRef;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FilteredDeliveriesTest {
+
+    private SiriObjectFactory siriObjectFactory;
+    private SiriHelper siriHelper;
+
+    @BeforeEach
+    public void setUp() {
+        siriObjectFactory = new SiriObjectFactory(Instant.now());
+        siriHelper = new SiriHelper(siriObjectFactory);
+    }
+
+    @Test
+    public void testCanonicalFilter() {
+        Map<Class, Set<String>> filter = new HashMap<>();
+        filter.put(LineRef.class, new HashSet<>(List.of("TST:Line:1")));
+        filter.put(VehicleRef.class, new HashSet<>());
+
+        assertEquals(Map.of(LineRef.class, Set.of("TST:Line:1")), SiriHelper.canonicalFilter(filter));
+        assertTrue(SiriHelper.canonicalFilter(Map.of(LineRef.class, new HashSet<>())).isEmpty());
+        assertTrue(SiriHelper.canonicalFilter(null).isEmpty());
+    }
+
+    @Test
+    public void testEqualFiltersShareDeliveries() {
+        Siri payload = siriObjectFactory.createETServiceDelivery(List.of(
+            createEstimatedVehicleJourney("TST:Line:1"),
+            createEstimatedVehicleJourney("TST:Line:2")
+        ));
+        FilteredDeliveries deliveries = new FilteredDeliveries(payload, siriHelper);
+
+        FilteredDeliveries.Deliveries filtered = deliveries.get(SiriHelper.canonicalFilter(Map.of(LineRef.class, Set.of("TST:Line:1"))), 1000);
+        assertSame(filtered, deliveries.get(SiriHelper.canonicalFilter(Map.of(LineRef.class, new HashSet<>(List.of("TST:Line:1")))), 1000));
+        assertTrue(filtered.isFiltered());
+        assertEquals(1, filtered.getParts().get(0).getServiceDelivery()
+            .getEstimatedTimetableDeliveries().get(0)
+            .getEstimatedJourneyVersionFrames().get(0)
+            .getEstimatedVehicleJourneies().size());
+
+        // Different delivery size is split differently
+        assertNotSame(filtered, deliveries.get(SiriHelper.canonicalFilter(Map.of(LineRef.class, Set.of("TST:Line:1"))), 1));
+
+        FilteredDeliveries.Deliveries unfiltered = deliveries.get(SiriHelper.canonicalFilter(null), 1000);
+        assertSame(unfiltered, deliveries.get(SiriHelper.canonicalFilter(Map.of(LineRef.class, new HashSet<>())), 1000));
+        assertFalse(unfiltered.isFiltered());
+
+        assertEquals(3, deliveries.size());
+    }
+
+    private static EstimatedVehicleJourney createEstimatedVehicleJourney(String lineRefValue) {
+        EstimatedVehicleJourney journey = new EstimatedVehicleJourney();
+        LineRef lineRef = new LineRef();
+        lineRef.setValue(lineRefValue);
+        journey.setLineRef(lineRef);
+        return journey;
+    }
+}
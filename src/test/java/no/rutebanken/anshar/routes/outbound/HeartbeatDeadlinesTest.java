@@ -0,0 +1,89 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HeartbeatDeadlinesTest {
+
+    private BlockingQueue<String> due;
+
+    private HeartbeatDeadlines deadlines;
+
+    @BeforeEach
+    public void init() {
+        due = new LinkedBlockingQueue<>();
+        deadlines = new HeartbeatDeadlines(due::add);
+    }
+
+    @AfterEach
+    public void shutdown() {
+        deadlines.shutdown();
+    }
+
+    @Test
+    public void testDueInDeadlineOrder() throws InterruptedException {
+        deadlines.schedule("sub-1", 300);
+        deadlines.schedule("sub-2", 100);
+        assertEquals(2, deadlines.size());
+
+        assertEquals("sub-2", due.poll(5, TimeUnit.SECONDS));
+        assertEquals("sub-1", due.poll(5, TimeUnit.SECONDS));
+
+        // Not rescheduled by callback
+        assertEquals(0, deadlines.size());
+        assertNull(due.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRescheduleReplacesDeadline() throws InterruptedException {
+        deadlines.schedule("sub-1", 100);
+        deadlines.schedule("sub-1", 400);
+        assertEquals(1, deadlines.size());
+
+        assertNull(due.poll(250, TimeUnit.MILLISECONDS));
+        assertEquals("sub-1", due.poll(5, TimeUnit.SECONDS));
+        assertNull(due.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testCancelledDeadlinesAreNotDue() throws InterruptedException {
+        deadlines.schedule("sub-1", 100);
+        deadlines.schedule("sub-2", 100);
+        deadlines.schedule("sub-3", 100);
+
+        deadlines.cancel("sub-1");
+        deadlines.retainAll(Set.of("sub-1", "sub-3"));
+
+        assertFalse(deadlines.isScheduled("sub-2"));
+        assertTrue(deadlines.isScheduled("sub-3"));
+
+        assertEquals("sub-3", due.poll(5, TimeUnit.SECONDS));
+        assertNull(due.poll(300, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import com.hazelcast.cluster.Cluster;
+import com.hazelcast.cluster.Member;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import com.hazelcast.partition.MigrationListener;
+import com.hazelcast.partition.Partition;
+import com.hazelcast.partition.PartitionService;
+import no.rutebanken.anshar.data.collections.ExtendedHazelcastService;
+import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+
+public class HeartbeatSchedulerTest {
+
+    private final Set<String> localSubscriptionIds = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, Member> owners = new ConcurrentHashMap<>();
+
+    private final Member localMember = createMember(true);
+
+    private final Member remoteMember = createMember(false);
+
+    private IMap<String, OutboundSubscriptionSetup> subscriptions;
+
+    private PartitionService partitionService;
+
+    private ExtendedHazelcastService hazelcastService;
+
+    private CamelRouteManager camelRouteManager;
+
+    private HeartbeatScheduler scheduler;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void init() {
+        subscriptions = Mockito.mock(IMap.class);
+        Mockito.when(subscriptions.localKeySet()).thenAnswer(invocation -> new HashSet<>(localSubscriptionIds));
+        Mockito.when(subscriptions.get(anyString())).thenAnswer(invocation -> createSubscription(invocation.getArgument(0)));
+
+        partitionService = Mockito.mock(PartitionService.class);
+        Mockito.when(partitionService.getPartition(any())).thenAnswer(invocation -> createPartition(invocation.getArgument(0)));
+
+        HazelcastInstance hazelcastInstance = Mockito.mock(HazelcastInstance.class);
+        Mockito.when(hazelcastInstance.getPartitionService()).thenReturn(partitionService);
+        Mockito.when(hazelcastInstance.getCluster()).thenReturn(Mockito.mock(Cluster.class));
+
+        hazelcastService = Mockito.mock(ExtendedHazelcastService.class);
+        Mockito.when(hazelcastService.getHazelcastInstance()).thenReturn(hazelcastInstance);
+
+        camelRouteManager = Mockito.mock(CamelRouteManager.class);
+    }
+
+    @AfterEach
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testHeartbeatsAreOnlySentForLocalSubscriptions() {
+        localSubscriptionIds.add("sub-1");
+        localSubscriptionIds.add("sub-2");
+        owners.put("sub-1", localMember);
+        // Partition has moved after the deadline was set
+        owners.put("sub-2", remoteMember);
+        start();
+
+        Mockito.verify(camelRouteManager, Mockito.timeout(5000)).pushSiriData(any(), isSubscription("sub-1"), anyBoolean());
+        waitFor(() -> scheduler.isScheduled("sub-1") && !scheduler.isScheduled("sub-2"));
+
+        Mockito.verify(camelRouteManager, Mockito.never()).pushSiriData(any(), isSubscription("sub-2"), anyBoolean());
+    }
+
+    @Test
+    public void testUnknownOwnerIsNotLocal() {
+        localSubscriptionIds.add("sub-1");
+        start();
+
+        // Owner is unknown while migrating - heartbeat is retried
+        waitFor(() -> scheduler.isScheduled("sub-1"));
+        Mockito.verify(camelRouteManager, Mockito.after(500).never()).pushSiriData(any(), isSubscription("sub-1"), anyBoolean());
+        assertTrue(scheduler.isScheduled("sub-1"));
+
+        owners.put("sub-1", localMember);
+        Mockito.verify(camelRouteManager, Mockito.timeout(5000)).pushSiriData(any(), isSubscription("sub-1"), anyBoolean());
+    }
+
+    @Test
+    public void testReconcileOnMigration() {
+        localSubscriptionIds.add("sub-1");
+        owners.put("sub-1", localMember);
+        owners.put("sub-2", localMember);
+        start();
+
+        waitFor(() -> scheduler.isScheduled("sub-1"));
+        assertFalse(scheduler.isScheduled("sub-2"));
+
+        // sub-1 has moved to another member, and sub-2 has moved here
+        localSubscriptionIds.clear();
+        localSubscriptionIds.add("sub-2");
+        ArgumentCaptor<MigrationListener> migrationListener = ArgumentCaptor.forClass(MigrationListener.class);
+        Mockito.verify(partitionService).addMigrationListener(migrationListener.capture());
+        migrationListener.getValue().migrationFinished(null);
+
+        waitFor(() -> scheduler.isScheduled("sub-2") && !scheduler.isScheduled("sub-1"));
+        Mockito.verify(camelRouteManager, Mockito.timeout(5000)).pushSiriData(any(), isSubscription("sub-2"), anyBoolean());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void start() {
+        scheduler = new HeartbeatScheduler(subscriptions, Mockito.mock(IMap.class), Mockito.mock(ServerSubscriptionManager.class),
+            camelRouteManager, Mockito.mock(SiriObjectFactory.class), hazelcastService);
+    }
+
+    private static OutboundSubscriptionSetup isSubscription(String subscriptionId) {
+        return argThat(subscription -> subscription != null && subscriptionId.equals(subscription.getSubscriptionId()));
+    }
+
+    private static OutboundSubscriptionSetup createSubscription(String subscriptionId) {
+        return new OutboundSubscriptionSetup(SiriDataType.ESTIMATED_TIMETABLE, "http://localhost", 0, null, subscriptionId);
+    }
+
+    private Partition createPartition(Object key) {
+        return new Partition() {
+            @Override
+            public int getPartitionId() {
+                return 0;
+            }
+
+            @Override
+            public Member getOwner() {
+                return owners.get(key);
+            }
+        };
+    }
+
+    private static Member createMember(boolean local) {
+        Member member = Mockito.mock(Member.class);
+        Mockito.when(member.localMember()).thenReturn(local);
+        return member;
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        long timeout = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < timeout, "Condition not met within timeout");
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
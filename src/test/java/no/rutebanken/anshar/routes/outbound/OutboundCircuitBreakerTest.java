@@ -0,0 +1,225 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OutboundCircuitBreakerTest {
+
+    private final AtomicLong clock = new AtomicLong(1000);
+
+    private OutboundCircuitBreaker circuitBreaker;
+
+    @BeforeEach
+    public void init() {
+        circuitBreaker = new OutboundCircuitBreaker(3, 100, 400, 1000, 2, 500, new PrometheusMetricsService(), clock::get);
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        String subscriptionId = "sub-1";
+
+        circuitBreaker.onFailure(subscriptionId);
+        circuitBreaker.onFailure(subscriptionId);
+        assertTrue(circuitBreaker.allowDelivery(subscriptionId));
+
+        // Success resets failure count
+        circuitBreaker.onSuccess(subscriptionId);
+        circuitBreaker.onFailure(subscriptionId);
+        circuitBreaker.onFailure(subscriptionId);
+        assertTrue(circuitBreaker.allowDelivery(subscriptionId));
+
+        circuitBreaker.onFailure(subscriptionId);
+        assertEquals(OutboundCircuitBreaker.State.OPEN, circuitBreaker.getState(subscriptionId));
+        assertFalse(circuitBreaker.allowDelivery(subscriptionId));
+        assertEquals(1, circuitBreaker.getOpenCount());
+    }
+
+    @Test
+    public void testHalfOpenProbeWithBackoff() {
+        String subscriptionId = "sub-1";
+        openCircuit(subscriptionId);
+
+        clock.addAndGet(100);
+        // Only one probe is let through
+        assertTrue(circuitBreaker.allowDelivery(subscriptionId));
+        assertEquals(OutboundCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState(subscriptionId));
+        assertFalse(circuitBreaker.allowDelivery(subscriptionId));
+
+        // Failed probe doubles backoff
+        circuitBreaker.onFailure(subscriptionId);
+        clock.addAndGet(100);
+        assertFalse(circuitBreaker.allowDelivery(subscriptionId));
+        clock.addAndGet(100);
+        assertTrue(circuitBreaker.allowDelivery(subscriptionId));
+
+        // Backoff is capped
+        circuitBreaker.onFailure(subscriptionId);
+        clock.addAndGet(400);
+        assertTrue(circuitBreaker.allowDelivery(subscriptionId));
+        circuitBreaker.onFailure(subscriptionId);
+        clock.addAndGet(400);
+        assertTrue(circuitBreaker.allowDelivery(subscriptionId));
+
+        // New probe if the previous did not report an outcome
+        clock.addAndGet(1000);
+        assertTrue(circuitBreaker.allowDelivery(subscriptionId));
+
+        circuitBreaker.onSuccess(subscriptionId);
+        assertEquals(OutboundCircuitBreaker.State.CLOSED, circuitBreaker.getState(subscriptionId));
+        assertTrue(circuitBreaker.allowDelivery(subscriptionId));
+    }
+
+    @Test
+    public void testDeadLettersAreReplayedInOrder() {
+        OutboundSubscriptionSetup subscription = createSubscription("sub-1");
+        openCircuit(subscription.getSubscriptionId());
+
+        List<String> replayed = new ArrayList<>();
+        circuitBreaker.deadLetter(subscription, 1, () -> replayed.add("1"));
+        circuitBreaker.deadLetter(subscription, 1, () -> replayed.add("2"));
+        // Oldest is dropped
+        circuitBreaker.deadLetter(subscription, 1, () -> replayed.add("3"));
+        assertEquals(2, circuitBreaker.getDeadLetterCount(subscription.getSubscriptionId()));
+        assertTrue(replayed.isEmpty());
+
+        circuitBreaker.onSuccess(subscription.getSubscriptionId());
+        assertEquals(List.of("2", "3"), replayed);
+        assertEquals(0, circuitBreaker.getDeadLetterCount(subscription.getSubscriptionId()));
+
+        // Closed circuit delivers immediately
+        circuitBreaker.deadLetter(subscription, 1, () -> replayed.add("4"));
+        assertEquals(List.of("2", "3", "4"), replayed);
+    }
+
+    @Test
+    public void testOldestDeadLetterIsSentAsProbe() {
+        OutboundSubscriptionSetup subscription = createSubscription("sub-1");
+        String subscriptionId = subscription.getSubscriptionId();
+        openCircuit(subscriptionId);
+
+        List<String> replayed = new ArrayList<>();
+        circuitBreaker.deadLetter(subscription, 1, () -> replayed.add("1"));
+
+        // Current delivery is dead-lettered behind the probe
+        clock.addAndGet(100);
+        assertFalse(circuitBreaker.allowDelivery(subscriptionId));
+        assertEquals(List.of("1"), replayed);
+        circuitBreaker.deadLetter(subscription, 1, () -> replayed.add("2"));
+
+        // Failed probe is kept, and sent again as the next probe
+        circuitBreaker.onFailure(subscriptionId);
+        clock.addAndGet(200);
+        assertFalse(circuitBreaker.allowDelivery(subscriptionId));
+        assertEquals(List.of("1", "1"), replayed);
+        assertEquals(2, circuitBreaker.getDeadLetterCount(subscriptionId));
+
+        circuitBreaker.onSuccess(subscriptionId);
+        assertEquals(List.of("1", "1", "2"), replayed);
+        assertEquals(OutboundCircuitBreaker.State.CLOSED, circuitBreaker.getState(subscriptionId));
+    }
+
+    @Test
+    public void testDeadLetterSizeCountsParts() {
+        OutboundSubscriptionSetup subscription = createSubscription("sub-1");
+        openCircuit(subscription.getSubscriptionId());
+
+        List<String> replayed = new ArrayList<>();
+        circuitBreaker.deadLetter(subscription, 1, () -> replayed.add("1"));
+        // Both older are dropped to make room
+        circuitBreaker.deadLetter(subscription, 1, () -> replayed.add("2"));
+        circuitBreaker.deadLetter(subscription, 2, () -> replayed.add("3"));
+        assertEquals(1, circuitBreaker.getDeadLetterCount(subscription.getSubscriptionId()));
+
+        // Larger than the dead letter size - not kept
+        circuitBreaker.deadLetter(subscription, 3, () -> replayed.add("4"));
+
+        circuitBreaker.onSuccess(subscription.getSubscriptionId());
+        assertEquals(List.of("3"), replayed);
+    }
+
+    @Test
+    public void testExpiredDeadLettersAreNotReplayed() {
+        OutboundSubscriptionSetup subscription = createSubscription("sub-1");
+        openCircuit(subscription.getSubscriptionId());
+
+        List<String> replayed = new ArrayList<>();
+        circuitBreaker.deadLetter(subscription, 1, () -> replayed.add("1"));
+        clock.addAndGet(300);
+        circuitBreaker.deadLetter(subscription, 1, () -> replayed.add("2"));
+        clock.addAndGet(300);
+
+        circuitBreaker.onSuccess(subscription.getSubscriptionId());
+        assertEquals(List.of("2"), replayed);
+    }
+
+    @Test
+    public void testVehicleMonitoringIsNotReplayed() {
+        OutboundSubscriptionSetup subscription = createSubscription("sub-1", SiriDataType.VEHICLE_MONITORING);
+        openCircuit(subscription.getSubscriptionId());
+
+        List<String> replayed = new ArrayList<>();
+        circuitBreaker.deadLetter(subscription, 1, () -> replayed.add("1"));
+        assertEquals(0, circuitBreaker.getDeadLetterCount(subscription.getSubscriptionId()));
+
+        circuitBreaker.onSuccess(subscription.getSubscriptionId());
+        assertTrue(replayed.isEmpty());
+
+        // Closed circuit delivers immediately
+        circuitBreaker.deadLetter(subscription, 1, () -> replayed.add("2"));
+        assertEquals(List.of("2"), replayed);
+    }
+
+    @Test
+    public void testRemovedSubscriptionIsClosed() {
+        OutboundSubscriptionSetup subscription = createSubscription("sub-1");
+        openCircuit(subscription.getSubscriptionId());
+
+        List<String> replayed = new ArrayList<>();
+        circuitBreaker.deadLetter(subscription, 1, () -> replayed.add("1"));
+        circuitBreaker.remove(subscription.getSubscriptionId());
+
+        assertTrue(circuitBreaker.allowDelivery(subscription.getSubscriptionId()));
+        assertEquals(0, circuitBreaker.getOpenCount());
+        assertTrue(replayed.isEmpty());
+    }
+
+    private void openCircuit(String subscriptionId) {
+        circuitBreaker.onFailure(subscriptionId);
+        circuitBreaker.onFailure(subscriptionId);
+        circuitBreaker.onFailure(subscriptionId);
+        assertFalse(circuitBreaker.allowDelivery(subscriptionId));
+    }
+
+    private static OutboundSubscriptionSetup createSubscription(String subscriptionId) {
+        return createSubscription(subscriptionId, SiriDataType.ESTIMATED_TIMETABLE);
+    }
+
+    private static OutboundSubscriptionSetup createSubscription(String subscriptionId, SiriDataType dataType) {
+        return new OutboundSubscriptionSetup(dataType, "http://localhost", 0, null, subscriptionId);
+    }
+}
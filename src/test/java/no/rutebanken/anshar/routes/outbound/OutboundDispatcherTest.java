@@ -0,0 +1,203 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import io.micrometer.core.instrument.Gauge;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OutboundDispatcherTest {
+
+    private OutboundDispatcher dispatcher;
+
+    private PrometheusMetricsService metrics;
+
+    @BeforeEach
+    public void init() {
+        metrics = new PrometheusMetricsService();
+        dispatcher = new OutboundDispatcher(4, 1, 10, 3, metrics);
+    }
+
+    @AfterEach
+    public void shutdown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testDeliveredInOrderPerSubscriber() throws InterruptedException {
+        OutboundSubscriptionSetup subscriber = createSubscriber(SiriDataType.ESTIMATED_TIMETABLE);
+        OutboundDispatcher unboundedDispatcher = new OutboundDispatcher(4, 1, 10, 1000, new PrometheusMetricsService());
+
+        List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            int sequence = i;
+            unboundedDispatcher.dispatch(subscriber, () -> {
+                delivered.add(sequence);
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, delivered.get(i));
+        }
+        unboundedDispatcher.shutdown();
+    }
+
+    @Test
+    public void testDropOldestForVehicleMonitoring() throws InterruptedException {
+        OutboundSubscriptionSetup subscriber = createSubscriber(SiriDataType.VEHICLE_MONITORING);
+
+        List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        dispatcher.dispatch(subscriber, () -> {
+            started.countDown();
+            awaitQuietly(blocker);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 5; i++) {
+            int sequence = i;
+            dispatcher.dispatch(subscriber, () -> delivered.add(sequence));
+        }
+        dispatcher.dispatch(subscriber, done::countDown);
+
+        assertEquals(3, dispatcher.getQueueSize(subscriber.getSubscriptionId()));
+
+        blocker.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // Only the newest deliveries are kept
+        assertEquals(List.of(3, 4), delivered);
+    }
+
+    @Test
+    public void testDropNewestForEstimatedTimetable() throws InterruptedException {
+        OutboundSubscriptionSetup subscriber = createSubscriber(SiriDataType.ESTIMATED_TIMETABLE);
+
+        List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        dispatcher.dispatch(subscriber, () -> {
+            started.countDown();
+            awaitQuietly(blocker);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 5; i++) {
+            int sequence = i;
+            dispatcher.dispatch(subscriber, () -> delivered.add(sequence));
+        }
+        blocker.countDown();
+
+        // Queue has room again once the blocking delivery has completed
+        while (dispatcher.getQueueSize(subscriber.getSubscriptionId()) > 0) {
+            Thread.sleep(10);
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.dispatch(subscriber, done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of(0, 1, 2), delivered);
+    }
+
+    @Test
+    public void testRemovedSubscriberIsNotDelivered() throws InterruptedException {
+        OutboundSubscriptionSetup subscriber = createSubscriber(SiriDataType.SITUATION_EXCHANGE);
+
+        List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        dispatcher.dispatch(subscriber, () -> {
+            started.countDown();
+            awaitQuietly(blocker);
+        });
+        dispatcher.dispatch(subscriber, () -> delivered.add(1));
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        dispatcher.removeSubscriber(subscriber.getSubscriptionId());
+        blocker.countDown();
+
+        Thread.sleep(100);
+        assertTrue(delivered.isEmpty());
+        assertEquals(0, dispatcher.getQueueSize(subscriber.getSubscriptionId()));
+    }
+
+    @Test
+    public void testRemovedSubscriberQueueGaugeIsRemoved() throws InterruptedException {
+        OutboundSubscriptionSetup subscriber = createSubscriber(SiriDataType.ESTIMATED_TIMETABLE);
+
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.dispatch(subscriber, done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNotNull(findQueueGauge(subscriber));
+
+        dispatcher.removeSubscriber(subscriber.getSubscriptionId());
+        assertNull(findQueueGauge(subscriber));
+    }
+
+    @Test
+    public void testDispatchReportsCreatedQueue() throws InterruptedException {
+        OutboundSubscriptionSetup subscriber = createSubscriber(SiriDataType.ESTIMATED_TIMETABLE);
+
+        CountDownLatch done = new CountDownLatch(2);
+        assertTrue(dispatcher.dispatch(subscriber, done::countDown));
+        assertFalse(dispatcher.dispatch(subscriber, done::countDown));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        dispatcher.removeSubscriber(subscriber.getSubscriptionId());
+        assertTrue(dispatcher.dispatch(subscriber, () -> {}));
+    }
+
+    private Gauge findQueueGauge(OutboundSubscriptionSetup subscriber) {
+        return metrics.find("app.anshar.outbound.queue")
+            .tag("subscriptionId", subscriber.getSubscriptionId())
+            .gauge();
+    }
+
+    private static OutboundSubscriptionSetup createSubscriber(SiriDataType dataType) {
+        return new OutboundSubscriptionSetup(dataType, "http://localhost", 0, null, "sub-" + dataType);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
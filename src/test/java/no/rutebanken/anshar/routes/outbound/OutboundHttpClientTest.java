@@ -0,0 +1,215 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OutboundHttpClientTest {
+
+    private HttpServer server;
+
+    private ExecutorService serverExecutor;
+
+    private String endpoint;
+
+    private final List<String> received = new ArrayList<>();
+
+    private final AtomicInteger failuresBeforeSuccess = new AtomicInteger();
+
+    private final AtomicInteger concurrent = new AtomicInteger();
+
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    private final List<String> delivered = new ArrayList<>();
+
+    private final List<String> failed = new ArrayList<>();
+
+    private OutboundHttpClient client;
+
+    private final PrometheusMetricsService metrics = new PrometheusMetricsService();
+
+    @BeforeEach
+    public void init() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        serverExecutor = Executors.newFixedThreadPool(10);
+        server.setExecutor(serverExecutor);
+        server.start();
+        endpoint = "http://localhost:" + server.getAddress().getPort() + "/push";
+    }
+
+    @AfterEach
+    public void shutdown() {
+        if (client != null) {
+            client.shutdown();
+        }
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testDeliveredInOrderPerSubscriber() throws Exception {
+        client = createClient(10, 100, 0);
+
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            results.add(client.post("sub-1", endpoint, ("" + i).getBytes(StandardCharsets.UTF_8), null));
+        }
+        for (CompletableFuture<Boolean> result : results) {
+            assertTrue(result.get(5, TimeUnit.SECONDS));
+        }
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add("" + i);
+        }
+        synchronized (received) {
+            assertEquals(expected, received);
+        }
+        assertEquals(20, delivered.size());
+        assertEquals(0, client.getPendingCount("sub-1"));
+    }
+
+    @Test
+    public void testRedeliveryAndFailTracking() throws Exception {
+        client = createClient(10, 100, 1);
+
+        failuresBeforeSuccess.set(1);
+        assertTrue(client.post("sub-1", endpoint, "a".getBytes(StandardCharsets.UTF_8), null).get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("sub-1"), delivered);
+
+        failuresBeforeSuccess.set(2);
+        assertFalse(client.post("sub-2", endpoint, "b".getBytes(StandardCharsets.UTF_8), null).get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("sub-2"), failed);
+    }
+
+    @Test
+    public void testConnectionsLimitedPerHost() throws Exception {
+        client = createClient(2, 100, 0);
+
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            results.add(client.post("sub-" + i, endpoint, "slow".getBytes(StandardCharsets.UTF_8), null));
+        }
+        for (CompletableFuture<Boolean> result : results) {
+            assertTrue(result.get(5, TimeUnit.SECONDS));
+        }
+        assertTrue(maxConcurrent.get() <= 2, "Max concurrent requests was " + maxConcurrent.get());
+        assertEquals(0, client.getActiveCount("localhost"));
+    }
+
+    @Test
+    public void testPendingDeliveriesAreLimited() throws Exception {
+        client = createClient(10, 1, 0);
+
+        CompletableFuture<Boolean> first = client.post("sub-1", endpoint, "slow".getBytes(StandardCharsets.UTF_8), null);
+        CompletableFuture<Boolean> second = client.post("sub-1", endpoint, "slow".getBytes(StandardCharsets.UTF_8), null);
+        CompletableFuture<Boolean> dropped = client.post("sub-1", endpoint, "slow".getBytes(StandardCharsets.UTF_8), null);
+
+        assertFalse(dropped.get(1, TimeUnit.SECONDS));
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRemovedSubscriberCompletesPendingDeliveries() throws Exception {
+        client = createClient(10, 100, 0);
+
+        CompletableFuture<Boolean> first = client.post("sub-1", endpoint, "slow".getBytes(StandardCharsets.UTF_8), null);
+        CompletableFuture<Boolean> pending = client.post("sub-1", endpoint, "slow".getBytes(StandardCharsets.UTF_8), null);
+        client.removeSubscriber("sub-1");
+
+        // Callers waiting for pending deliveries are released
+        assertFalse(pending.get(1, TimeUnit.SECONDS));
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRemovedSubscriberLatencyTimerIsRemoved() throws Exception {
+        client = createClient(10, 100, 0);
+
+        assertTrue(client.post("sub-1", endpoint, "a".getBytes(StandardCharsets.UTF_8), null).get(5, TimeUnit.SECONDS));
+        assertNotNull(metrics.find("app.anshar.outbound.http.latency").tag("subscriptionId", "sub-1").timer());
+
+        client.removeSubscriber("sub-1");
+        assertNull(metrics.find("app.anshar.outbound.http.latency").tag("subscriptionId", "sub-1").timer());
+    }
+
+    private OutboundHttpClient createClient(int maxConnectionsPerHost, int maxPending, int maxRedeliveries) {
+        return new OutboundHttpClient(maxConnectionsPerHost, maxPending, 2000, maxRedeliveries, 10,
+            metrics,
+            id -> {
+                synchronized (delivered) {
+                    delivered.add(id);
+                }
+            },
+            id -> {
+                synchronized (failed) {
+                    failed.add(id);
+                }
+            });
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int current = concurrent.incrementAndGet();
+        maxConcurrent.accumulateAndGet(current, Math::max);
+        try {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            if (body.equals("slow")) {
+                awaitQuietly(new CountDownLatch(1), 100);
+            }
+            synchronized (received) {
+                received.add(body);
+            }
+            int status = failuresBeforeSuccess.getAndUpdate(i -> Math.max(0, i - 1)) > 0 ? 500 : 200;
+            concurrent.decrementAndGet();
+            exchange.sendResponseHeaders(status, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch, long millis) {
+        try {
+            latch.await(millis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
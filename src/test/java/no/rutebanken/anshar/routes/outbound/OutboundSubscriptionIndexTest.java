@@ -0,0 +1,73 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OutboundSubscriptionIndexTest {
+
+    @Test
+    public void testFindByTypeAndDataset() {
+        OutboundSubscriptionIndex index = new OutboundSubscriptionIndex();
+        index.put(createSubscription("et-all", SiriDataType.ESTIMATED_TIMETABLE, null));
+        index.put(createSubscription("et-tst", SiriDataType.ESTIMATED_TIMETABLE, "TST"));
+        index.put(createSubscription("et-abc", SiriDataType.ESTIMATED_TIMETABLE, "ABC"));
+        index.put(createSubscription("vm-tst", SiriDataType.VEHICLE_MONITORING, "TST"));
+
+        assertEquals(Set.of("et-all", "et-tst"), ids(index.findSubscriptions(SiriDataType.ESTIMATED_TIMETABLE, "TST")));
+        assertEquals(Set.of("et-all"), ids(index.findSubscriptions(SiriDataType.ESTIMATED_TIMETABLE, "XYZ")));
+        assertEquals(Set.of("vm-tst"), ids(index.findSubscriptions(SiriDataType.VEHICLE_MONITORING, "TST")));
+        assertTrue(index.findSubscriptions(SiriDataType.SITUATION_EXCHANGE, "TST").isEmpty());
+    }
+
+    @Test
+    public void testRemoveAndUpdate() {
+        OutboundSubscriptionIndex index = new OutboundSubscriptionIndex();
+        index.put(createSubscription("sub-1", SiriDataType.ESTIMATED_TIMETABLE, "TST"));
+        index.put(createSubscription("sub-2", SiriDataType.ESTIMATED_TIMETABLE, "TST"));
+
+        index.remove("sub-1");
+        assertEquals(Set.of("sub-2"), ids(index.findSubscriptions(SiriDataType.ESTIMATED_TIMETABLE, "TST")));
+
+        // Updated subscription is moved to new dataset
+        index.put(createSubscription("sub-2", SiriDataType.ESTIMATED_TIMETABLE, "ABC"));
+        assertTrue(index.findSubscriptions(SiriDataType.ESTIMATED_TIMETABLE, "TST").isEmpty());
+        assertEquals(Set.of("sub-2"), ids(index.findSubscriptions(SiriDataType.ESTIMATED_TIMETABLE, "ABC")));
+        assertEquals(1, index.size());
+
+        index.remove("sub-2");
+        index.remove("unknown");
+        assertEquals(0, index.size());
+    }
+
+    private static Set<String> ids(List<OutboundSubscriptionSetup> subscriptions) {
+        return subscriptions.stream().map(OutboundSubscriptionSetup::getSubscriptionId).collect(Collectors.toSet());
+    }
+
+    private static OutboundSubscriptionSetup createSubscription(String subscriptionId, SiriDataType dataType, String datasetId) {
+        return new OutboundSubscriptionSetup(ZonedDateTime.now(), dataType, "http://localhost", 60000, 0,
+            null, null, subscriptionId, "test", ZonedDateTime.now().plusHours(1), datasetId, null, null);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import io.micrometer.core.instrument.Timer;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OutboundUpdateCoalescerTest {
+
+    private BlockingQueue<List<Object>> delivered;
+
+    private BlockingQueue<OutboundLag> lags;
+
+    private OutboundUpdateCoalescer coalescer;
+
+    @BeforeEach
+    public void init() {
+        delivered = new LinkedBlockingQueue<>();
+        lags = new LinkedBlockingQueue<>();
+        coalescer = new OutboundUpdateCoalescer((subscription, updates, lag) -> {
+            lags.add(lag);
+            delivered.add(updates);
+        });
+    }
+
+    @AfterEach
+    public void shutdown() {
+        coalescer.shutdown();
+    }
+
+    @Test
+    public void testUpdatesAreMergedWithinWindow() throws InterruptedException {
+        OutboundSubscriptionSetup subscription = createSubscription("sub-1");
+
+        coalescer.add(subscription, 200, "TST", System.currentTimeMillis(), List.of("bus-1:a", "bus-2:a"), OutboundUpdateCoalescerTest::key);
+        coalescer.add(subscription, 200, "TST", System.currentTimeMillis(), List.of("bus-1:b"), OutboundUpdateCoalescerTest::key);
+        coalescer.add(subscription, 200, "TST", System.currentTimeMillis(), List.of("bus-3:a", "bus-1:c"), OutboundUpdateCoalescerTest::key);
+
+        assertEquals(3, coalescer.getBufferedCount(subscription.getSubscriptionId()));
+
+        List<Object> updates = delivered.poll(5, TimeUnit.SECONDS);
+        assertNotNull(updates);
+        // One delivery with the latest update per element
+        assertEquals(List.of("bus-2:a", "bus-3:a", "bus-1:c"), updates);
+        assertNull(delivered.poll(400, TimeUnit.MILLISECONDS));
+        assertEquals(0, coalescer.getBufferedCount(subscription.getSubscriptionId()));
+
+        // Next update opens a new window
+        coalescer.add(subscription, 200, "TST", System.currentTimeMillis(), List.of("bus-1:d"), OutboundUpdateCoalescerTest::key);
+        assertEquals(List.of("bus-1:d"), delivered.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRemovedSubscriptionIsNotDelivered() throws InterruptedException {
+        OutboundSubscriptionSetup subscription = createSubscription("sub-2");
+
+        coalescer.add(subscription, 100, "TST", System.currentTimeMillis(), List.of("bus-1:a"), OutboundUpdateCoalescerTest::key);
+        coalescer.remove(subscription.getSubscriptionId());
+
+        assertNull(delivered.poll(400, TimeUnit.MILLISECONDS));
+        assertEquals(0, coalescer.getBufferedCount(subscription.getSubscriptionId()));
+    }
+
+    @Test
+    public void testLagIncludesTimeInWindow() throws InterruptedException {
+        OutboundSubscriptionSetup subscription = createSubscription("sub-3");
+        long storedAt = System.currentTimeMillis();
+
+        coalescer.add(subscription, 200, "TST", storedAt, List.of("bus-1:a", "bus-2:a"), OutboundUpdateCoalescerTest::key);
+        coalescer.add(subscription, 200, "TST", storedAt + 50, List.of("bus-1:b"), OutboundUpdateCoalescerTest::key);
+
+        assertNotNull(delivered.poll(5, TimeUnit.SECONDS));
+        OutboundLag lag = lags.poll(1, TimeUnit.SECONDS);
+        assertNotNull(lag);
+
+        PrometheusMetricsService metrics = new PrometheusMetricsService();
+        lag.delivered(metrics);
+        // Recorded once, for each coalesced update
+        lag.delivered(metrics);
+
+        Timer timer = metrics.find("app.anshar.data.freshness.outbound").tag("codespace", "TST").timer();
+        assertNotNull(timer);
+        assertEquals(2, timer.count());
+        assertTrue(timer.max(TimeUnit.MILLISECONDS) >= 200);
+        metrics.shutdown();
+    }
+
+    private static Object key(String update) {
+        return update.substring(0, update.indexOf(':'));
+    }
+
+    private static OutboundSubscriptionSetup createSubscription(String subscriptionId) {
+        return new OutboundSubscriptionSetup(SiriDataType.VEHICLE_MONITORING, "http://localhost", 0, null, subscriptionId);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import no.rutebanken.anshar.routes.siri.handlers.OutboundIdMappingPolicy;
+import no.rutebanken.anshar.routes.siri.transformer.ValueAdapter;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import no.rutebanken.anshar.subscription.helpers.MappingAdapterPresets;
+import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.LineRef;
+import uk.org.siri.siri21.Siri;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class RenderedPayloadCacheTest {
+
+    @Test
+    public void testSourceIdentifiesPush() {
+        long renderToken = RenderedPayloadCache.nextRenderToken();
+        Map<Class, Set<String>> filter = Map.of(LineRef.class, Set.of("TST:Line:1"));
+
+        assertEquals(new RenderedPayloadCache.Source(renderToken, null, 1000, 0),
+                     new RenderedPayloadCache.Source(renderToken, null, 1000, 0));
+        assertEquals(new RenderedPayloadCache.Source(renderToken, filter, 1000, 0),
+                     new RenderedPayloadCache.Source(renderToken, Map.of(LineRef.class, Set.of("TST:Line:1")), 1000, 0));
+
+        // Equal content is not enough - deliveries must be created from the same push
+        assertNotEquals(new RenderedPayloadCache.Source(renderToken, null, 1000, 0),
+                        new RenderedPayloadCache.Source(RenderedPayloadCache.nextRenderToken(), null, 1000, 0));
+
+        assertNotEquals(new RenderedPayloadCache.Source(renderToken, null, 1000, 0),
+                        new RenderedPayloadCache.Source(renderToken, filter, 1000, 0));
+        assertNotEquals(new RenderedPayloadCache.Source(renderToken, null, 1000, 0),
+                        new RenderedPayloadCache.Source(renderToken, null, 1000, 1));
+    }
+
+    @Test
+    public void testRenderTokenIsSharedPerPush() {
+        FilteredDeliveries deliveries = new FilteredDeliveries(new Siri(), null);
+
+        assertEquals(deliveries.getRenderToken(), deliveries.getRenderToken());
+        assertNotEquals(deliveries.getRenderToken(), new FilteredDeliveries(new Siri(), null).getRenderToken());
+    }
+
+    @Test
+    public void testAdaptersKey() {
+        List<ValueAdapter> defaultAdapters = MappingAdapterPresets.getOutboundAdapters(SiriDataType.SITUATION_EXCHANGE, OutboundIdMappingPolicy.DEFAULT);
+        List<ValueAdapter> originalIdAdapters = MappingAdapterPresets.getOutboundAdapters(SiriDataType.SITUATION_EXCHANGE, OutboundIdMappingPolicy.ORIGINAL_ID);
+
+        assertNotNull(RenderedPayloadCache.resolveAdaptersKey(defaultAdapters));
+        assertEquals(RenderedPayloadCache.resolveAdaptersKey(defaultAdapters),
+                     RenderedPayloadCache.resolveAdaptersKey(MappingAdapterPresets.getOutboundAdapters(SiriDataType.SITUATION_EXCHANGE, OutboundIdMappingPolicy.DEFAULT)));
+        assertNotEquals(RenderedPayloadCache.resolveAdaptersKey(defaultAdapters),
+                        RenderedPayloadCache.resolveAdaptersKey(originalIdAdapters));
+
+        ValueAdapter unknownAdapter = new ValueAdapter(LineRef.class) {
+            @Override
+            protected String apply(String value) {
+                return value;
+            }
+        };
+        assertNull(RenderedPayloadCache.resolveAdaptersKey(List.of(unknownAdapter)));
+    }
+}
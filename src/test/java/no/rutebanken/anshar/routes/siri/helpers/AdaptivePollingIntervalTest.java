@@ -0,0 +1,97 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.helpers;
+
+import no.rutebanken.anshar.subscription.helpers.DeliveryChangeStats;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdaptivePollingIntervalTest {
+
+    private static final Duration MIN = Duration.ofSeconds(15);
+    private static final Duration MAX = Duration.ofSeconds(120);
+    private static final Duration INITIAL = Duration.ofSeconds(30);
+
+    @Test
+    public void testShortenOnHighChangeRate() throws InterruptedException {
+        AdaptivePollingInterval interval = new AdaptivePollingInterval(MIN, MAX, INITIAL);
+
+        assertEquals(MIN, interval.update(new DeliveryChangeStats(100, 80, 10)));
+
+        Thread.sleep(5);
+        assertEquals(MIN, interval.update(new DeliveryChangeStats(100, 80, 10)));
+    }
+
+    @Test
+    public void testLengthenOnLowChangeRate() throws InterruptedException {
+        AdaptivePollingInterval interval = new AdaptivePollingInterval(MIN, MAX, INITIAL);
+
+        assertEquals(Duration.ofSeconds(45), interval.update(new DeliveryChangeStats(100, 0, 10)));
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(5);
+            interval.update(new DeliveryChangeStats(100, 1, 10));
+        }
+        assertEquals(MAX, interval.getInterval());
+    }
+
+    @Test
+    public void testLengthenOnUnchangedResponses() throws InterruptedException {
+        AdaptivePollingInterval interval = new AdaptivePollingInterval(MIN, MAX, INITIAL);
+
+        // Unchanged responses are recorded without received objects
+        assertEquals(Duration.ofSeconds(45), interval.update(new DeliveryChangeStats(0, 0, 0)));
+        Thread.sleep(5);
+        assertEquals(Duration.ofMillis(67500), interval.update(new DeliveryChangeStats(0, 0, 0)));
+    }
+
+    @Test
+    public void testLengthenOnSlowProcessing() {
+        AdaptivePollingInterval interval = new AdaptivePollingInterval(MIN, MAX, INITIAL);
+
+        assertEquals(Duration.ofSeconds(45), interval.update(new DeliveryChangeStats(100, 80, 20000)));
+    }
+
+    @Test
+    public void testUnchangedForModerateChangeRate() {
+        AdaptivePollingInterval interval = new AdaptivePollingInterval(MIN, MAX, INITIAL);
+
+        assertEquals(INITIAL, interval.update(new DeliveryChangeStats(100, 10, 10)));
+        assertEquals(INITIAL, interval.update(null));
+    }
+
+    @Test
+    public void testSameDeliveryOnlyConsideredOnce() {
+        AdaptivePollingInterval interval = new AdaptivePollingInterval(MIN, MAX, Duration.ofSeconds(60));
+
+        DeliveryChangeStats stats = new DeliveryChangeStats(100, 100, 10);
+        assertEquals(Duration.ofSeconds(30), interval.update(stats));
+        assertEquals(Duration.ofSeconds(30), interval.update(stats));
+    }
+
+    @Test
+    public void testIsDue() {
+        AdaptivePollingInterval interval = new AdaptivePollingInterval(MIN, MAX, INITIAL);
+
+        assertTrue(interval.isDue());
+        interval.pollStarted();
+        assertFalse(interval.isDue());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.helpers;
+
+import com.sun.net.httpserver.HttpServer;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class PollingConnectionManagerTest {
+
+    private static final String POOL_GAUGE = "app.anshar.polling.connection.pool";
+
+    private PrometheusMetricsService metrics;
+
+    private PollingConnectionManager connectionManager;
+
+    @BeforeEach
+    public void init() {
+        metrics = new PrometheusMetricsService();
+        connectionManager = new PollingConnectionManager(10, 2,
+            List.of("https://override.example.com=7", "invalid"), 60, metrics);
+    }
+
+    @AfterEach
+    public void shutdown() {
+        connectionManager.destroy();
+    }
+
+    @Test
+    public void testConfiguredLimits() {
+        assertEquals(10, connectionManager.getMaxTotal());
+        assertEquals(2, connectionManager.getDefaultMaxPerRoute());
+        assertEquals(7, connectionManager.getMaxPerRoute(PollingConnectionManager.createRoute("https://override.example.com")));
+        assertEquals(7, connectionManager.getMaxPerRoute(PollingConnectionManager.createRoute("https://override.example.com:443/siri")));
+        assertEquals(2, connectionManager.getMaxPerRoute(PollingConnectionManager.createRoute("http://override.example.com")));
+        assertNull(PollingConnectionManager.createRoute("invalid"));
+    }
+
+    @Test
+    public void testLimitIsSizedFromPollingSubscriptionsPerHost() {
+        HttpRoute route = PollingConnectionManager.createRoute("http://producer.example.com");
+
+        connectionManager.registerPollingSubscription("sub-1", "http://producer.example.com/et");
+        connectionManager.registerPollingSubscription("sub-2", "http://producer.example.com/vm");
+        assertEquals(2, connectionManager.getMaxPerRoute(route));
+
+        connectionManager.registerPollingSubscription("sub-3", "http://producer.example.com:80/sx");
+        // Re-registration when routes are restarted does not count twice
+        connectionManager.registerPollingSubscription("sub-3", "http://producer.example.com:80/sx");
+        assertEquals(3, connectionManager.getMaxPerRoute(route));
+
+        // Capped by total limit
+        for (int i = 0; i < 20; i++) {
+            connectionManager.registerPollingSubscription("sub-" + i, "http://producer.example.com/et");
+        }
+        assertEquals(10, connectionManager.getMaxPerRoute(route));
+
+        // Host-specific limit is not changed
+        for (int i = 0; i < 10; i++) {
+            connectionManager.registerPollingSubscription("override-" + i, "https://override.example.com/et");
+        }
+        assertEquals(7, connectionManager.getMaxPerRoute(PollingConnectionManager.createRoute("https://override.example.com")));
+    }
+
+    @Test
+    public void testConnectionMetrics() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.start();
+        try {
+            HttpRoute route = PollingConnectionManager.createRoute("http://localhost:" + server.getAddress().getPort());
+
+            HttpClientConnection connection = lease(route);
+            assertEquals(1.0, metrics.get(POOL_GAUGE).tag("state", "leased").gauge().value());
+            connectionManager.releaseConnection(connection, null, 10, TimeUnit.SECONDS);
+            assertEquals(1.0, metrics.get(POOL_GAUGE).tag("state", "available").gauge().value());
+
+            // Pooled connection is reused
+            connection = lease(route);
+            connectionManager.releaseConnection(connection, null, 10, TimeUnit.SECONDS);
+
+            assertEquals(2, metrics.get("app.anshar.polling.connection.leased").tag("host", "localhost").timer().count());
+            assertEquals(1.0, metrics.get("app.anshar.polling.connection.created").tag("host", "localhost").counter().count());
+            assertEquals(0.0, metrics.get(POOL_GAUGE).tag("state", "leased").gauge().value());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private HttpClientConnection lease(HttpRoute route) throws Exception {
+        HttpClientConnection connection = connectionManager.requestConnection(route, null).get(1, TimeUnit.SECONDS);
+        if (!connection.isOpen()) {
+            BasicHttpContext context = new BasicHttpContext();
+            connectionManager.connect(connection, route, 1000, context);
+            connectionManager.routeComplete(connection, route, context);
+        }
+        return connection;
+    }
+}
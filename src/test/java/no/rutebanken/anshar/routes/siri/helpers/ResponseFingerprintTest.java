@@ -0,0 +1,75 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.helpers;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResponseFingerprintTest {
+
+    private static final String RESPONSE = "<Siri><ServiceDelivery><ResponseTimestamp>2024-01-01T12:00:00Z</ResponseTimestamp></ServiceDelivery></Siri>";
+
+    @Test
+    public void testUnchangedResponse() {
+        ResponseFingerprint fingerprint = new ResponseFingerprint(Duration.ofMinutes(10));
+
+        assertFalse(fingerprint.isUnchanged(ResponseFingerprint.hash(RESPONSE)));
+        fingerprint.update(ResponseFingerprint.hash(RESPONSE));
+        assertTrue(fingerprint.isUnchanged(ResponseFingerprint.hash(RESPONSE)));
+        assertTrue(fingerprint.isUnchanged(ResponseFingerprint.hash(RESPONSE)));
+    }
+
+    @Test
+    public void testChangedResponse() {
+        ResponseFingerprint fingerprint = new ResponseFingerprint(Duration.ofMinutes(10));
+
+        fingerprint.update(ResponseFingerprint.hash(RESPONSE));
+        assertFalse(fingerprint.isUnchanged(ResponseFingerprint.hash(RESPONSE.replace("12:00:00", "12:00:30"))));
+        fingerprint.update(ResponseFingerprint.hash(RESPONSE.replace("12:00:00", "12:00:30")));
+        assertFalse(fingerprint.isUnchanged(ResponseFingerprint.hash(RESPONSE)));
+    }
+
+    @Test
+    public void testUncommittedResponseIsNotSkipped() {
+        ResponseFingerprint fingerprint = new ResponseFingerprint(Duration.ofMinutes(10));
+
+        // Response failed before the fingerprint was updated
+        assertFalse(fingerprint.isUnchanged(ResponseFingerprint.hash(RESPONSE)));
+        assertFalse(fingerprint.isUnchanged(ResponseFingerprint.hash(RESPONSE)));
+    }
+
+    @Test
+    public void testExpiredFingerprint() {
+        ResponseFingerprint fingerprint = new ResponseFingerprint(Duration.ZERO);
+
+        fingerprint.update(ResponseFingerprint.hash(RESPONSE));
+        assertFalse(fingerprint.isUnchanged(ResponseFingerprint.hash(RESPONSE)));
+    }
+
+    @Test
+    public void testReset() {
+        ResponseFingerprint fingerprint = new ResponseFingerprint(Duration.ofMinutes(10));
+
+        fingerprint.update(ResponseFingerprint.hash(RESPONSE));
+        fingerprint.reset();
+        assertFalse(fingerprint.isUnchanged(ResponseFingerprint.hash(RESPONSE)));
+        assertFalse(fingerprint.isUnchanged(ResponseFingerprint.hash("")));
+    }
+}
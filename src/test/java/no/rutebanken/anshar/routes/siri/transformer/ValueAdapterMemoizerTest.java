@@ -0,0 +1,105 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.transformer;
+
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ValueAdapterMemoizerTest {
+
+    @Test
+    public void testCacheHitAndMiss() {
+        ValueAdapterMemoizer memoizer = new ValueAdapterMemoizer(true, 100, new PrometheusMetricsService());
+        CountingAdapter adapter = new CountingAdapter("prefix", "A:");
+
+        assertEquals("A:1", memoizer.apply(adapter, "1"));
+        assertEquals("A:1", memoizer.apply(adapter, "1"));
+        assertEquals(1, adapter.applied.get());
+        assertEquals(1, adapter.memoized.get());
+
+        assertEquals("A:2", memoizer.apply(adapter, "2"));
+        assertEquals(2, adapter.applied.get());
+
+        memoizer.invalidateAll();
+        assertEquals("A:1", memoizer.apply(adapter, "1"));
+        assertEquals(3, adapter.applied.get());
+    }
+
+    @Test
+    public void testCachesAreSeparatedByMemoizationKey() {
+        ValueAdapterMemoizer memoizer = new ValueAdapterMemoizer(true, 100, new PrometheusMetricsService());
+        CountingAdapter first = new CountingAdapter("prefix-A", "A:");
+        CountingAdapter second = new CountingAdapter("prefix-B", "B:");
+
+        assertEquals("A:1", memoizer.apply(first, "1"));
+        assertEquals("B:1", memoizer.apply(second, "1"));
+        assertEquals(1, first.applied.get());
+        assertEquals(1, second.applied.get());
+
+        // Same configuration shares cache
+        CountingAdapter sameAsFirst = new CountingAdapter("prefix-A", "A:");
+        assertEquals("A:1", memoizer.apply(sameAsFirst, "1"));
+        assertEquals(0, sameAsFirst.applied.get());
+    }
+
+    @Test
+    public void testNotMemoized() {
+        ValueAdapterMemoizer memoizer = new ValueAdapterMemoizer(true, 100, new PrometheusMetricsService());
+        CountingAdapter withoutKey = new CountingAdapter(null, "A:");
+        memoizer.apply(withoutKey, "1");
+        memoizer.apply(withoutKey, "1");
+        assertEquals(2, withoutKey.applied.get());
+
+        ValueAdapterMemoizer disabled = new ValueAdapterMemoizer(false, 100, new PrometheusMetricsService());
+        CountingAdapter adapter = new CountingAdapter("prefix", "A:");
+        disabled.apply(adapter, "1");
+        disabled.apply(adapter, "1");
+        assertEquals(2, adapter.applied.get());
+    }
+
+    private static class CountingAdapter extends ValueAdapter {
+        private final String memoizationKey;
+        private final String prefix;
+        private final AtomicInteger applied = new AtomicInteger();
+        private final AtomicInteger memoized = new AtomicInteger();
+
+        private CountingAdapter(String memoizationKey, String prefix) {
+            super(String.class);
+            this.memoizationKey = memoizationKey;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected String apply(String value) {
+            applied.incrementAndGet();
+            return prefix + value;
+        }
+
+        @Override
+        protected String getMemoizationKey() {
+            return memoizationKey;
+        }
+
+        @Override
+        protected void onMemoizedResult(String value, String result) {
+            memoized.incrementAndGet();
+        }
+    }
+}
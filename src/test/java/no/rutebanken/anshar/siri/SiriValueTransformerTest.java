@@ -28,6 +28,7 @@ import no.rutebanken.anshar.subscription.helpers.MappingAdapterPresets;
 import org.junit.jupiter.api.Test;
 import uk.org.siri.siri21.BlockRefStructure;
 import uk.org.siri.siri21.DestinationRef;
+import uk.org.siri.siri21.EstimatedCall;
 import uk.org.siri.siri21.EstimatedTimetableDeliveryStructure;
 import uk.org.siri.siri21.EstimatedVehicleJourney;
 import uk.org.siri.siri21.EstimatedVersionFrameStructure;
@@ -35,6 +36,7 @@ import uk.org.siri.siri21.JourneyPlaceRefStructure;
 import uk.org.siri.siri21.LineRef;
 import uk.org.siri.siri21.ServiceDelivery;
 import uk.org.siri.siri21.Siri;
+import uk.org.siri.siri21.StopPointRefStructure;
 
 import javax.xml.bind.JAXBException;
 import java.io.IOException;
@@ -118,6 +120,26 @@ public class SiriValueTransformerTest extends SpringBootBaseTest {
 
     }
 
+    @Test
+    public void testFusedTransformEqualsSequentialTransform() throws JAXBException {
+        String lineRefValue = "123:4";
+        String blockRefValue = "34";
+
+        List<ValueAdapter> mappingAdapters = new ArrayList<>();
+        mappingAdapters.add(new RuterSubstringAdapter(LineRef.class, ':', '0', 2));
+        mappingAdapters.add(new LeftPaddingAdapter(BlockRefStructure.class, 4, '0'));
+        mappingAdapters.add(new LeftPaddingAdapter(LineRef.class, 6, '0'));
+
+        Siri fused = SiriValueTransformer.transform(createSiriObject(lineRefValue, blockRefValue), mappingAdapters, false, false, true);
+        Siri sequential = SiriValueTransformer.transform(createSiriObject(lineRefValue, blockRefValue), mappingAdapters, false, false, false);
+
+        assertEquals(lineRefValue + SiriValueTransformer.SEPARATOR + "012304", getLineRefFromSiriObj(fused));
+        assertEquals(blockRefValue + SiriValueTransformer.SEPARATOR + "0034", getBlockRefFromSiriObj(fused));
+
+        assertEquals(getLineRefFromSiriObj(sequential), getLineRefFromSiriObj(fused), "Fused and sequential transform should give same LineRef");
+        assertEquals(getBlockRefFromSiriObj(sequential), getBlockRefFromSiriObj(fused), "Fused and sequential transform should give same BlockRef");
+    }
+
     @Test
     public void testOutboundMappingAdapters() throws JAXBException {
         String lineRefValue = "123:4";
@@ -262,6 +284,43 @@ public class SiriValueTransformerTest extends SpringBootBaseTest {
 
     }
 
+    @Test
+    public void testNestedStopPointRefsInMultipleJourneys() {
+        String lineRefValue = "99";
+        String blockRefValue = "34";
+
+        Siri siri = createSiriObject(lineRefValue, blockRefValue);
+        EstimatedVersionFrameStructure frame = siri.getServiceDelivery().getEstimatedTimetableDeliveries().get(0).getEstimatedJourneyVersionFrames().get(0);
+        frame.getEstimatedVehicleJourneies().add(createSiriObject(lineRefValue, blockRefValue)
+            .getServiceDelivery().getEstimatedTimetableDeliveries().get(0).getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies().get(0));
+
+        for (EstimatedVehicleJourney journey : frame.getEstimatedVehicleJourneies()) {
+            EstimatedVehicleJourney.EstimatedCalls calls = new EstimatedVehicleJourney.EstimatedCalls();
+            for (int i = 1; i <= 3; i++) {
+                EstimatedCall call = new EstimatedCall();
+                StopPointRefStructure stopPointRef = new StopPointRefStructure();
+                stopPointRef.setValue("" + i);
+                call.setStopPointRef(stopPointRef);
+                calls.getEstimatedCalls().add(call);
+            }
+            journey.setEstimatedCalls(calls);
+        }
+
+        List<ValueAdapter> mappingAdapters = new ArrayList<>();
+        mappingAdapters.add(new LeftPaddingAdapter(StopPointRefStructure.class, 3, '0'));
+
+        siri = SiriValueTransformer.transform(siri, mappingAdapters, false, false);
+
+        for (EstimatedVehicleJourney journey : siri.getServiceDelivery().getEstimatedTimetableDeliveries().get(0).getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies()) {
+            List<EstimatedCall> calls = journey.getEstimatedCalls().getEstimatedCalls();
+            for (int i = 0; i < calls.size(); i++) {
+                String stopPointRef = "" + (i + 1);
+                assertEquals(stopPointRef + SiriValueTransformer.SEPARATOR + "00" + stopPointRef, calls.get(i).getStopPointRef().getValue(), "StopPointRef has not been padded as expected");
+            }
+            assertEquals(lineRefValue, journey.getLineRef().getValue(), "LineRef should not be padded");
+        }
+    }
+
     private Siri createSiriObject(String lineRefValue, String blockRefValue) {
         return createSiriObject(lineRefValue, blockRefValue, null, null);
     }
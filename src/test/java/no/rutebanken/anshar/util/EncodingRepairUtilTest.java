@@ -0,0 +1,56 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class EncodingRepairUtilTest {
+
+    @Test
+    public void testNoRepairReturnsSameInstance() {
+        String text = "<StopPointName>Jernbanetorget</StopPointName>";
+        assertSame(text, EncodingRepairUtil.fixEncodingErrors(text));
+    }
+
+    @Test
+    public void testNull() {
+        assertNull(EncodingRepairUtil.fixEncodingErrors(null));
+    }
+
+    @Test
+    public void testRepairAllKnownSequences() {
+        String text = "Ã¦Ã†Ã¸Ã\u0098Ã¥Ã\u0085";
+        assertEquals("æÆøØåÅ", EncodingRepairUtil.fixEncodingErrors(text));
+    }
+
+    @Test
+    public void testRepairInsideText() {
+        String text = "<StopPointName>TÃ¸yen</StopPointName><DestinationName>SkÃ¥rer</DestinationName>";
+        assertEquals("<StopPointName>Tøyen</StopPointName><DestinationName>Skårer</DestinationName>", EncodingRepairUtil.fixEncodingErrors(text));
+    }
+
+    @Test
+    public void testUnknownSequenceIsKept() {
+        String text = "ÃxÃ";
+        assertSame(text, EncodingRepairUtil.fixEncodingErrors(text));
+
+        assertEquals("ÃxøÃ", EncodingRepairUtil.fixEncodingErrors("ÃxÃ¸Ã"));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.validation;
+
+import no.rutebanken.anshar.routes.validation.BoundedValidationExecutor;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BoundedValidationExecutorTest {
+
+    @Test
+    public void testSampling() {
+        BoundedValidationExecutor executor = new BoundedValidationExecutor(1, 10, 3);
+
+        int validated = 0;
+        for (int i = 0; i < 9; i++) {
+            if (executor.shouldValidate("sub-1", false)) {
+                validated++;
+            }
+        }
+        assertEquals(3, validated);
+
+        for (int i = 0; i < 9; i++) {
+            assertTrue(executor.shouldValidate("sub-2", true));
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testDropWhenQueueIsFull() throws InterruptedException {
+        BoundedValidationExecutor executor = new BoundedValidationExecutor(1, 2, 1);
+
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        assertTrue(executor.submit(() -> {
+            started.countDown();
+            awaitQuietly(blocker);
+        }, true));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertTrue(executor.submit(() -> {}, false));
+        assertTrue(executor.submit(() -> {}, false));
+        assertFalse(executor.submit(() -> {}, false));
+
+        assertEquals(2, executor.getQueueSize());
+        assertEquals(1, executor.getDroppedCount());
+
+        blocker.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testExplicitValidationIsPrioritized() throws InterruptedException {
+        BoundedValidationExecutor executor = new BoundedValidationExecutor(1, 10, 1);
+
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        executor.submit(() -> {
+            started.countDown();
+            awaitQuietly(blocker);
+        }, false);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        executor.submit(() -> {order.add("sampled-1"); done.countDown();}, false);
+        executor.submit(() -> {order.add("sampled-2"); done.countDown();}, false);
+        executor.submit(() -> {order.add("explicit"); done.countDown();}, true);
+
+        blocker.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of("explicit", "sampled-1", "sampled-2"), order);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testExplicitValidationReplacesSampledWhenQueueIsFull() throws InterruptedException {
+        BoundedValidationExecutor executor = new BoundedValidationExecutor(1, 2, 1);
+
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        executor.submit(() -> {
+            started.countDown();
+            awaitQuietly(blocker);
+        }, false);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertTrue(executor.submit(() -> {order.add("sampled-1"); done.countDown();}, false));
+        assertTrue(executor.submit(() -> {order.add("sampled-2"); done.countDown();}, false));
+
+        // Most recent sampled task is evicted
+        assertTrue(executor.submit(() -> {order.add("explicit-1"); done.countDown();}, true));
+        assertEquals(2, executor.getQueueSize());
+        assertEquals(1, executor.getDroppedCount());
+
+        // Queue has no sampled tasks left to evict after the next one
+        assertTrue(executor.submit(() -> {order.add("explicit-2"); done.countDown();}, true));
+        assertFalse(executor.submit(() -> {order.add("explicit-3");}, true));
+        assertEquals(3, executor.getDroppedCount());
+
+        blocker.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of("explicit-1", "explicit-2"), order);
+        executor.shutdown();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}